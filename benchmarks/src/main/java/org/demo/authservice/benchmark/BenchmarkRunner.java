@@ -0,0 +1,29 @@
+package org.demo.authservice.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description runs the benchmarks single-threaded and contended at 4 and 16 threads.
+ * accepts the usual JMH options, e.g. {@code java -jar target/benchmarks.jar checkRole -p size=1000},
+ * an explicit -t runs only that thread count
+ */
+public class BenchmarkRunner {
+    private static final int[] THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.getThreads().hasValue()) {
+            new Runner(options).run();
+            return;
+        }
+        for (int threads : THREADS) {
+            new Runner(new OptionsBuilder().parent(options).threads(threads).build()).run();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.demo.authservice.benchmark;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.metrics.HistogramSnapshot;
+import org.demo.authservice.metrics.LatencyHistogram;
+import org.demo.authservice.server.AuthClient;
+import org.demo.authservice.server.AuthServer;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.demo.authservice.utils.EncryptUtil;
+import org.demo.authservice.utils.StoreUtil;
+import org.demo.authservice.utils.TokenUtil;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description drives an {@link AuthServer} started in this JVM over loopback. every connection keeps
+ * {@code depth} requests in flight, mostly checkRole with a share of authenticateUser, and the round trip
+ * of every request is recorded. options are name=value pairs, e.g.
+ * {@code java -cp target/benchmarks.jar org.demo.authservice.benchmark.LoadGenerator connections=16 depth=128}
+ */
+public class LoadGenerator {
+
+    private static final int ID_MASK = (1 << 20) - 1;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("expected name=value, got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        int connections = Integer.parseInt(options.getOrDefault("connections", "4"));
+        int depth = Integer.parseInt(options.getOrDefault("depth", "64"));
+        int users = Integer.parseInt(options.getOrDefault("users", "10000"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        double authenticateShare = Double.parseDouble(options.getOrDefault("authenticate", "0.001"));
+
+        UserServiceImpl userService = new UserServiceImpl();
+        userService.createRole(Population.ROLE);
+        Role role = new Role(Population.ROLE);
+        byte[] hash = EncryptUtil.hashPassword(Population.PASSWORD);
+        String[] tokens = new String[users];
+        for (int i = 0; i < users; i++) {
+            User user = new User("user" + i, hash);
+            user.addRole(role);
+            StoreUtil.storeUser(user);
+            tokens[i] = TokenUtil.generateToken(user);
+        }
+
+        try (AuthServer server = new AuthServer(userService,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            LatencyHistogram latency = new LatencyHistogram();
+            AtomicLong completed = new AtomicLong();
+            AtomicLong failed = new AtomicLong();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int c = 0; c < connections; c++) {
+                Thread thread = new Thread(() -> {
+                    try (AuthClient client = new AuthClient(server.getAddress())) {
+                        drive(client, depth, deadline, tokens, authenticateShare, latency, completed, failed);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, "load-" + c);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            HistogramSnapshot snapshot = latency.snapshot();
+            System.out.printf("connections=%d depth=%d users=%d: %d requests/s, %d failed%n",
+                    connections, depth, users, completed.get() / seconds, failed.get());
+            System.out.printf("round trip ns: %s%n", snapshot);
+        } finally {
+            userService.destroy();
+        }
+    }
+
+    private static void drive(AuthClient client, int depth, long deadline, String[] tokens, double authenticateShare,
+                              LatencyHistogram latency, AtomicLong completed, AtomicLong failed) throws IOException {
+        long[] sentAt = new long[ID_MASK + 1];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int inFlight = 0;
+        long count = 0;
+        long failures = 0;
+        while (true) {
+            // top the window up in batches, so that requests go out in few writes
+            if (inFlight <= depth / 2 && System.nanoTime() < deadline) {
+                while (inFlight < depth) {
+                    int id;
+                    if (random.nextDouble() < authenticateShare) {
+                        id = client.sendAuthenticate("user" + random.nextInt(tokens.length), Population.PASSWORD);
+                    } else {
+                        id = client.sendCheckRole(tokens[random.nextInt(tokens.length)], Population.ROLE);
+                    }
+                    sentAt[id & ID_MASK] = System.nanoTime();
+                    inFlight++;
+                }
+                client.flush();
+            }
+            if (inFlight == 0) {
+                break;
+            }
+            AuthClient.Response response = client.receive();
+            latency.recordSince(sentAt[response.getId() & ID_MASK]);
+            inFlight--;
+            count++;
+            if (!response.isOk()) {
+                failures++;
+            }
+        }
+        completed.addAndGet(count);
+        failed.addAndGet(failures);
+    }
+}
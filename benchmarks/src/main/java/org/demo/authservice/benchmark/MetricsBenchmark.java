@@ -0,0 +1,53 @@
+package org.demo.authservice.benchmark;
+
+import org.demo.authservice.metrics.Counter;
+import org.demo.authservice.metrics.LatencyHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description cost of the instrumentation added to every checkRole, compare with
+ * {@link UserServiceBenchmark#checkRole} at the same thread count
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private final Counter counter = new Counter();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * a single clock read, the part of timedCall that depends on the machine's clock source
+     */
+    @Benchmark
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public void counter() {
+        counter.increment();
+    }
+
+    /**
+     * what checkRole pays per call: two clock reads and a histogram record
+     */
+    @Benchmark
+    public void timedCall() {
+        histogram.recordSince(System.nanoTime());
+    }
+}
@@ -0,0 +1,100 @@
+package org.demo.authservice.benchmark;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.demo.authservice.utils.EncryptUtil;
+import org.demo.authservice.utils.StoreUtil;
+import org.demo.authservice.utils.TokenUtil;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description users with one session each, shared by all benchmark threads.
+ * every trial runs in a fresh fork, so the static stores hold only this population
+ */
+@State(Scope.Benchmark)
+public class Population {
+    static final String PASSWORD = "123456";
+    static final String ROLE = "member";
+
+    /**
+     * number of users and of sessions
+     */
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    /**
+     * kind of token the sessions are issued as, to compare the two token implementations
+     */
+    @Param({"SESSION", "SIGNED"})
+    public TokenUtil.TokenMode tokenMode;
+
+    UserServiceImpl userService;
+    Role role;
+    User[] users;
+    String[] tokens;
+    /**
+     * a token that was issued and invalidated, rejected as INVALID
+     */
+    String invalidatedToken;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        userService = new UserServiceImpl();
+        TokenUtil.setTokenMode(tokenMode);
+        userService.createRole(ROLE);
+        role = new Role(ROLE);
+        // hashed once, hashing cost is measured by createUser and authenticateUser
+        byte[] hash = EncryptUtil.hashPassword(PASSWORD);
+        users = new User[size];
+        tokens = new String[size];
+        for (int i = 0; i < size; i++) {
+            User user = new User("user" + i, hash);
+            user.addRole(role);
+            StoreUtil.storeUser(user);
+            users[i] = user;
+            tokens[i] = TokenUtil.generateToken(user);
+        }
+        invalidatedToken = TokenUtil.generateToken(users[0]);
+        userService.invalidateToken(invalidatedToken);
+        if (tokenMode == TokenUtil.TokenMode.SIGNED) {
+            // signing and revoking cost the same whatever the lifetime, the signed tokens issued by the
+            // benchmarks expire at once so that their revocations are pruned after every iteration
+            TokenUtil.setExpiredTime(1);
+        }
+    }
+
+    /**
+     * drop the revocations of the signed tokens invalidated in the iteration, the revocation filter would
+     * otherwise grow with every iteration and slow the later ones down
+     */
+    @TearDown(Level.Iteration)
+    public void pruneRevocations() {
+        if (tokenMode == TokenUtil.TokenMode.SIGNED) {
+            // the tokens were signed with the cached clock, which may lag the system clock by a tick
+            TokenUtil.pruneRevocations(System.currentTimeMillis() + 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void destroy() {
+        userService.destroy();
+    }
+
+    User randomUser() {
+        return users[ThreadLocalRandom.current().nextInt(size)];
+    }
+
+    String randomToken() {
+        return tokens[ThreadLocalRandom.current().nextInt(size)];
+    }
+}
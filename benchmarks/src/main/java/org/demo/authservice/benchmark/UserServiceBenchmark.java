@@ -0,0 +1,138 @@
+package org.demo.authservice.benchmark;
+
+import org.demo.authservice.entity.User;
+import org.demo.authservice.service.AuthException;
+import org.demo.authservice.service.AuthResult;
+import org.demo.authservice.utils.StoreUtil;
+import org.demo.authservice.utils.TokenUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description throughput of the IUserService operations over a {@link Population}.
+ * the thread count comes from the command line, see {@link BenchmarkRunner}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class UserServiceBenchmark {
+
+    /**
+     * unique user names per benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class NewUsers {
+        private static final AtomicInteger threads = new AtomicInteger();
+        private final String prefix = "new" + threads.incrementAndGet() + "-";
+        private int next;
+
+        String nextName() {
+            return prefix + next++;
+        }
+    }
+
+    /**
+     * hashes the password and grows the population by one user per operation
+     */
+    @Benchmark
+    public boolean createUser(Population population, NewUsers newUsers) {
+        return population.userService.createUser(newUsers.nextName(), Population.PASSWORD);
+    }
+
+    /**
+     * invalidates the issued token again, so the session population stays the same size
+     */
+    @Benchmark
+    public String authenticateUser(Population population) {
+        String token = population.userService.authenticateUser(population.randomUser().getUserName(), Population.PASSWORD);
+        population.userService.invalidateToken(token);
+        return token;
+    }
+
+    /**
+     * lock-free store read, compare the thread counts of {@link BenchmarkRunner} to see how reads scale
+     */
+    @Benchmark
+    public User getUser(Population population) {
+        return StoreUtil.getUser(population.randomUser().getUserName());
+    }
+
+    @Benchmark
+    public boolean checkRole(Population population) {
+        return population.userService.checkRole(population.randomToken(), population.role);
+    }
+
+    /**
+     * every thread checks the same token, touches of a shared session must not contend
+     */
+    @Benchmark
+    public boolean checkRoleSharedToken(Population population) {
+        return population.userService.checkRole(population.tokens[0], population.role);
+    }
+
+    @Benchmark
+    public AuthResult<Boolean> tryCheckRole(Population population) {
+        return population.userService.tryCheckRole(population.randomToken(), population.role);
+    }
+
+    /**
+     * a rejected token through the throwing API, to compare with {@link #tryCheckRoleRejected}
+     */
+    @Benchmark
+    public boolean checkRoleRejected(Population population) {
+        try {
+            return population.userService.checkRole(population.invalidatedToken, population.role);
+        } catch (AuthException e) {
+            return false;
+        }
+    }
+
+    /**
+     * a rejected token through the result-code API, expected to cost about what an accepted one does
+     */
+    @Benchmark
+    public AuthResult<Boolean> tryCheckRoleRejected(Population population) {
+        return population.userService.tryCheckRole(population.invalidatedToken, population.role);
+    }
+
+    @Benchmark
+    public List<?> allRoles(Population population) {
+        return population.userService.allRoles(population.randomToken());
+    }
+
+    /**
+     * issues a token without hashing and invalidates it, so the session population stays the same size
+     */
+    @Benchmark
+    public String invalidateToken(Population population) {
+        User user = population.randomUser();
+        String token = TokenUtil.generateToken(user);
+        population.userService.invalidateToken(token);
+        return token;
+    }
+
+    /**
+     * full scan of the sessions in which none has expired
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void removeExpiredToken(Population population) {
+        TokenUtil.removeExpiredToken();
+    }
+}
@@ -1,5 +1,7 @@
 package org.demo.authservice.entity;
 
+import org.demo.authservice.utils.RoleRegistry;
+
 import java.util.Objects;
 
 /**
@@ -13,6 +15,11 @@ public class Role {
      */
     private String roleName;
 
+    /**
+     * interned id of roleName, resolved on first use
+     */
+    private int id = -1;
+
     public Role(String roleName) {
         Objects.requireNonNull(roleName, "roleName can't be null!");
         this.roleName = roleName;
@@ -25,6 +32,19 @@ public class Role {
     public void setRoleName(String roleName) {
         Objects.requireNonNull(roleName, "roleName can't be null!");
         this.roleName = roleName;
+        this.id = -1;
+    }
+
+    /**
+     * @return the interned id of the role, -1 if no role of this name was ever created
+     */
+    public int getId() {
+        int roleId = id;
+        if (roleId < 0) {
+            roleId = RoleRegistry.lookup(roleName);
+            id = roleId;
+        }
+        return roleId;
     }
 
     @Override
@@ -0,0 +1,86 @@
+package org.demo.authservice.entity;
+
+import org.demo.authservice.utils.RoleRegistry;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description read-only list of the roles in a role bitset, roles are resolved only when they are read
+ */
+public class RoleList extends AbstractList<Role> {
+    private final long[] bits;
+    private final int size;
+
+    public RoleList(long[] bits) {
+        this.bits = bits;
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        this.size = count;
+    }
+
+    @Override
+    public Role get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int remaining = index;
+        for (int i = 0; i < bits.length; i++) {
+            int count = Long.bitCount(bits[i]);
+            if (remaining < count) {
+                long word = bits[i];
+                for (int j = 0; j < remaining; j++) {
+                    word &= word - 1;
+                }
+                return RoleRegistry.getRole((i << 6) + Long.numberOfTrailingZeros(word));
+            }
+            remaining -= count;
+        }
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Role)) {
+            return false;
+        }
+        int roleId = ((Role) o).getId();
+        return roleId >= 0 && (roleId >>> 6) < bits.length && (bits[roleId >>> 6] & (1L << roleId)) != 0;
+    }
+
+    @Override
+    public Iterator<Role> iterator() {
+        return new Iterator<Role>() {
+            private int word;
+            private long remaining = bits.length > 0 ? bits[0] : 0;
+
+            @Override
+            public boolean hasNext() {
+                while (remaining == 0 && word + 1 < bits.length) {
+                    remaining = bits[++word];
+                }
+                return remaining != 0;
+            }
+
+            @Override
+            public Role next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int roleId = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                return RoleRegistry.getRole(roleId);
+            }
+        };
+    }
+}
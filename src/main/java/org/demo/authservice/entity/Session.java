@@ -1,19 +1,55 @@
 package org.demo.authservice.entity;
 
+import org.demo.authservice.utils.TimingWheel;
+import org.demo.authservice.utils.TokenCodec;
+
 /**
  * @author Zhi Chen
  * @date 2022/8/27
  * @description store information associated with user's token
  */
-public class Session {
+public class Session extends TimingWheel.Entry {
+    /**
+     * the 128-bit token of the session
+     */
+    private final long tokenHigh;
+    private final long tokenLow;
     private User user;
-    private long time;
+    private volatile long time;
+
+    /**
+     * slot of the session in the session file, -1 if the session is kept in memory only
+     */
+    private volatile int slot = -1;
+
+    /**
+     * neighbours in the list of the user's sessions, see SessionIndex
+     */
+    private Session userPrev;
+    private Session userNext;
 
-    public Session(User user, long time) {
+    public Session(long tokenHigh, long tokenLow, User user, long time) {
+        this.tokenHigh = tokenHigh;
+        this.tokenLow = tokenLow;
         this.user = user;
         this.time = time;
     }
 
+    public long getTokenHigh() {
+        return tokenHigh;
+    }
+
+    public long getTokenLow() {
+        return tokenLow;
+    }
+
+    /**
+     * @return the wire form of the token, encoded on every call
+     */
+    public String getToken() {
+        return TokenCodec.encode(tokenHigh, tokenLow);
+    }
+
     public User getUser() {
         return user;
     }
@@ -29,4 +65,28 @@ public class Session {
     public void setTime(long time) {
         this.time = time;
     }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public Session getUserPrev() {
+        return userPrev;
+    }
+
+    public void setUserPrev(Session userPrev) {
+        this.userPrev = userPrev;
+    }
+
+    public Session getUserNext() {
+        return userNext;
+    }
+
+    public void setUserNext(Session userNext) {
+        this.userNext = userNext;
+    }
 }
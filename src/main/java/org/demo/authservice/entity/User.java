@@ -1,6 +1,9 @@
 package org.demo.authservice.entity;
 
-import java.util.ArrayList;
+import org.demo.authservice.utils.EncryptUtil;
+import org.demo.authservice.utils.RoleRegistry;
+
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -10,26 +13,47 @@ import java.util.Objects;
  * @description
  */
 public class User {
+    private static final long[] NO_ROLES = new long[0];
+    private static final byte[] NO_PASSWORD = new byte[0];
+
     /**
      * userName:unique identifier of one user
      */
     private String userName;
 
     /**
-     * password
+     * current state of the user, replaced as a whole on every change so that reads never lock
      */
-    private String password;
+    private volatile UserSnapshot snapshot;
+
+    /**
+     * a user with no password, to name the user in calls that look users up by name.
+     * it never authenticates, create users with a hash from {@link EncryptUtil#hashPassword(String)}
+     * @param userName unique identifier of the user
+     */
+    public User(String userName) {
+        this(userName, NO_PASSWORD);
+    }
+
     /**
-     * roles of the user
+     * @param userName unique identifier of the user
+     * @param passwordHash hash of the password from {@link EncryptUtil#hashPassword(String)}
      */
-    private List<Role> roles;
+    public User(String userName, byte[] passwordHash) {
+        this(userName, passwordHash, NO_ROLES);
+    }
 
-    public User(String userName, String password) {
+    /**
+     * @param userName unique identifier of the user
+     * @param passwordHash hash of the password from {@link EncryptUtil#hashPassword(String)}
+     * @param roleBits the role bitset indexed by role id, taken over by the user
+     */
+    public User(String userName, byte[] passwordHash, long[] roleBits) {
         Objects.requireNonNull(userName);
-        Objects.requireNonNull(password);
+        Objects.requireNonNull(passwordHash);
+        Objects.requireNonNull(roleBits);
         this.userName = userName;
-        this.password = password;
-        roles = new ArrayList<>();
+        this.snapshot = new UserSnapshot(0, passwordHash, roleBits);
     }
 
     public String getUserName() {
@@ -41,24 +65,138 @@ public class User {
         this.userName = userName;
     }
 
-    public String getPassword() {
-        return password;
+    /**
+     * @return the current state of the user, read it once to see the password and roles of one version
+     */
+    public UserSnapshot getSnapshot() {
+        return snapshot;
     }
 
-    public void setPassword(String password) {
-        Objects.requireNonNull(password);
-        this.password = password;
+    /**
+     * @return a detached user with the same name and state, changing it leaves this user untouched
+     */
+    public User copy() {
+        User copy = new User(userName, NO_PASSWORD);
+        copy.snapshot = snapshot;
+        return copy;
     }
 
+    /**
+     * replace the whole state of the user, e.g. with the one of a {@link #copy()} whose changes were persisted
+     * @param snapshot the new state
+     */
+    public synchronized void setSnapshot(UserSnapshot snapshot) {
+        Objects.requireNonNull(snapshot);
+        this.snapshot = snapshot;
+    }
+
+    public byte[] getPasswordHash() {
+        return snapshot.getPasswordHash();
+    }
+
+    public synchronized void setPasswordHash(byte[] passwordHash) {
+        Objects.requireNonNull(passwordHash);
+        this.snapshot = snapshot.withPasswordHash(passwordHash);
+    }
+
+    /**
+     * @return read-only list of the user's roles, shared by all readers of the current version
+     */
     public List<Role> getRoles() {
-        return roles;
+        return snapshot.getRoles();
+    }
+
+    /**
+     * @return read-only list of the user's roles and of the roles they inherit
+     */
+    public List<Role> getEffectiveRoles() {
+        return snapshot.getEffectiveRoles();
+    }
+
+    /**
+     * @return the role bitset indexed by role id, shared with the user and must not be modified
+     */
+    public long[] getRoleBits() {
+        return snapshot.getRoleBits();
+    }
+
+    public synchronized void setRoles(List<Role> roles) {
+        long[] bits = NO_ROLES;
+        for (Role role : roles) {
+            bits = withBit(bits, RoleRegistry.register(role.getRoleName()));
+        }
+        this.snapshot = snapshot.withRoleBits(bits);
     }
 
-    public void setRoles(List<Role> roles) {
-        this.roles = roles;
+    /**
+     * add the role if the user does not have it yet
+     * @param role the role to add
+     * @return true if the role was added
+     */
+    public synchronized boolean addRole(Role role) {
+        int roleId = RoleRegistry.register(role.getRoleName());
+        if (hasRole(roleId)) {
+            return false;
+        }
+        this.snapshot = snapshot.withRoleBits(withBit(snapshot.getRoleBits(), roleId));
+        return true;
+    }
+
+    /**
+     * add several roles with a single copy of the role bits
+     * @param roleIds interned ids of the roles to add
+     */
+    public synchronized void addRoles(int[] roleIds) {
+        long[] roleBits = snapshot.getRoleBits();
+        int words = roleBits.length;
+        for (int roleId : roleIds) {
+            words = Math.max(words, (roleId >>> 6) + 1);
+        }
+        long[] bits = Arrays.copyOf(roleBits, words);
+        for (int roleId : roleIds) {
+            bits[roleId >>> 6] |= 1L << roleId;
+        }
+        this.snapshot = snapshot.withRoleBits(bits);
+    }
+
+    /**
+     * remove the role if the user has it
+     * @param roleId interned id of the role
+     * @return true if the role was removed
+     */
+    public synchronized boolean removeRole(int roleId) {
+        if (!hasRole(roleId)) {
+            return false;
+        }
+        long[] bits = snapshot.getRoleBits().clone();
+        bits[roleId >>> 6] &= ~(1L << roleId);
+        this.snapshot = snapshot.withRoleBits(bits);
+        return true;
     }
 
     public boolean hasRole(Role role) {
-        return this.roles.contains(role);
+        return hasRole(role.getId());
+    }
+
+    /**
+     * @param roleId interned id of the role
+     * @return true if the role was granted to the user directly
+     */
+    public boolean hasRole(int roleId) {
+        return snapshot.hasRole(roleId);
+    }
+
+    /**
+     * @param roleId interned id of the role
+     * @return true if the user has the role directly or inherits it from another of its roles
+     */
+    public boolean hasEffectiveRole(int roleId) {
+        return snapshot.hasEffectiveRole(roleId);
+    }
+
+    private static long[] withBit(long[] bits, int roleId) {
+        long[] copy = Arrays.copyOf(bits, Math.max(bits.length, (roleId >>> 6) + 1));
+        copy[roleId >>> 6] |= 1L << roleId;
+        return copy;
     }
 }
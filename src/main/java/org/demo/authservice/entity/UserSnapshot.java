@@ -0,0 +1,129 @@
+package org.demo.authservice.entity;
+
+import org.demo.authservice.utils.RoleHierarchy;
+
+import java.util.List;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description immutable state of a user at one version. a user's writers build the next snapshot and
+ * swap it in, readers take the current one with a single volatile read and never see a half-applied
+ * change. arrays handed out are shared with the snapshot and must not be modified.
+ * the roles granted directly are expanded with the inherited ones on first use and the result is kept
+ * until the role hierarchy changes
+ */
+public final class UserSnapshot {
+    private final long version;
+    private final byte[] passwordHash;
+    private final long[] roleBits;
+    private final List<Role> roles;
+    private volatile EffectiveRoles effectiveRoles;
+
+    UserSnapshot(long version, byte[] passwordHash, long[] roleBits) {
+        this.version = version;
+        this.passwordHash = passwordHash;
+        this.roleBits = roleBits;
+        this.roles = new RoleList(roleBits);
+    }
+
+    /**
+     * @return number of changes the user went through before this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public byte[] getPasswordHash() {
+        return passwordHash;
+    }
+
+    /**
+     * @return the role bitset indexed by role id
+     */
+    public long[] getRoleBits() {
+        return roleBits;
+    }
+
+    /**
+     * @return read-only list of the roles, the same instance on every call
+     */
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    /**
+     * @param roleId interned id of the role
+     * @return true if the role was granted to the user directly
+     */
+    public boolean hasRole(int roleId) {
+        return hasBit(roleBits, roleId);
+    }
+
+    /**
+     * @param roleId interned id of the role
+     * @return true if the user has the role directly or inherits it from another of its roles
+     */
+    public boolean hasEffectiveRole(int roleId) {
+        RoleHierarchy.Closure closure = RoleHierarchy.current();
+        if (closure.isFlat()) {
+            return hasBit(roleBits, roleId);
+        }
+        return hasBit(effectiveRoles(closure).bits, roleId);
+    }
+
+    /**
+     * @return the bitset of the direct and inherited roles, indexed by role id
+     */
+    public long[] getEffectiveRoleBits() {
+        RoleHierarchy.Closure closure = RoleHierarchy.current();
+        return closure.isFlat() ? roleBits : effectiveRoles(closure).bits;
+    }
+
+    /**
+     * @return read-only list of the direct and inherited roles, the same instance until the hierarchy changes
+     */
+    public List<Role> getEffectiveRoles() {
+        RoleHierarchy.Closure closure = RoleHierarchy.current();
+        return closure.isFlat() ? roles : effectiveRoles(closure).roles;
+    }
+
+    private EffectiveRoles effectiveRoles(RoleHierarchy.Closure closure) {
+        EffectiveRoles effective = effectiveRoles;
+        if (effective == null || effective.closure != closure) {
+            long[] bits = closure.expand(roleBits);
+            // racing readers compute the same value, the last one is kept
+            effective = new EffectiveRoles(closure, bits, bits == roleBits ? roles : new RoleList(bits));
+            effectiveRoles = effective;
+        }
+        return effective;
+    }
+
+    private static boolean hasBit(long[] bits, int roleId) {
+        int word = roleId >>> 6;
+        return roleId >= 0 && word < bits.length && (bits[word] & (1L << roleId)) != 0;
+    }
+
+    UserSnapshot withPasswordHash(byte[] passwordHash) {
+        return new UserSnapshot(version + 1, passwordHash, roleBits);
+    }
+
+    UserSnapshot withRoleBits(long[] roleBits) {
+        return new UserSnapshot(version + 1, passwordHash, roleBits);
+    }
+
+    /**
+     * roles of the snapshot expanded against one closure of the role hierarchy
+     */
+    private static final class EffectiveRoles {
+        private final RoleHierarchy.Closure closure;
+        private final long[] bits;
+        private final List<Role> roles;
+
+        EffectiveRoles(RoleHierarchy.Closure closure, long[] bits, List<Role> roles) {
+            this.closure = closure;
+            this.bits = bits;
+            this.roles = roles;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.demo.authservice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description monotonic counter striped over cells, so that concurrent increments don't contend
+ */
+public class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long delta) {
+        adder.add(delta);
+    }
+
+    /**
+     * @return the sum of the cells, not an atomic snapshot while increments are in flight
+     */
+    public long get() {
+        return adder.sum();
+    }
+}
@@ -0,0 +1,11 @@
+package org.demo.authservice.metrics;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description a value read when a snapshot is taken, e.g. the size of a store
+ */
+@FunctionalInterface
+public interface Gauge {
+    long value();
+}
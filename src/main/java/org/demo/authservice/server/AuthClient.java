@@ -0,0 +1,206 @@
+package org.demo.authservice.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description blocking client of {@link AuthServer}, not thread safe. the send methods buffer a request
+ * and return its id, so that many requests can be sent before their responses are received. the other
+ * methods make one request and wait for its response, they are not meant to be mixed with pipelined
+ * requests whose responses are still pending
+ */
+public class AuthClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int nextId;
+
+    public AuthClient(InetSocketAddress address) throws IOException {
+        this.socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public int sendAuthenticate(String userName, String password) throws IOException {
+        return send(AuthProtocol.AUTHENTICATE, userName, password);
+    }
+
+    public int sendCheckRole(String token, String roleName) throws IOException {
+        return send(AuthProtocol.CHECK_ROLE, token, roleName);
+    }
+
+    public int sendAllRoles(String token) throws IOException {
+        return send(AuthProtocol.ALL_ROLES, token, null);
+    }
+
+    public int sendInvalidateToken(String token) throws IOException {
+        return send(AuthProtocol.INVALIDATE_TOKEN, token, null);
+    }
+
+    /**
+     * send the buffered requests
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * wait for the next response
+     */
+    public Response receive() throws IOException {
+        int length = in.readInt();
+        int id = in.readInt();
+        byte op = in.readByte();
+        byte status = in.readByte();
+        if (status != AuthProtocol.OK) {
+            return new Response(id, null, readString());
+        }
+        switch (op) {
+            case AuthProtocol.AUTHENTICATE:
+                return new Response(id, readString(), null);
+            case AuthProtocol.CHECK_ROLE:
+                return new Response(id, in.readBoolean(), null);
+            case AuthProtocol.ALL_ROLES:
+                int count = in.readUnsignedShort();
+                List<String> roleNames = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    roleNames.add(readString());
+                }
+                return new Response(id, roleNames, null);
+            case AuthProtocol.INVALIDATE_TOKEN:
+                return new Response(id, null, null);
+            default:
+                in.skipBytes(length - 6);
+                throw new IOException("unknown operation " + op);
+        }
+    }
+
+    /**
+     * @return the token
+     * @throws RuntimeException with the server's message if authentication failed
+     */
+    public String authenticateUser(String userName, String password) throws IOException {
+        return (String) call(sendAuthenticate(userName, password));
+    }
+
+    /**
+     * @throws RuntimeException with the server's message if the token is not valid
+     */
+    public boolean checkRole(String token, String roleName) throws IOException {
+        return (Boolean) call(sendCheckRole(token, roleName));
+    }
+
+    /**
+     * @return names of the user's roles
+     * @throws RuntimeException with the server's message if the token is not valid
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> allRoles(String token) throws IOException {
+        return (List<String>) call(sendAllRoles(token));
+    }
+
+    public void invalidateToken(String token) throws IOException {
+        call(sendInvalidateToken(token));
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private Object call(int id) throws IOException {
+        flush();
+        Response response = receive();
+        if (response.getId() != id) {
+            throw new IOException("response " + response.getId() + " does not match request " + id);
+        }
+        if (!response.isOk()) {
+            throw new RuntimeException(response.getError());
+        }
+        return response.getValue();
+    }
+
+    private int send(byte op, String first, String second) throws IOException {
+        byte[] firstBytes = AuthProtocol.encode(first);
+        byte[] secondBytes = second == null ? null : AuthProtocol.encode(second);
+        int length = 7 + firstBytes.length + (secondBytes == null ? 0 : 2 + secondBytes.length);
+        if (length > AuthProtocol.MAX_MESSAGE_LENGTH) {
+            throw new IllegalArgumentException("request is too long");
+        }
+        int id = nextId++;
+        out.writeInt(length);
+        out.writeByte(op);
+        out.writeInt(id);
+        out.writeShort(firstBytes.length);
+        out.write(firstBytes);
+        if (secondBytes != null) {
+            out.writeShort(secondBytes.length);
+            out.write(secondBytes);
+        }
+        return id;
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * response to one request
+     */
+    public static final class Response {
+
+        private final int id;
+        private final Object value;
+        private final String error;
+
+        Response(int id, Object value, String error) {
+            this.id = id;
+            this.value = value;
+            this.error = error;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public boolean isOk() {
+            return error == null;
+        }
+
+        /**
+         * @return the token of an authentication, the Boolean of a role check, the role names of allRoles,
+         * null for an invalidation or a failed request
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * @return the server's message if the request failed, else null
+         */
+        public String getError() {
+            return error;
+        }
+    }
+}
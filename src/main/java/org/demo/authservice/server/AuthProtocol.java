@@ -0,0 +1,74 @@
+package org.demo.authservice.server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description binary protocol of {@link AuthServer}. every message is an int length followed by that
+ * many bytes. a request is [op][int id][arguments], a response is [int id][op][status][result] where
+ * result is an error message unless status is OK. strings are an unsigned short length and UTF-8 bytes.
+ * ids are chosen by the client, responses of pipelined requests may come back in any order
+ */
+final class AuthProtocol {
+
+    /**
+     * userName, password -> token
+     */
+    static final byte AUTHENTICATE = 1;
+    /**
+     * token, roleName -> byte 0 or 1
+     */
+    static final byte CHECK_ROLE = 2;
+    /**
+     * token -> unsigned short count, roleNames
+     */
+    static final byte ALL_ROLES = 3;
+    /**
+     * token -> nothing
+     */
+    static final byte INVALIDATE_TOKEN = 4;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    static final int MAX_MESSAGE_LENGTH = 64 * 1024;
+    static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private AuthProtocol() {
+    }
+
+    /**
+     * @throws BufferUnderflowException if the string runs past the buffer's limit
+     */
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("string is too long");
+        }
+        return bytes;
+    }
+
+    static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+}
@@ -0,0 +1,463 @@
+package org.demo.authservice.server;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.metrics.Counter;
+import org.demo.authservice.metrics.MetricsRegistry;
+import org.demo.authservice.service.AuthResult;
+import org.demo.authservice.service.IAsyncUserService;
+import org.demo.authservice.service.IUserService;
+import org.demo.authservice.utils.TokenUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description network endpoint of the user service speaking {@link AuthProtocol}, served by one
+ * selector thread. checkRole, allRoles and invalidateToken are cheap and run inline on that thread, the
+ * first two through the non-throwing variants so that a rejected token costs no exception, unless tokens
+ * are kept in a {@link TokenUtil#getSessionStore() session store} that may look them up on other nodes:
+ * then they go through the async service like authenticateUser, which hashes the password on the
+ * service's hashing pool, and their responses are handed back to the selector thread. a client may
+ * pipeline requests, the responses of one read are written in one go from a direct buffer kept by the
+ * connection. a client that does not read its responses has its requests left undecoded once
+ * {@link #MAX_PENDING_OUTPUT} bytes are pending, and is dropped if they still reach
+ * {@link #MAX_OUTPUT_BUFFER}
+ */
+public class AuthServer implements Closeable {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    /**
+     * stop reading from a client that does not read its responses once this many bytes are pending
+     */
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    /**
+     * close the connection of a client whose pending responses would outgrow this
+     */
+    private static final int MAX_OUTPUT_BUFFER = 4 * MAX_PENDING_OUTPUT;
+    /**
+     * stop accepting for this long when accepting fails, e.g. out of file descriptors
+     */
+    private static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private static final Counter requests = MetricsRegistry.getDefault().counter("server.requests");
+    private static final Counter protocolErrors = MetricsRegistry.getDefault().counter("server.protocol_errors");
+    private static final Counter acceptFailures = MetricsRegistry.getDefault().counter("server.accept_failures");
+
+    private final IUserService users;
+    private final IAsyncUserService asyncUsers;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final SelectionKey serverKey;
+    private final InetSocketAddress address;
+    private final ConcurrentLinkedQueue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    private final Thread eventLoop;
+    /**
+     * when accepting resumes after a failure, 0 while accepting
+     */
+    private long acceptPausedUntil;
+    private volatile boolean closed;
+
+    /**
+     * start serving the user service
+     * @param service the user service, e.g. a started UserServiceImpl
+     * @param bindAddress address to listen on, port 0 picks a free port
+     */
+    public <S extends IUserService & IAsyncUserService> AuthServer(S service, InetSocketAddress bindAddress)
+            throws IOException {
+        this.users = service;
+        this.asyncUsers = service;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(bindAddress);
+            serverChannel.configureBlocking(false);
+            this.serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.address = (InetSocketAddress) serverChannel.getLocalAddress();
+        this.eventLoop = new Thread(this::run, "authservice-server-" + address.getPort());
+        eventLoop.start();
+    }
+
+    /**
+     * @return the address clients connect to
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * stop accepting requests and close every connection
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            eventLoop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                if (acceptPausedUntil == 0) {
+                    selector.select();
+                } else {
+                    long wait = acceptPausedUntil - System.currentTimeMillis();
+                    if (wait > 0) {
+                        selector.select(wait);
+                    }
+                    if (System.currentTimeMillis() >= acceptPausedUntil) {
+                        acceptPausedUntil = 0;
+                        serverKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                }
+                Runnable completion;
+                while ((completion = completions.poll()) != null) {
+                    completion.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept();
+                    } else if (key.isValid()) {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // a bad client only loses its own connection
+                            connection.close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // selector failed, nothing to serve with
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * a failure only loses the client being accepted, or pauses accepting when the server itself is short of
+     * resources, connections already open keep being served
+     */
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+        } catch (IOException e) {
+            acceptFailures.increment();
+            acceptPausedUntil = System.currentTimeMillis() + ACCEPT_BACKOFF_MILLIS;
+            serverKey.interestOps(0);
+            return;
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        } catch (IOException e) {
+            // the client went away before it was set up
+            acceptFailures.increment();
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * run on the selector thread
+     */
+    private void complete(Runnable completion) {
+        completions.add(completion);
+        selector.wakeup();
+    }
+
+    private static String messageOf(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof RejectedExecutionException) {
+            return "server is busy";
+        }
+        return error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    private interface ResponseWriter<T> {
+
+        void write(T value) throws IOException;
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final String callerKey;
+        private final ByteBuffer in = ByteBuffer.allocate(4 + AuthProtocol.MAX_MESSAGE_LENGTH);
+        private ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private SelectionKey key;
+        private boolean open = true;
+
+        Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+            this.callerKey = remote == null ? null : remote.getAddress().getHostAddress();
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        /**
+         * write pending responses, then decode the requests left undecoded while too many were pending
+         */
+        void write() throws IOException {
+            flush();
+            if (open && out.position() < MAX_PENDING_OUTPUT && hasRequest()) {
+                process();
+            }
+        }
+
+        /**
+         * decode and handle the whole requests read so far, flushing whenever too many responses are pending,
+         * until the client stops taking them
+         */
+        private void process() throws IOException {
+            do {
+                in.flip();
+                while (in.remaining() >= 4 && out.position() < MAX_PENDING_OUTPUT) {
+                    int length = in.getInt(in.position());
+                    if (length < 5 || length > AuthProtocol.MAX_MESSAGE_LENGTH) {
+                        protocolErrors.increment();
+                        throw new IOException("bad message length " + length);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        break;
+                    }
+                    int end = in.position() + 4 + length;
+                    int limit = in.limit();
+                    in.position(in.position() + 4).limit(end);
+                    handle(in);
+                    in.limit(limit).position(end);
+                }
+                in.compact();
+                flush();
+            } while (open && out.position() < MAX_PENDING_OUTPUT && hasRequest());
+        }
+
+        /**
+         * @return true if a whole request, or a bad length, was read and not decoded yet
+         */
+        private boolean hasRequest() {
+            return in.position() >= 4 && in.position() >= 4 + in.getInt(0);
+        }
+
+        private void handle(ByteBuffer request) throws IOException {
+            byte op;
+            int id;
+            String first;
+            String second = null;
+            try {
+                op = request.get();
+                id = request.getInt();
+                first = AuthProtocol.getString(request);
+                if (op == AuthProtocol.AUTHENTICATE || op == AuthProtocol.CHECK_ROLE) {
+                    second = AuthProtocol.getString(request);
+                }
+            } catch (BufferUnderflowException e) {
+                protocolErrors.increment();
+                throw new IOException("malformed request");
+            }
+            requests.increment();
+            try {
+                switch (op) {
+                    case AuthProtocol.AUTHENTICATE:
+                        reply(op, id, asyncUsers.authenticateUserAsync(first, second, callerKey),
+                                token -> writeString(AuthProtocol.AUTHENTICATE, id, AuthProtocol.OK, token));
+                        break;
+                    case AuthProtocol.CHECK_ROLE:
+                        if (TokenUtil.getSessionStore() != null) {
+                            reply(op, id, asyncUsers.checkRoleAsync(first, new Role(second)), granted ->
+                                    begin(11, AuthProtocol.CHECK_ROLE, id, AuthProtocol.OK)
+                                            .put((byte) (granted ? 1 : 0)));
+                            break;
+                        }
+                        AuthResult<Boolean> hasRole = users.tryCheckRole(first, new Role(second));
+                        if (!hasRole.isOk()) {
+                            writeString(op, id, AuthProtocol.ERROR, hasRole.getStatus().getMessage());
+                        } else {
+                            begin(11, op, id, AuthProtocol.OK).put((byte) (hasRole.getValue() ? 1 : 0));
+                        }
+                        break;
+                    case AuthProtocol.ALL_ROLES:
+                        if (TokenUtil.getSessionStore() != null) {
+                            reply(op, id, asyncUsers.allRolesAsync(first), roles -> writeRoles(id, roles));
+                            break;
+                        }
+                        AuthResult<List<Role>> roles = users.tryAllRoles(first, true);
+                        if (!roles.isOk()) {
+                            writeString(op, id, AuthProtocol.ERROR, roles.getStatus().getMessage());
+                        } else {
+                            writeRoles(id, roles.getValue());
+                        }
+                        break;
+                    case AuthProtocol.INVALIDATE_TOKEN:
+                        users.invalidateToken(first);
+                        begin(10, op, id, AuthProtocol.OK);
+                        break;
+                    default:
+                        protocolErrors.increment();
+                        throw new IOException("unknown operation " + op);
+                }
+            } catch (RuntimeException e) {
+                writeString(op, id, AuthProtocol.ERROR, messageOf(e));
+            }
+        }
+
+        /**
+         * write the response once the result completes, on the selector thread
+         */
+        private <T> void reply(byte op, int id, CompletableFuture<T> result, ResponseWriter<T> writer) {
+            result.whenComplete((value, error) -> complete(() -> {
+                if (!open) {
+                    return;
+                }
+                try {
+                    if (error == null) {
+                        writer.write(value);
+                    } else {
+                        writeString(op, id, AuthProtocol.ERROR, messageOf(error));
+                    }
+                    flush();
+                } catch (IOException | RuntimeException e) {
+                    close();
+                }
+            }));
+        }
+
+        private void writeString(byte op, int id, byte status, String value) throws IOException {
+            byte[] bytes = AuthProtocol.encode(value);
+            AuthProtocol.putString(begin(12 + bytes.length, op, id, status), bytes);
+        }
+
+        private void writeRoles(int id, List<Role> roles) throws IOException {
+            byte[][] names = new byte[roles.size()][];
+            int length = 12;
+            for (int i = 0; i < names.length; i++) {
+                names[i] = AuthProtocol.encode(roles.get(i).getRoleName());
+                length += 2 + names[i].length;
+            }
+            ByteBuffer buffer = begin(length, AuthProtocol.ALL_ROLES, id, AuthProtocol.OK);
+            buffer.putShort((short) names.length);
+            for (byte[] name : names) {
+                AuthProtocol.putString(buffer, name);
+            }
+        }
+
+        /**
+         * start a response in the output buffer, making room for it
+         * @param length size of the response including its length field
+         * @return the output buffer, positioned after the response's header
+         * @throws IOException if the client left more than {@link #MAX_OUTPUT_BUFFER} bytes unread
+         */
+        private ByteBuffer begin(int length, byte op, int id, byte status) throws IOException {
+            if (out.remaining() < length) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    // reported by the next read or write
+                }
+                if (out.remaining() < length) {
+                    if (out.position() + length > MAX_OUTPUT_BUFFER) {
+                        throw new IOException("client does not read its responses");
+                    }
+                    ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(MAX_OUTPUT_BUFFER,
+                            Math.max(out.capacity() * 2, out.position() + length)));
+                    out.flip();
+                    larger.put(out);
+                    out = larger;
+                }
+            }
+            return out.putInt(length - 4).putInt(id).put(op).put(status);
+        }
+
+        void flush() throws IOException {
+            if (!open) {
+                return;
+            }
+            out.flip();
+            if (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.compact();
+            int pending = out.position();
+            if (pending == 0 && out.capacity() > WRITE_BUFFER_SIZE) {
+                // drained after a burst, don't keep the larger buffer for the life of the connection
+                out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            }
+            int interest = pending > 0 ? SelectionKey.OP_WRITE : 0;
+            if (pending < MAX_PENDING_OUTPUT) {
+                interest |= SelectionKey.OP_READ;
+            }
+            try {
+                key.interestOps(interest);
+            } catch (IllegalStateException e) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        void close() {
+            if (open) {
+                open = false;
+                key.cancel();
+                closeQuietly(channel);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.demo.authservice.service;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description failure of an authentication or a token check. it carries no stack trace, so throwing one
+ * costs no more than returning, and there is a single shared instance per status
+ */
+public class AuthException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private static final AuthException[] INSTANCES = new AuthException[AuthStatus.values().length];
+
+    static {
+        for (AuthStatus status : AuthStatus.values()) {
+            if (status != AuthStatus.OK) {
+                INSTANCES[status.ordinal()] = new AuthException(status);
+            }
+        }
+    }
+
+    private final AuthStatus status;
+
+    private AuthException(AuthStatus status) {
+        // no cause, suppression or stack trace, so the shared instance is immutable
+        super(status.getMessage(), null, false, false);
+        this.status = status;
+    }
+
+    /**
+     * @param status a failure status
+     * @return the shared exception of the status
+     */
+    public static AuthException of(AuthStatus status) {
+        if (status == AuthStatus.OK) {
+            throw new IllegalArgumentException("OK is not a failure");
+        }
+        return INSTANCES[status.ordinal()];
+    }
+
+    public AuthStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,76 @@
+package org.demo.authservice.service;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description value or failure status returned by the non-throwing methods of {@link IUserService}.
+ * failures and role check answers are preallocated, so a rejected token or login allocates nothing
+ */
+public final class AuthResult<T> {
+    public static final AuthResult<Boolean> GRANTED = new AuthResult<>(AuthStatus.OK, Boolean.TRUE);
+    public static final AuthResult<Boolean> DENIED = new AuthResult<>(AuthStatus.OK, Boolean.FALSE);
+
+    private static final AuthResult<?>[] FAILURES = new AuthResult<?>[AuthStatus.values().length];
+
+    static {
+        for (AuthStatus status : AuthStatus.values()) {
+            if (status != AuthStatus.OK) {
+                FAILURES[status.ordinal()] = new AuthResult<>(status, null);
+            }
+        }
+    }
+
+    private final AuthStatus status;
+    private final T value;
+
+    private AuthResult(AuthStatus status, T value) {
+        this.status = status;
+        this.value = value;
+    }
+
+    public static <T> AuthResult<T> ok(T value) {
+        return new AuthResult<>(AuthStatus.OK, value);
+    }
+
+    public static AuthResult<Boolean> of(boolean granted) {
+        return granted ? GRANTED : DENIED;
+    }
+
+    /**
+     * @param status a failure status
+     * @return the shared result of the status
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AuthResult<T> failure(AuthStatus status) {
+        if (status == AuthStatus.OK) {
+            throw new IllegalArgumentException("OK is not a failure");
+        }
+        return (AuthResult<T>) FAILURES[status.ordinal()];
+    }
+
+    public AuthStatus getStatus() {
+        return status;
+    }
+
+    public boolean isOk() {
+        return status == AuthStatus.OK;
+    }
+
+    /**
+     * @return the value, null if the call failed
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return the value
+     * @throws AuthException of the status if the call failed
+     */
+    public T getOrThrow() {
+        if (status != AuthStatus.OK) {
+            throw AuthException.of(status);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,35 @@
+package org.demo.authservice.service;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description outcome of authenticating a user or using a token, see {@link AuthResult}
+ */
+public enum AuthStatus {
+    OK(null),
+    UNKNOWN_USER("user is not exist"),
+    BAD_PASSWORD("password is not right"),
+    THROTTLED("too many failed attempts"),
+    /**
+     * the token was valid but has expired. a session token is told expired while it is among the recently
+     * expired tokens of {@link org.demo.authservice.utils.TokenUtil#hasExpired(String)}, later it is INVALID
+     */
+    EXPIRED("token is not valid"),
+    /**
+     * the token is malformed, forged, revoked or unknown
+     */
+    INVALID("token is not valid");
+
+    private final String message;
+
+    AuthStatus(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return the message of the exception the throwing methods raise for this status, null for OK
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,26 @@
+package org.demo.authservice.service;
+
+import org.demo.authservice.entity.Role;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description non-blocking variant of {@link IUserService}. password hashing runs on a bounded pool
+ * and fails with RejectedExecutionException when the pool is saturated, cheap checks complete inline
+ * unless tokens are kept in a session store that may look them up remotely
+ */
+public interface IAsyncUserService {
+
+    CompletableFuture<Boolean> createUserAsync(String userName, String password);
+
+    CompletableFuture<String> authenticateUserAsync(String userName, String password);
+
+    CompletableFuture<String> authenticateUserAsync(String userName, String password, String callerKey);
+
+    CompletableFuture<Boolean> checkRoleAsync(String token, Role role);
+
+    CompletableFuture<List<Role>> allRolesAsync(String token);
+}
@@ -1,9 +1,15 @@
 package org.demo.authservice.service;
 
 import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.Session;
 import org.demo.authservice.entity.User;
+import org.demo.authservice.utils.Cursor;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * @author Zhi Chen
@@ -20,13 +26,49 @@ public interface IUserService {
 
     boolean deleteRole(Role role);
 
+    boolean addRoleInheritance(Role parent, Role child);
+
+    boolean removeRoleInheritance(Role parent, Role child);
+
     void addRoleToUser(User user, Role role);
 
     String authenticateUser(String userName, String password);
 
+    String authenticateUser(String userName, String password, String callerKey);
+
+    AuthResult<String> tryAuthenticateUser(String userName, String password, String callerKey);
+
     void invalidateToken(String token);
 
+    int invalidateAllTokens(String userName);
+
     boolean checkRole(String token, Role role);
 
+    boolean checkRole(String token, int roleId);
+
+    AuthResult<Boolean> tryCheckRole(String token, Role role);
+
+    AuthResult<Boolean> tryCheckRole(String token, int roleId);
+
     List<Role> allRoles(String token);
+
+    List<Role> allRoles(String token, boolean effective);
+
+    AuthResult<List<Role>> tryAllRoles(String token, boolean effective);
+
+    Set<String> createUsers(Map<String, String> passwordsByUserName);
+
+    void addRolesToUsers(Map<String, ? extends Collection<Role>> rolesByUserName);
+
+    Set<Role> checkRoles(String token, Collection<Role> roles);
+
+    Map<String, Boolean> checkRole(Collection<String> tokens, Role role);
+
+    Stream<User> usersInRole(Role role);
+
+    Cursor<User> scanUsers(Role role);
+
+    Cursor<Role> scanRoles();
+
+    Cursor<Session> scanSessions(Role role, long minIdleMillis, long maxIdleMillis);
 }
@@ -1,44 +1,171 @@
 package org.demo.authservice.service.impl;
 
 import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.Session;
 import org.demo.authservice.entity.User;
+import org.demo.authservice.entity.UserSnapshot;
+import org.demo.authservice.metrics.Counter;
+import org.demo.authservice.metrics.LatencyHistogram;
+import org.demo.authservice.metrics.MetricsRegistry;
+import org.demo.authservice.metrics.MetricsSnapshot;
+import org.demo.authservice.service.AuthException;
+import org.demo.authservice.service.AuthResult;
+import org.demo.authservice.service.AuthStatus;
+import org.demo.authservice.service.IAsyncUserService;
 import org.demo.authservice.service.IUserService;
+import org.demo.authservice.utils.ClockUtil;
+import org.demo.authservice.utils.Cursor;
 import org.demo.authservice.utils.EncryptUtil;
+import org.demo.authservice.utils.LoginThrottle;
+import org.demo.authservice.utils.SignedToken;
+import org.demo.authservice.utils.SignedTokenUtil;
 import org.demo.authservice.utils.StoreUtil;
 import org.demo.authservice.utils.TokenUtil;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * @author Zhi Chen
  * @date 2022/8/27
  * @description
  */
-public class UserServiceImpl implements IUserService {
+public class UserServiceImpl implements IUserService, IAsyncUserService {
+
+    /**
+     * password hashes that may wait for a hashing thread before new ones are rejected
+     */
+    public static final int DEFAULT_HASHING_QUEUE_CAPACITY = 1024;
+
+    private static final MetricsRegistry metrics = MetricsRegistry.getDefault();
+    private static final Counter authenticateSuccesses = metrics.counter("authenticate.success");
+    private static final Counter unknownUserFailures = metrics.counter("authenticate.failure.unknown_user");
+    private static final Counter badPasswordFailures = metrics.counter("authenticate.failure.bad_password");
+    private static final Counter throttledFailures = metrics.counter("authenticate.failure.throttled");
+    private static final LatencyHistogram authenticateLatency = metrics.histogram("authenticate.latency");
+    /**
+     * role checks refused because their token was invalid or expired
+     */
+    private static final Counter rejectedTokens = metrics.counter("token.rejected");
+    private static final LatencyHistogram checkRoleLatency = metrics.histogram("check_role.latency");
 
     private ScheduledExecutorService executor;
 
+    /**
+     * runs the password hashing of the async operations, bounded in threads and queued tasks
+     */
+    private final ThreadPoolExecutor hashingExecutor;
+
+    private final LongAdder rejectedHashes = new LongAdder();
+
+    /**
+     * true while this service holds a start of the cached clock
+     */
+    private final AtomicBoolean clockStarted = new AtomicBoolean();
+
+    /**
+     * limits failed logins before their password is hashed, null if logins are not throttled.
+     * off by default, set one with {@link #setLoginThrottle(LoginThrottle)}
+     */
+    private volatile LoginThrottle loginThrottle;
+
     public UserServiceImpl() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_HASHING_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param hashingThreads threads hashing passwords for the async operations
+     * @param hashingQueueCapacity password hashes that may wait for a thread, more are rejected
+     */
+    public UserServiceImpl(int hashingThreads, int hashingQueueCapacity) {
         this.executor = Executors.newScheduledThreadPool(5);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.hashingExecutor = new ThreadPoolExecutor(hashingThreads, hashingThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hashingQueueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "authservice-hashing-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
     }
 
     /**
-     * clear expired tokens every 2 hours to avoid too many expired tokens in memory
+     * start the cached clock and evict expired tokens every tick of the expiry wheel,
+     * so that expired tokens don't stay in memory
      */
     public void start() {
+        if (clockStarted.compareAndSet(false, true)) {
+            ClockUtil.start();
+        }
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                TokenUtil.expireTokens();
+            }
+        }, TokenUtil.EXPIRY_TICK_MILLIS, TokenUtil.EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS);
         executor.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                TokenUtil.removeExpiredToken();
+                LoginThrottle throttle = loginThrottle;
+                if (throttle != null) {
+                    throttle.evictIdle(System.currentTimeMillis());
+                }
             }
-        }, 2 , 2, TimeUnit.HOURS);
+        }, 1, 1, TimeUnit.MINUTES);
     }
 
     public void destroy() {
         executor.shutdownNow();
+        hashingExecutor.shutdownNow();
+        if (clockStarted.compareAndSet(true, false)) {
+            ClockUtil.stop();
+        }
+    }
+
+    /**
+     * @return number of async operations rejected because the hashing pool was saturated
+     */
+    public long getRejectedHashes() {
+        return rejectedHashes.sum();
+    }
+
+    /**
+     * @return current values of the service's counters, latency histograms and gauges
+     */
+    public MetricsSnapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    public LoginThrottle getLoginThrottle() {
+        return loginThrottle;
+    }
+
+    /**
+     * logins are not throttled unless a throttle is set here. a service reachable by untrusted callers
+     * should set one, e.g. new LoginThrottle(10, 100, 60 * 1000, 100_000), so that password guessing and
+     * user name probing are slowed down before any password is hashed
+     * @param loginThrottle limits of failed logins, null to not throttle logins
+     */
+    public void setLoginThrottle(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
     }
 
     /**
@@ -48,25 +175,23 @@ public class UserServiceImpl implements IUserService {
      * @return true if create user successfully,else false
      */
     public boolean createUser(String userName, String password) {
+        // cheap pre-check so that duplicates don't pay for hashing, the insert below decides
         if (StoreUtil.containsUser(userName)) {
             return false;
         }
-        String encryptedPassword = EncryptUtil.encryptPassword(password);
-        User user = new User(userName, encryptedPassword);
-        StoreUtil.storeUser(user);
-        return true;
+        return StoreUtil.storeUserIfAbsent(new User(userName, EncryptUtil.hashPassword(password)));
     }
 
     /**
-     * delete user
+     * delete user, the tokens of the user are invalidated
      * @param user the user to delete
      * @return true if the user exists,else false
      */
     public boolean deleteUser(User user) {
-        if (!StoreUtil.containsUser(user.getUserName())) {
+        if (!StoreUtil.removeUser(user)) {
             return false;
         }
-        StoreUtil.removeUser(user);
+        TokenUtil.invalidateAllTokens(user.getUserName());
         return true;
     }
 
@@ -80,7 +205,7 @@ public class UserServiceImpl implements IUserService {
     }
 
     /**
-     * delete role
+     * delete role, the role is taken away from every user having it
      * @param role the role to delete
      * @return true if the role exists,else false
      */
@@ -88,26 +213,36 @@ public class UserServiceImpl implements IUserService {
         return StoreUtil.removeRole(role);
     }
 
+    /**
+     * make every user having the parent role also have the child role and the roles it inherits,
+     * e.g. admin inheriting editor inheriting viewer
+     * @param parent the inheriting role
+     * @param child the inherited role
+     * @return true if the inheritance was added, false if it existed
+     * @throws RuntimeException will be thrown if a role doesn't exist or the child inherits the parent
+     */
+    public boolean addRoleInheritance(Role parent, Role child) {
+        return StoreUtil.addRoleInheritance(parent, child);
+    }
+
+    /**
+     * remove an inheritance added with {@link #addRoleInheritance(Role, Role)}
+     * @return true if the inheritance existed,else false
+     */
+    public boolean removeRoleInheritance(Role parent, Role child) {
+        return StoreUtil.removeRoleInheritance(parent, child);
+    }
+
     /**
      * add role to a user,the user and role must exist
      * @param user add role to the user
      * @param role the role to be added to user
      */
     public void addRoleToUser(User user, Role role) {
-        if (!StoreUtil.containsUser(user.getUserName())) {
-            return;
-        }
         if (!StoreUtil.existRole(role)) {
             return;
         }
-        User storedUser = StoreUtil.getUser(user.getUserName());
-        List<Role> roles = storedUser.getRoles();
-        if (roles.contains(role)) {
-            return;
-        }
-        roles.add(role);
-        storedUser.setRoles(roles);
-        StoreUtil.storeUser(storedUser);
+        StoreUtil.grantRoles(user.getUserName(), new int[]{role.getId()});
     }
 
     /**
@@ -115,17 +250,72 @@ public class UserServiceImpl implements IUserService {
      * @param userName the userName to be authenticated
      * @param password the password to be authenticated
      * @return the token if the userName and password are found
-     * @throws RuntimeException will be thrown if user is not exist or password is not right
+     * @throws AuthException will be thrown if user is not exist or password is not right
      */
     public String authenticateUser(String userName, String password) {
-        if (!StoreUtil.containsUser(userName)) {
-            throw new RuntimeException("user is not exist");
-        }
-        User user = StoreUtil.getUser(userName);
-        if (!EncryptUtil.encryptPassword(password).equals(user.getPassword())) {
-            throw new RuntimeException("password is not right");
+        return authenticateUser(userName, password, null);
+    }
+
+    /**
+     * authenticate user, failed attempts are throttled per user and per caller
+     * @param userName the userName to be authenticated
+     * @param password the password to be authenticated
+     * @param callerKey identifies the caller, e.g. its address, null if unknown
+     * @return the token if the userName and password are found
+     * @throws AuthException will be thrown if user is not exist, password is not right
+     * or there were too many failed attempts recently
+     */
+    public String authenticateUser(String userName, String password, String callerKey) {
+        return tryAuthenticateUser(userName, password, callerKey).getOrThrow();
+    }
+
+    /**
+     * authenticate user without throwing, failed attempts are throttled per user and per caller
+     * @param userName the userName to be authenticated
+     * @param password the password to be authenticated
+     * @param callerKey identifies the caller, e.g. its address, null if unknown
+     * @return the token, or a shared failure: UNKNOWN_USER, THROTTLED or BAD_PASSWORD
+     */
+    public AuthResult<String> tryAuthenticateUser(String userName, String password, String callerKey) {
+        long start = System.nanoTime();
+        try {
+            // throttled before the lookup, so that a throttled caller can't tell which user names exist
+            LoginThrottle throttle = loginThrottle;
+            long now = throttle == null ? 0 : System.currentTimeMillis();
+            if (throttle != null && !throttle.allow(userName, callerKey, now)) {
+                throttledFailures.increment();
+                return AuthResult.failure(AuthStatus.THROTTLED);
+            }
+            User user = StoreUtil.getUser(userName);
+            if (user == null) {
+                if (throttle != null) {
+                    // only the caller is counted, names that don't exist must not grow the user counters
+                    throttle.recordFailure(null, callerKey, now);
+                }
+                unknownUserFailures.increment();
+                return AuthResult.failure(AuthStatus.UNKNOWN_USER);
+            }
+            if (!EncryptUtil.verifyPassword(password, user.getPasswordHash())) {
+                if (throttle != null) {
+                    throttle.recordFailure(userName, callerKey, now);
+                }
+                badPasswordFailures.increment();
+                return AuthResult.failure(AuthStatus.BAD_PASSWORD);
+            }
+            if (throttle != null) {
+                throttle.recordSuccess(userName);
+            }
+            String token = TokenUtil.generateToken(user);
+            if (token == null) {
+                // deleted while logging in
+                unknownUserFailures.increment();
+                return AuthResult.failure(AuthStatus.UNKNOWN_USER);
+            }
+            authenticateSuccesses.increment();
+            return AuthResult.ok(token);
+        } finally {
+            authenticateLatency.recordSince(start);
         }
-        return TokenUtil.generateToken(user);
     }
 
     /**
@@ -139,35 +329,399 @@ public class UserServiceImpl implements IUserService {
         TokenUtil.invalidateToken(token);
     }
 
+    /**
+     * invalidate all tokens of a user, i.e. log the user out everywhere
+     * @param userName the name of the user
+     * @return number of invalidated session tokens
+     */
+    public int invalidateAllTokens(String userName) {
+        return TokenUtil.invalidateAllTokens(userName);
+    }
+
     /**
      * check role of user
      * @param token the user's token
      * @param role the role to be checked
-     * @return true if the user identified by the token,belongs to the role,else false
-     * @throws RuntimeException will be thrown if the token is invalid,expired etc
+     * @return true if the user identified by the token,belongs to the role or inherits it,else false
+     * @throws AuthException will be thrown if the token is invalid,expired etc
      */
     public boolean checkRole(String token, Role role) {
-        if (!TokenUtil.validateToken(token)) {
-            throw new RuntimeException("token is not valid");
+        return checkRole(token, role.getId());
+    }
+
+    /**
+     * check role of user by the interned role id, see {@link Role#getId()}
+     * @param token the user's token
+     * @param roleId the id of the role to be checked
+     * @return true if the user identified by the token,belongs to the role or inherits it,else false
+     * @throws AuthException will be thrown if the token is invalid,expired etc
+     */
+    public boolean checkRole(String token, int roleId) {
+        return tryCheckRole(token, roleId).getOrThrow();
+    }
+
+    /**
+     * check role of user without throwing
+     * @param token the user's token
+     * @param role the role to be checked
+     * @return GRANTED or DENIED, or a shared failure: EXPIRED or INVALID
+     */
+    public AuthResult<Boolean> tryCheckRole(String token, Role role) {
+        return tryCheckRole(token, role.getId());
+    }
+
+    /**
+     * check role of user by the interned role id without throwing, see {@link Role#getId()}
+     * @param token the user's token
+     * @param roleId the id of the role to be checked
+     * @return GRANTED or DENIED, or a shared failure: EXPIRED or INVALID
+     */
+    public AuthResult<Boolean> tryCheckRole(String token, int roleId) {
+        long start = System.nanoTime();
+        try {
+            if (SignedTokenUtil.isSignedToken(token)) {
+                SignedToken signedToken = SignedTokenUtil.parse(token);
+                AuthStatus status = signedTokenStatus(signedToken);
+                if (status != AuthStatus.OK) {
+                    return AuthResult.failure(status);
+                }
+                return AuthResult.of(signedToken.hasRole(roleId));
+            }
+            // resolve the user and update the token expiring time in one lookup
+            User user = TokenUtil.touchToken(token, ClockUtil.currentTimeMillis());
+            if (user == null) {
+                rejectedTokens.increment();
+                return AuthResult.failure(TokenUtil.hasExpired(token) ? AuthStatus.EXPIRED : AuthStatus.INVALID);
+            }
+            return AuthResult.of(user.hasEffectiveRole(roleId));
+        } finally {
+            checkRoleLatency.recordSince(start);
         }
-        User user = TokenUtil.getUserByToken(token);
-        // update the token expiring time
-        TokenUtil.updateTokenTime(token);
-        return user.hasRole(role);
     }
 
     /**
-     * get all of user's roles
+     * get all of user's roles, inherited roles included
      * @param token the user's token
-     * @return list contains all roles of the user
-     * @throws RuntimeException will be thrown if the token is invalid,expired etc
+     * @return read-only list of all roles of the user, shared by the readers of the user's current version
+     * @throws AuthException will be thrown if the token is invalid,expired etc
      */
     public List<Role> allRoles(String token) {
-        if (!TokenUtil.validateToken(token)) {
-            throw new RuntimeException("token is not valid");
+        return allRoles(token, true);
+    }
+
+    /**
+     * get the user's roles
+     * @param token the user's token
+     * @param effective true for the roles granted directly and the roles they inherit,
+     *                  false for the roles granted directly only
+     * @return read-only list of the roles, shared by the readers of the user's current version
+     * @throws AuthException will be thrown if the token is invalid,expired etc
+     */
+    public List<Role> allRoles(String token, boolean effective) {
+        return tryAllRoles(token, effective).getOrThrow();
+    }
+
+    /**
+     * get the user's roles without throwing
+     * @param token the user's token
+     * @param effective true for the roles granted directly and the roles they inherit,
+     *                  false for the roles granted directly only
+     * @return read-only list of the roles, or a shared failure: EXPIRED or INVALID
+     */
+    public AuthResult<List<Role>> tryAllRoles(String token, boolean effective) {
+        if (SignedTokenUtil.isSignedToken(token)) {
+            SignedToken signedToken = SignedTokenUtil.parse(token);
+            AuthStatus status = signedTokenStatus(signedToken);
+            if (status != AuthStatus.OK) {
+                return AuthResult.failure(status);
+            }
+            if (effective) {
+                return AuthResult.ok(signedToken.getRoles());
+            }
+            // a signed token carries the effective roles only, the direct ones are those of the stored user
+            User user = StoreUtil.getUser(signedToken.getUserName());
+            if (user == null) {
+                rejectedTokens.increment();
+                return AuthResult.failure(AuthStatus.INVALID);
+            }
+            return AuthResult.ok(user.getRoles());
+        }
+        User user = TokenUtil.touchToken(token, ClockUtil.currentTimeMillis());
+        if (user == null) {
+            rejectedTokens.increment();
+            return AuthResult.failure(TokenUtil.hasExpired(token) ? AuthStatus.EXPIRED : AuthStatus.INVALID);
+        }
+        return AuthResult.ok(effective ? user.getEffectiveRoles() : user.getRoles());
+    }
+
+    /**
+     * create many users, users whose name is taken are skipped. the passwords are hashed in parallel on the
+     * hashing pool, or on the calling thread when the pool is saturated, and the users are stored as one batch
+     * @param passwordsByUserName password of every user to create by its userName
+     * @return userNames of the users created
+     */
+    public Set<String> createUsers(Map<String, String> passwordsByUserName) {
+        List<CompletableFuture<User>> hashed = new ArrayList<>(passwordsByUserName.size());
+        for (Map.Entry<String, String> entry : passwordsByUserName.entrySet()) {
+            String userName = entry.getKey();
+            String password = entry.getValue();
+            // cheap pre-check so that duplicates don't pay for hashing, the batch insert decides
+            if (!StoreUtil.containsUser(userName)) {
+                hashed.add(hashUser(userName, password));
+            }
+        }
+        List<User> users = new ArrayList<>(hashed.size());
+        for (CompletableFuture<User> future : hashed) {
+            try {
+                users.add(future.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        Set<String> created = new HashSet<>();
+        for (User user : StoreUtil.storeNewUsers(users)) {
+            created.add(user.getUserName());
+        }
+        return created;
+    }
+
+    /**
+     * add roles to many users, each user is updated once with all of its roles.
+     * users and roles that don't exist are skipped
+     * @param rolesByUserName roles to add by the userName of the user
+     */
+    public void addRolesToUsers(Map<String, ? extends Collection<Role>> rolesByUserName) {
+        // a provisioning batch usually repeats the same few roles, resolve each of them once
+        Map<Role, Integer> roleIds = new HashMap<>();
+        for (Map.Entry<String, ? extends Collection<Role>> entry : rolesByUserName.entrySet()) {
+            int[] ids = new int[entry.getValue().size()];
+            int count = 0;
+            for (Role role : entry.getValue()) {
+                Integer roleId = roleIds.get(role);
+                if (roleId == null) {
+                    roleId = StoreUtil.existRole(role) ? role.getId() : -1;
+                    roleIds.put(role, roleId);
+                }
+                if (roleId >= 0) {
+                    ids[count++] = roleId;
+                }
+            }
+            if (count == 0) {
+                continue;
+            }
+            int[] existing = count == ids.length ? ids : Arrays.copyOf(ids, count);
+            StoreUtil.grantRoles(entry.getKey(), existing);
+        }
+    }
+
+    /**
+     * check several roles of a user at once, the token is validated and its expiring time updated once
+     * @param token the user's token
+     * @param roles the roles to be checked
+     * @return the roles the user belongs to or inherits
+     * @throws AuthException will be thrown if the token is invalid,expired etc
+     */
+    public Set<Role> checkRoles(String token, Collection<Role> roles) {
+        Set<Role> granted = new HashSet<>();
+        if (SignedTokenUtil.isSignedToken(token)) {
+            SignedToken signedToken = getSignedToken(token);
+            for (Role role : roles) {
+                if (signedToken.hasRole(role.getId())) {
+                    granted.add(role);
+                }
+            }
+            return granted;
+        }
+        User user = TokenUtil.touchToken(token);
+        if (user == null) {
+            rejectedTokens.increment();
+            throw AuthException.of(TokenUtil.hasExpired(token) ? AuthStatus.EXPIRED : AuthStatus.INVALID);
+        }
+        // one snapshot, so all roles are checked against the same version of the user
+        UserSnapshot snapshot = user.getSnapshot();
+        for (Role role : roles) {
+            if (snapshot.hasEffectiveRole(role.getId())) {
+                granted.add(role);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * check one role for the users of many tokens
+     * @param tokens the users' tokens
+     * @param role the role to be checked
+     * @return whether the user of each token belongs to the role, invalid or expired tokens are left out
+     */
+    public Map<String, Boolean> checkRole(Collection<String> tokens, Role role) {
+        int roleId = role.getId();
+        long now = ClockUtil.currentTimeMillis();
+        Map<String, Boolean> result = new HashMap<>(tokens.size() * 4 / 3 + 1);
+        for (String token : tokens) {
+            if (SignedTokenUtil.isSignedToken(token)) {
+                SignedToken signedToken = TokenUtil.getSignedToken(token);
+                if (signedToken != null) {
+                    result.put(token, signedToken.hasRole(roleId));
+                }
+                continue;
+            }
+            User user = TokenUtil.touchToken(token, now);
+            if (user != null) {
+                result.put(token, user.hasEffectiveRole(roleId));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * stream the users granted the role directly, without copying the user table
+     * @param role the role
+     * @return the users having the role, weakly consistent with concurrent changes
+     */
+    public Stream<User> usersInRole(Role role) {
+        if (!StoreUtil.existRole(role)) {
+            return Stream.empty();
+        }
+        return StoreUtil.usersInRole(role.getId());
+    }
+
+    /**
+     * page through users without copying them, see {@link Cursor}
+     * @param role the role of the users, null for all users
+     */
+    public Cursor<User> scanUsers(Role role) {
+        if (role == null) {
+            return StoreUtil.scanUsers();
+        }
+        return StoreUtil.scanUsers(StoreUtil.existRole(role) ? role.getId() : -1);
+    }
+
+    /**
+     * page through roles, see {@link Cursor}
+     */
+    public Cursor<Role> scanRoles() {
+        return StoreUtil.scanRoles();
+    }
+
+    /**
+     * page through the live sessions kept in this JVM without copying them, see {@link Cursor}
+     * @param role the role of the sessions' users, null for all users
+     * @param minIdleMillis sessions unused for less than this long are skipped
+     * @param maxIdleMillis sessions unused for longer than this are skipped, Long.MAX_VALUE for no limit
+     */
+    public Cursor<Session> scanSessions(Role role, long minIdleMillis, long maxIdleMillis) {
+        return TokenUtil.scanSessions(role, minIdleMillis, maxIdleMillis);
+    }
+
+    /**
+     * create user with the password hashed on the hashing pool
+     * @return completes with the result of {@link #createUser(String, String)}, or with
+     * RejectedExecutionException if the hashing pool is saturated
+     */
+    public CompletableFuture<Boolean> createUserAsync(String userName, String password) {
+        if (StoreUtil.containsUser(userName)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return supplyHashing(() -> createUser(userName, password));
+    }
+
+    /**
+     * authenticate user with the password hashed on the hashing pool
+     * @return completes with the token, or with the exception {@link #authenticateUser(String, String)}
+     * throws, or with RejectedExecutionException if the hashing pool is saturated
+     */
+    public CompletableFuture<String> authenticateUserAsync(String userName, String password) {
+        return authenticateUserAsync(userName, password, null);
+    }
+
+    /**
+     * authenticate user with the password hashed on the hashing pool, failed attempts are throttled
+     * per user and per caller
+     * @return completes with the token, or with the exception {@link #authenticateUser(String, String, String)}
+     * throws, or with RejectedExecutionException if the hashing pool is saturated
+     */
+    public CompletableFuture<String> authenticateUserAsync(String userName, String password, String callerKey) {
+        return supplyHashing(() -> authenticateUser(userName, password, callerKey));
+    }
+
+    /**
+     * check role of user on the calling thread, or on the hashing pool when tokens are kept in a session store
+     * that may look them up on other nodes
+     */
+    public CompletableFuture<Boolean> checkRoleAsync(String token, Role role) {
+        return supplyLookup(() -> checkRole(token, role));
+    }
+
+    /**
+     * get all of user's roles on the calling thread, or on the hashing pool when tokens are kept in a session
+     * store that may look them up on other nodes
+     */
+    public CompletableFuture<List<Role>> allRolesAsync(String token) {
+        return supplyLookup(() -> allRoles(token));
+    }
+
+    private <T> CompletableFuture<T> supplyLookup(Supplier<T> supplier) {
+        return TokenUtil.getSessionStore() == null ? supplyInline(supplier) : supplyHashing(supplier);
+    }
+
+    private <T> CompletableFuture<T> supplyHashing(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, hashingExecutor);
+        } catch (RejectedExecutionException e) {
+            // shed the load instead of queueing without bound
+            rejectedHashes.increment();
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    private CompletableFuture<User> hashUser(String userName, String password) {
+        Supplier<User> hashing = () -> new User(userName, EncryptUtil.hashPassword(password));
+        try {
+            return CompletableFuture.supplyAsync(hashing, hashingExecutor);
+        } catch (RejectedExecutionException e) {
+            // a batch is not shed like a single request, the caller hashes what the pool can't take
+            return supplyInline(hashing);
+        }
+    }
+
+    private static <T> CompletableFuture<T> supplyInline(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(supplier.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @throws AuthException EXPIRED or INVALID, as for the single role checks
+     */
+    private static SignedToken getSignedToken(String token) {
+        SignedToken signedToken = SignedTokenUtil.parse(token);
+        AuthStatus status = signedTokenStatus(signedToken);
+        if (status != AuthStatus.OK) {
+            throw AuthException.of(status);
+        }
+        return signedToken;
+    }
+
+    /**
+     * @param signedToken the parsed token, null if it is malformed or forged
+     * @return OK if the token is accepted, else why it is rejected
+     */
+    private static AuthStatus signedTokenStatus(SignedToken signedToken) {
+        AuthStatus status;
+        if (signedToken == null || TokenUtil.isRevoked(signedToken)) {
+            status = AuthStatus.INVALID;
+        } else if (ClockUtil.currentTimeMillis() >= signedToken.getExpiresAt()) {
+            status = AuthStatus.EXPIRED;
+        } else {
+            return AuthStatus.OK;
         }
-        User user = TokenUtil.getUserByToken(token);
-        TokenUtil.updateTokenTime(token);
-        return user.getRoles();
+        rejectedTokens.increment();
+        return status;
     }
 }
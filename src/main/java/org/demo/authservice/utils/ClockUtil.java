@@ -0,0 +1,65 @@
+package org.demo.authservice.utils;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description cached wall clock in milliseconds. while started, a daemon thread refreshes it every
+ * millisecond, so hot paths read a volatile field instead of calling System.currentTimeMillis().
+ * the cached time lags the real one by about a millisecond, more if the ticker is descheduled.
+ * until it is started, or once every start was matched by a stop, the real clock is read
+ */
+public class ClockUtil {
+
+    private static volatile long now;
+
+    private static volatile boolean ticking;
+
+    private static Thread ticker;
+
+    private static int starts;
+
+    /**
+     * @return the cached current time in milliseconds, the real one if the ticker is not running
+     */
+    public static long currentTimeMillis() {
+        return ticking ? now : System.currentTimeMillis();
+    }
+
+    /**
+     * start the ticker unless it runs already, every call must be matched by a {@link #stop()}
+     */
+    public static synchronized void start() {
+        if (starts++ > 0) {
+            return;
+        }
+        now = System.currentTimeMillis();
+        ticker = new Thread(ClockUtil::tick, "authservice-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+        ticking = true;
+    }
+
+    /**
+     * stop the ticker once every {@link #start()} was matched, the real clock is read again
+     */
+    public static synchronized void stop() {
+        if (starts == 0 || --starts > 0) {
+            return;
+        }
+        ticking = false;
+        ticker.interrupt();
+        ticker = null;
+    }
+
+    private static void tick() {
+        while (true) {
+            now = System.currentTimeMillis();
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                // stopped
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.demo.authservice.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description pages through a store without copying it and without blocking its writers. cursors are weakly
+ * consistent: an element present during the whole traversal is returned, elements added or removed meanwhile
+ * may or may not be. a cursor is used by one thread at a time
+ */
+public interface Cursor<T> {
+
+    /**
+     * @param limit maximum number of elements to return
+     * @return the next elements, possibly fewer than the limit even if more follow
+     */
+    List<T> next(int limit);
+
+    /**
+     * @return false once the traversal is over
+     */
+    boolean hasNext();
+
+    /**
+     * @param iterator a weakly consistent iterator, e.g. of a concurrent map's view
+     */
+    static <T> Cursor<T> of(Iterator<T> iterator) {
+        return new Cursor<T>() {
+            @Override
+            public List<T> next(int limit) {
+                if (!iterator.hasNext()) {
+                    return Collections.emptyList();
+                }
+                List<T> page = new ArrayList<>(Math.min(limit, 1024));
+                while (page.size() < limit && iterator.hasNext()) {
+                    page.add(iterator.next());
+                }
+                return page;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+        };
+    }
+}
@@ -1,15 +1,72 @@
 package org.demo.authservice.utils;
 
-import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author Zhi Chen
  * @date 2022/8/27
- * @description
+ * @description hash and verify passwords with the configured {@link PasswordHasher}
  */
 public class EncryptUtil {
     private static final char[] HEX_DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
 
+    /**
+     * hashers by id, hashes of every hasher ever configured can be verified. an atomic array so that
+     * verifying threads see a hasher registered by another thread without locking
+     */
+    private static final AtomicReferenceArray<PasswordHasher> hashers = new AtomicReferenceArray<>(256);
+
+    private static volatile PasswordHasher passwordHasher;
+
+    static {
+        setPasswordHasher(new Md5PasswordHasher());
+    }
+
+    /**
+     * set the hasher of new passwords, hashes of the previous hashers can still be verified
+     * @param hasher the hasher to use
+     */
+    public static synchronized void setPasswordHasher(PasswordHasher hasher) {
+        int id = hasher.getId();
+        if (id < 1 || id > 255) {
+            throw new IllegalArgumentException("hasher id must be in 1..255");
+        }
+        hashers.set(id, hasher);
+        passwordHasher = hasher;
+    }
+
+    public static PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    /**
+     * @return true if hashes starting with the id can be verified
+     */
+    public static boolean isRegisteredHasher(int id) {
+        return id >= 0 && id < hashers.length() && hashers.get(id) != null;
+    }
+
+    /**
+     * @param password the plain password
+     * @return the hash to store with the user
+     */
+    public static byte[] hashPassword(String password) {
+        return passwordHasher.hash(password);
+    }
+
+    /**
+     * @param password the plain password
+     * @param hash the stored hash
+     * @return true if the password matches the hash
+     */
+    public static boolean verifyPassword(String password, byte[] hash) {
+        if (password == null || hash == null || hash.length == 0) {
+            return false;
+        }
+        PasswordHasher hasher = hashers.get(hash[0] & 0xff);
+        return hasher != null && hasher.verify(password, hash);
+    }
+
     /**
      * Takes the raw bytes from the digest and formats them correct.
      *
@@ -18,28 +75,22 @@ public class EncryptUtil {
      */
     private static String getFormattedText(byte[] bytes) {
         int len = bytes.length;
-        StringBuilder buf = new StringBuilder(len * 2);
+        char[] buf = new char[len * 2];
         for (int j = 0; j < len; j++) {
-            buf.append(HEX_DIGITS[(bytes[j] >> 4) & 0x0f]);
-            buf.append(HEX_DIGITS[bytes[j] & 0x0f]);
+            buf[j * 2] = HEX_DIGITS[(bytes[j] >> 4) & 0x0f];
+            buf[j * 2 + 1] = HEX_DIGITS[bytes[j] & 0x0f];
         }
-        return buf.toString();
+        return new String(buf);
     }
 
     /**
      * @param str the String to be encrypted
-     * @return the result of str encrypted in md5
+     * @return the result of str encrypted in md5, as hex
      */
     public static String encryptPassword(String str) {
         if (str == null) {
             return null;
         }
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("md5");
-            messageDigest.update(str.getBytes());
-            return getFormattedText(messageDigest.digest());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        return getFormattedText(Md5PasswordHasher.digest(str));
     }
 }
@@ -0,0 +1,60 @@
+package org.demo.authservice.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description tokens of recently expired sessions, so that a token used after its session was swept
+ * is still told expired rather than unknown. a fixed table of 64-bit fingerprints where a token overwrites
+ * whatever expired before it in the same slot, so memory is bounded and the oldest expiries are forgotten
+ * first. a token that never expired matches with a probability of about 2^-64
+ */
+public class ExpiredTokenFilter {
+
+    private final AtomicLongArray fingerprints;
+    private final int mask;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    public ExpiredTokenFilter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.fingerprints = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    public void add(long high, long low) {
+        long fingerprint = fingerprint(high, low);
+        fingerprints.lazySet((int) fingerprint & mask, fingerprint);
+    }
+
+    /**
+     * @return true if the token was added and not overwritten since
+     */
+    public boolean contains(long high, long low) {
+        long fingerprint = fingerprint(high, low);
+        return fingerprints.get((int) fingerprint & mask) == fingerprint;
+    }
+
+    public void clear() {
+        for (int i = 0; i < fingerprints.length(); i++) {
+            fingerprints.set(i, 0);
+        }
+    }
+
+    private static long fingerprint(long high, long low) {
+        long z = high * 0x9E3779B97F4A7C15L + low;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        // 0 marks an empty slot
+        return z == 0 ? 1 : z;
+    }
+}
@@ -0,0 +1,57 @@
+package org.demo.authservice.utils;
+
+import java.util.Arrays;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description pick the cost of {@link Pbkdf2PasswordHasher} so that one hash takes a target time
+ * on this host. run it on the production hardware, e.g. with the target in milliseconds as argument
+ */
+public class HasherCalibration {
+
+    private static final int MAX_ITERATIONS = 1 << 26;
+    private static final long MIN_SAMPLE_NANOS = 20_000_000L;
+    private static final int SAMPLES = 5;
+
+    /**
+     * @param targetMillis wanted time of one hash
+     * @return iterations that make one hash take about targetMillis, at least MIN_ITERATIONS
+     */
+    public static int calibratePbkdf2(long targetMillis) {
+        int iterations = Pbkdf2PasswordHasher.MIN_ITERATIONS;
+        long nanos = measure(new Pbkdf2PasswordHasher(iterations));
+        // grow the sample until it is long enough to be timed reliably
+        while (nanos < MIN_SAMPLE_NANOS && iterations < MAX_ITERATIONS) {
+            iterations *= 2;
+            nanos = measure(new Pbkdf2PasswordHasher(iterations));
+        }
+        // the first samples ran partly interpreted, time it again now that the hashing code is compiled
+        nanos = measure(new Pbkdf2PasswordHasher(iterations));
+        long calibrated = (long) iterations * targetMillis * 1_000_000L / Math.max(nanos, 1);
+        return (int) Math.max(Pbkdf2PasswordHasher.MIN_ITERATIONS, Math.min(MAX_ITERATIONS, calibrated));
+    }
+
+    /**
+     * @return median time of one hash in nanoseconds
+     */
+    public static long measure(PasswordHasher hasher) {
+        byte[] hash = hasher.hash("calibration");
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            hasher.verify("calibration", hash);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+
+    public static void main(String[] args) {
+        long targetMillis = args.length > 0 ? Long.parseLong(args[0]) : 250;
+        int iterations = calibratePbkdf2(targetMillis);
+        long nanos = measure(new Pbkdf2PasswordHasher(iterations));
+        System.out.printf("PBKDF2 iterations for %dms: %d, measured %.1fms per hash%n",
+                targetMillis, iterations, nanos / 1e6);
+    }
+}
@@ -0,0 +1,90 @@
+package org.demo.authservice.utils;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description counts of a {@link UserImporter} run so far, immutable
+ */
+public class ImportProgress {
+    private final long lines;
+    private final long usersCreated;
+    private final long usersSkipped;
+    private final long rolesCreated;
+    private final long grantsApplied;
+    private final long grantsSkipped;
+    private final long rejectedLines;
+    private final long elapsedNanos;
+
+    ImportProgress(long lines, long usersCreated, long usersSkipped, long rolesCreated, long grantsApplied,
+                   long grantsSkipped, long rejectedLines, long elapsedNanos) {
+        this.lines = lines;
+        this.usersCreated = usersCreated;
+        this.usersSkipped = usersSkipped;
+        this.rolesCreated = rolesCreated;
+        this.grantsApplied = grantsApplied;
+        this.grantsSkipped = grantsSkipped;
+        this.rejectedLines = rejectedLines;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return number of lines read
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    public long getUsersCreated() {
+        return usersCreated;
+    }
+
+    /**
+     * @return number of users not created because their name was taken
+     */
+    public long getUsersSkipped() {
+        return usersSkipped;
+    }
+
+    public long getRolesCreated() {
+        return rolesCreated;
+    }
+
+    /**
+     * @return number of role assignments applied, to new or existing users
+     */
+    public long getGrantsApplied() {
+        return grantsApplied;
+    }
+
+    /**
+     * @return number of role assignments naming a role or user that doesn't exist
+     */
+    public long getGrantsSkipped() {
+        return grantsSkipped;
+    }
+
+    /**
+     * @return number of malformed lines
+     */
+    public long getRejectedLines() {
+        return rejectedLines;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return users created per second since the import started
+     */
+    public double getUsersPerSecond() {
+        return elapsedNanos == 0 ? 0 : usersCreated * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "lines=" + lines + " usersCreated=" + usersCreated + " usersSkipped=" + usersSkipped
+                + " rolesCreated=" + rolesCreated + " grantsApplied=" + grantsApplied + " grantsSkipped=" + grantsSkipped
+                + " rejectedLines=" + rejectedLines + " usersPerSecond=" + (long) getUsersPerSecond();
+    }
+}
@@ -0,0 +1,185 @@
+package org.demo.authservice.utils;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description limits failed logins per userName and per caller key, checked before any password is hashed.
+ * each key has a lock-free sliding window counter of its failures: the counts of the current and the previous
+ * window are packed in one long, the previous one weighted by how much of it still overlaps the sliding window.
+ * callers keys are bounded in number, idle keys are evicted by {@link #evictIdle(long)}
+ */
+public class LoginThrottle {
+
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long WINDOW_MASK = (1L << 24) - 1;
+
+    private final int maxUserFailures;
+    private final int maxCallerFailures;
+    private final long windowMillis;
+    private final int maxCallerKeys;
+
+    private final ConcurrentMap<String, AtomicLong> userFailures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> callerFailures = new ConcurrentHashMap<>();
+
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+
+    /**
+     * @param maxUserFailures failed logins of one user allowed per window
+     * @param maxCallerFailures failed logins of one caller allowed per window
+     * @param windowMillis length of the sliding window
+     * @param maxCallerKeys caller keys tracked at most, failures of further callers are only limited per user
+     */
+    public LoginThrottle(int maxUserFailures, int maxCallerFailures, long windowMillis, int maxCallerKeys) {
+        if (maxUserFailures <= 0 || maxCallerFailures <= 0 || windowMillis <= 0 || maxCallerKeys <= 0) {
+            throw new IllegalArgumentException("limits must be positive");
+        }
+        this.maxUserFailures = maxUserFailures;
+        this.maxCallerFailures = maxCallerFailures;
+        this.windowMillis = windowMillis;
+        this.maxCallerKeys = maxCallerKeys;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * @param userName the user logging in
+     * @param callerKey the caller, e.g. its address, null if unknown
+     * @param now current time in milliseconds
+     * @return true if the login may be attempted, false if it must be rejected without hashing
+     */
+    public boolean allow(String userName, String callerKey, long now) {
+        if (estimate(userFailures.get(userName), now) >= maxUserFailures
+                || callerKey != null && estimate(callerFailures.get(callerKey), now) >= maxCallerFailures) {
+            throttled.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * count a failed login of the user and the caller
+     * @param userName the user logging in, null if no such user exists and only the caller is counted
+     */
+    public void recordFailure(String userName, String callerKey, long now) {
+        failures.increment();
+        if (userName != null) {
+            increment(userFailures.computeIfAbsent(userName, key -> new AtomicLong()), now);
+        }
+        if (callerKey == null) {
+            return;
+        }
+        AtomicLong counter = callerFailures.get(callerKey);
+        if (counter == null) {
+            if (callerFailures.size() >= maxCallerKeys) {
+                untracked.increment();
+                return;
+            }
+            counter = callerFailures.computeIfAbsent(callerKey, key -> new AtomicLong());
+        }
+        increment(counter, now);
+    }
+
+    /**
+     * forget the failures of the user after a successful login
+     */
+    public void recordSuccess(String userName) {
+        userFailures.remove(userName);
+    }
+
+    /**
+     * drop the counters that saw no failure in the last two windows, they would count zero
+     * @return number of keys left
+     */
+    public int evictIdle(long now) {
+        evictIdle(userFailures, now);
+        evictIdle(callerFailures, now);
+        return userFailures.size() + callerFailures.size();
+    }
+
+    /**
+     * @return logins rejected without hashing the password
+     */
+    public long getThrottledAttempts() {
+        return throttled.sum();
+    }
+
+    public long getRecordedFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return failures of callers not counted because maxCallerKeys callers were tracked already
+     */
+    public long getUntrackedFailures() {
+        return untracked.sum();
+    }
+
+    public int getTrackedKeys() {
+        return userFailures.size() + callerFailures.size();
+    }
+
+    private void evictIdle(ConcurrentMap<String, AtomicLong> counters, long now) {
+        long window = window(now);
+        Iterator<AtomicLong> iterator = counters.values().iterator();
+        while (iterator.hasNext()) {
+            if (((window - (iterator.next().get() >>> (2 * COUNT_BITS))) & WINDOW_MASK) >= 2) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private double estimate(AtomicLong counter, long now) {
+        if (counter == null) {
+            return 0;
+        }
+        long state = counter.get();
+        long elapsed = (window(now) - (state >>> (2 * COUNT_BITS))) & WINDOW_MASK;
+        long previous = (state >>> COUNT_BITS) & COUNT_MASK;
+        long current = state & COUNT_MASK;
+        if (elapsed == 1) {
+            previous = current;
+            current = 0;
+        } else if (elapsed > 1) {
+            return 0;
+        }
+        double overlap = 1 - (double) (now % windowMillis) / windowMillis;
+        return previous * overlap + current;
+    }
+
+    private void increment(AtomicLong counter, long now) {
+        long window = window(now);
+        while (true) {
+            long state = counter.get();
+            long elapsed = (window - (state >>> (2 * COUNT_BITS))) & WINDOW_MASK;
+            long previous = (state >>> COUNT_BITS) & COUNT_MASK;
+            long current = state & COUNT_MASK;
+            if (elapsed == 1) {
+                previous = current;
+                current = 0;
+            } else if (elapsed > 1) {
+                previous = 0;
+                current = 0;
+            }
+            current = Math.min(current + 1, COUNT_MASK);
+            long next = window << (2 * COUNT_BITS) | previous << COUNT_BITS | current;
+            if (counter.compareAndSet(state, next)) {
+                return;
+            }
+        }
+    }
+
+    private long window(long now) {
+        return (now / windowMillis) & WINDOW_MASK;
+    }
+}
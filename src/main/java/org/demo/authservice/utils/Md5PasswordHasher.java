@@ -0,0 +1,86 @@
+package org.demo.authservice.utils;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description unsalted md5 of the UTF-8 password, compatible with the hashes of
+ * {@link EncryptUtil#encryptPassword(String)}. fast, so it is no protection if the hashes leak,
+ * prefer {@link Pbkdf2PasswordHasher} for new deployments. verifying allocates nothing
+ */
+public class Md5PasswordHasher implements PasswordHasher {
+
+    public static final int ID = 1;
+
+    static final int DIGEST_LENGTH = 16;
+
+    private static final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+    /**
+     * per-thread digest and buffers, reused by every hash of the thread
+     */
+    private static final class State {
+        private final MessageDigest digest;
+        private byte[] input = new byte[64];
+        private final byte[] output = new byte[DIGEST_LENGTH];
+
+        State() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] hash(String password) {
+        byte[] hash = new byte[1 + DIGEST_LENGTH];
+        hash[0] = ID;
+        System.arraycopy(digest(password), 0, hash, 1, DIGEST_LENGTH);
+        return hash;
+    }
+
+    @Override
+    public boolean verify(String password, byte[] hash) {
+        if (hash.length != 1 + DIGEST_LENGTH || hash[0] != ID) {
+            return false;
+        }
+        byte[] digest = digest(password);
+        int diff = 0;
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            diff |= digest[i] ^ hash[i + 1];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * @return the md5 of the password in a per-thread buffer, valid until the next call on the thread
+     */
+    static byte[] digest(String password) {
+        State state = states.get();
+        state.input = PasswordBytes.ensureCapacity(state.input, password);
+        int length = PasswordBytes.encode(password, state.input);
+        try {
+            state.digest.update(state.input, 0, length);
+        } finally {
+            // the plain password must not outlive the call in the reused buffer
+            Arrays.fill(state.input, 0, length, (byte) 0);
+        }
+        try {
+            state.digest.digest(state.output, 0, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return state.output;
+    }
+}
@@ -0,0 +1,200 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Session;
+import org.demo.authservice.entity.User;
+
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description sessions of one store instance in a {@link SessionTable}, indexed by user. expired sessions
+ * are dropped when they are used or by {@link #expireTokens(long)}, which advances a timing wheel of its own
+ * and so only visits the sessions that fell due since the last call
+ */
+public class MemorySessionStore implements SessionStore {
+
+    private final SessionTable sessions = new SessionTable();
+    private final SessionIndex sessionsByUser = new SessionIndex();
+    private final TimingWheel<Session> expiryWheel = new TimingWheel<>(TokenUtil.EXPIRY_TICK_MILLIS, 8192,
+            new TimingWheel.Expiry<Session>() {
+                @Override
+                public long deadline(Session session) {
+                    return isHeld(session) ? session.getTime() + expiredTime : -1;
+                }
+
+                @Override
+                public void expire(Session session) {
+                    if (sessions.remove(session)) {
+                        sessionsByUser.remove(session);
+                    }
+                }
+            });
+    private volatile long expiredTime = 2 * 60 * 60 * 1000;
+    private volatile long touchGranularity = 1000;
+
+    public void setExpiredTime(long expiredTime) {
+        this.expiredTime = expiredTime;
+    }
+
+    public long getExpiredTime() {
+        return expiredTime;
+    }
+
+    /**
+     * @param touchGranularity minimum milliseconds between two updates of a session's time
+     */
+    public void setTouchGranularity(long touchGranularity) {
+        this.touchGranularity = touchGranularity;
+    }
+
+    @Override
+    public String generateToken(User user, long now) {
+        TokenGenerator generator = TokenGenerator.current();
+        Session session;
+        do {
+            session = new Session(generator.nextLong(), generator.nextLong(), user, now);
+        } while (!add(session));
+        return session.getToken();
+    }
+
+    @Override
+    public boolean validateToken(String token, long now) {
+        return resolveToken(token, now) != null;
+    }
+
+    @Override
+    public User resolveToken(String token, long now) {
+        if (!TokenCodec.isValid(token)) {
+            return null;
+        }
+        Session session = get(TokenCodec.decodeHigh(token), TokenCodec.decodeLow(token), now);
+        return session == null ? null : session.getUser();
+    }
+
+    @Override
+    public User touchToken(String token, long now) {
+        if (!TokenCodec.isValid(token)) {
+            return null;
+        }
+        Session session = get(TokenCodec.decodeHigh(token), TokenCodec.decodeLow(token), now);
+        if (session == null) {
+            return null;
+        }
+        touch(session, now);
+        return session.getUser();
+    }
+
+    @Override
+    public boolean invalidateToken(String token) {
+        return TokenCodec.isValid(token) && remove(TokenCodec.decodeHigh(token), TokenCodec.decodeLow(token)) != null;
+    }
+
+    @Override
+    public int invalidateAllTokens(String userName) {
+        int invalidated = 0;
+        for (Session session : sessionsByUser.removeAll(userName)) {
+            if (sessions.remove(session)) {
+                expiryWheel.cancel(session);
+                invalidated++;
+            }
+        }
+        return invalidated;
+    }
+
+    /**
+     * evict the sessions whose deadline passed since the last call, meant to run every
+     * {@link TokenUtil#EXPIRY_TICK_MILLIS}
+     */
+    @Override
+    public int expireTokens(long now) {
+        return expiryWheel.advance(now);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the unexpired session of the token, null if there is none
+     */
+    Session get(long high, long low, long now) {
+        Session session = sessions.get(high, low);
+        if (session == null) {
+            return null;
+        }
+        if (now - session.getTime() >= expiredTime) {
+            drop(session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * update the session's time unless it was touched within the touch granularity
+     * @return true if the time was updated
+     */
+    boolean touch(Session session, long now) {
+        if (now - session.getTime() < touchGranularity) {
+            return false;
+        }
+        session.setTime(now);
+        return true;
+    }
+
+    /**
+     * @return false if the token is already known
+     */
+    boolean add(Session session) {
+        // indexed before it is published, so that invalidateAllTokens finds every session that can be used
+        sessionsByUser.add(session);
+        if (!sessions.putIfAbsent(session)) {
+            sessionsByUser.remove(session);
+            return false;
+        }
+        expiryWheel.schedule(session, session.getTime() + expiredTime);
+        return true;
+    }
+
+    /**
+     * move the session's time forward to a time it was touched elsewhere
+     */
+    void touch(long high, long low, long time) {
+        Session session = sessions.get(high, low);
+        if (session != null && session.getTime() < time) {
+            session.setTime(time);
+        }
+    }
+
+    /**
+     * store a session created elsewhere, a later time wins if the token is already known
+     */
+    void put(Session session) {
+        if (!add(session)) {
+            Session existing = sessions.get(session.getTokenHigh(), session.getTokenLow());
+            if (existing != null && existing.getTime() < session.getTime()) {
+                existing.setTime(session.getTime());
+            }
+        }
+    }
+
+    Session remove(long high, long low) {
+        Session session = sessions.remove(high, low);
+        if (session != null) {
+            expiryWheel.cancel(session);
+            sessionsByUser.remove(session);
+        }
+        return session;
+    }
+
+    private void drop(Session session) {
+        if (sessions.remove(session)) {
+            expiryWheel.cancel(session);
+            sessionsByUser.remove(session);
+        }
+    }
+
+    private boolean isHeld(Session session) {
+        return sessions.get(session.getTokenHigh(), session.getTokenLow()) == session;
+    }
+}
@@ -0,0 +1,53 @@
+package org.demo.authservice.utils;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description UTF-8 encoding of passwords into reused per-thread buffers
+ */
+final class PasswordBytes {
+
+    private PasswordBytes() {
+    }
+
+    /**
+     * @return the buffer if it can hold the UTF-8 form of the password, else a larger one
+     */
+    static byte[] ensureCapacity(byte[] buffer, String password) {
+        // 3 bytes at most per char, a surrogate pair needs 4 for 2 chars
+        int needed = password.length() * 3;
+        return buffer.length >= needed ? buffer : new byte[Math.max(needed, buffer.length * 2)];
+    }
+
+    /**
+     * encode the password as UTF-8, a lone surrogate is encoded as '?' like String.getBytes does
+     * @param buffer a buffer from {@link #ensureCapacity(byte[], String)}
+     * @return number of bytes written
+     */
+    static int encode(String password, byte[] buffer) {
+        int length = 0;
+        for (int i = 0; i < password.length(); i++) {
+            char c = password.charAt(i);
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | c >> 6);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < password.length()
+                    && Character.isLowSurrogate(password.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, password.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xe0 | c >> 12);
+                buffer[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,29 @@
+package org.demo.authservice.utils;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description hashes passwords for storage. every hash starts with the id of the hasher that
+ * produced it, so that {@link EncryptUtil} can verify hashes of any registered hasher after the
+ * default one was changed. implementations must be safe for concurrent use
+ */
+public interface PasswordHasher {
+
+    /**
+     * @return id of the hasher in 1..255, written as the first byte of its hashes
+     */
+    int getId();
+
+    /**
+     * @param password the plain password
+     * @return the hash to store, starting with the id of the hasher
+     */
+    byte[] hash(String password);
+
+    /**
+     * @param password the plain password
+     * @param hash a hash produced by this hasher
+     * @return true if the password matches the hash
+     */
+    boolean verify(String password, byte[] hash);
+}
@@ -0,0 +1,135 @@
+package org.demo.authservice.utils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description PBKDF2 with HMAC-SHA256, a random 16 bytes salt and a tunable number of iterations.
+ * a hash is [id][iterations][salt][derived key], the iterations are read back from the hash,
+ * so hashes stay valid after the cost was tuned. {@link HasherCalibration} picks the iterations
+ * for a target time per hash. the iterations reuse a per-thread Mac and buffers
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    public static final int ID = 2;
+
+    public static final int MIN_ITERATIONS = 1000;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+    private static final int HASH_LENGTH = 1 + 4 + SALT_LENGTH + KEY_LENGTH;
+    /**
+     * big-endian index of the only block derived
+     */
+    private static final byte[] FIRST_BLOCK = {0, 0, 0, 1};
+
+    private static final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    private static final class State {
+        private final Mac mac;
+        private byte[] password = new byte[64];
+        private final byte[] block = new byte[KEY_LENGTH];
+        private final byte[] key = new byte[KEY_LENGTH];
+
+        State() {
+            try {
+                mac = Mac.getInstance(ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * @param iterations cost of one hash, at least MIN_ITERATIONS
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < MIN_ITERATIONS) {
+            throw new IllegalArgumentException("iterations must be at least " + MIN_ITERATIONS);
+        }
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] hash(String password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        byte[] key = derive(password, salt, iterations);
+        return ByteBuffer.allocate(HASH_LENGTH).put((byte) ID).putInt(iterations).put(salt).put(key).array();
+    }
+
+    @Override
+    public boolean verify(String password, byte[] hash) {
+        if (hash.length != HASH_LENGTH || hash[0] != ID) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(hash, 1, HASH_LENGTH - 1);
+        int storedIterations = buffer.getInt();
+        if (storedIterations < MIN_ITERATIONS) {
+            return false;
+        }
+        byte[] salt = new byte[SALT_LENGTH];
+        buffer.get(salt);
+        byte[] key = derive(password, salt, storedIterations);
+        int diff = 0;
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            diff |= key[i] ^ hash[HASH_LENGTH - KEY_LENGTH + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * PBKDF2 for a single block, the key is as long as the HMAC output
+     * @return the derived key in a per-thread buffer, valid until the next call on the thread
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        State state = states.get();
+        state.password = PasswordBytes.ensureCapacity(state.password, password);
+        int length = PasswordBytes.encode(password, state.password);
+        Mac mac = state.mac;
+        byte[] block = state.block;
+        byte[] key = state.key;
+        try {
+            try {
+                // HMAC pads its key with zeros, so the empty password that SecretKeySpec rejects is the same as one zero byte
+                mac.init(new SecretKeySpec(length == 0 ? new byte[1] : state.password, 0, Math.max(length, 1), ALGORITHM));
+            } finally {
+                // the key spec took a copy, the plain password must not outlive the call in the reused buffer
+                Arrays.fill(state.password, 0, length, (byte) 0);
+            }
+            mac.update(salt);
+            mac.update(FIRST_BLOCK);
+            mac.doFinal(block, 0);
+            System.arraycopy(block, 0, key, 0, KEY_LENGTH);
+            for (int i = 1; i < iterations; i++) {
+                mac.update(block);
+                mac.doFinal(block, 0);
+                for (int j = 0; j < KEY_LENGTH; j++) {
+                    key[j] ^= block[j];
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return key;
+    }
+}
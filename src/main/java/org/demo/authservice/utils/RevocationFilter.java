@@ -0,0 +1,121 @@
+package org.demo.authservice.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description revoked signed tokens. a bloom filter answers "not revoked" for almost every
+ * valid token without touching the exact set, the exact set keeps revocations until the
+ * token would have expired anyway and is pruned with the filter rebuilt from what is left
+ */
+public class RevocationFilter {
+
+    private static final int BITS_PER_ENTRY = 16;
+    private static final int HASHES = 6;
+    private static final int MIN_BITS = 1 << 16;
+
+    private static final class Revocation {
+        private final long expiresAt;
+        private final long high;
+        private final long low;
+
+        Revocation(SignedToken token) {
+            this.expiresAt = token.getExpiresAt();
+            this.high = token.getSignatureHigh();
+            this.low = token.getSignatureLow();
+        }
+    }
+
+    /**
+     * revocations by the signature of the revoked token
+     */
+    private final Map<String, Revocation> revoked = new ConcurrentHashMap<>();
+
+    private volatile AtomicLongArray bloom = new AtomicLongArray(MIN_BITS >>> 6);
+
+    /**
+     * revoke the token until it expires
+     */
+    public synchronized void revoke(SignedToken token) {
+        if (revoked.putIfAbsent(token.getSignature(), new Revocation(token)) != null) {
+            return;
+        }
+        if ((long) revoked.size() * BITS_PER_ENTRY > (long) bloom.length() << 6) {
+            // too full to stay selective, grow it
+            rebuild();
+        } else {
+            add(bloom, token.getSignatureHigh(), token.getSignatureLow());
+        }
+    }
+
+    /**
+     * @return true if the token was revoked
+     */
+    public boolean isRevoked(SignedToken token) {
+        if (!mightContain(bloom, token.getSignatureHigh(), token.getSignatureLow())) {
+            return false;
+        }
+        return revoked.containsKey(token.getSignature());
+    }
+
+    /**
+     * forget revocations of expired tokens and rebuild the filter so that it stays sparse
+     * @param now current time in milliseconds
+     * @return number of revocations left
+     */
+    public synchronized int prune(long now) {
+        boolean removed = false;
+        Iterator<Revocation> revocations = revoked.values().iterator();
+        while (revocations.hasNext()) {
+            if (revocations.next().expiresAt <= now) {
+                revocations.remove();
+                removed = true;
+            }
+        }
+        if (removed) {
+            rebuild();
+        }
+        return revoked.size();
+    }
+
+    public int size() {
+        return revoked.size();
+    }
+
+    private void rebuild() {
+        long wanted = Math.max(MIN_BITS, (long) revoked.size() * BITS_PER_ENTRY * 2);
+        AtomicLongArray rebuilt = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, Long.highestOneBit(wanted) >>> 6));
+        for (Revocation revocation : revoked.values()) {
+            add(rebuilt, revocation.high, revocation.low);
+        }
+        bloom = rebuilt;
+    }
+
+    private static void add(AtomicLongArray filter, long high, long low) {
+        long bits = (long) filter.length() << 6;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((high + i * low) & Long.MAX_VALUE) % bits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = filter.get(word);
+            } while ((current & mask) == 0 && !filter.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    private static boolean mightContain(AtomicLongArray filter, long high, long low) {
+        long bits = (long) filter.length() << 6;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = ((high + i * low) & Long.MAX_VALUE) % bits;
+            if ((filter.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,257 @@
+package org.demo.authservice.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description inheritance between roles: a user having a parent role also has its child roles, and theirs.
+ * the transitive closure is kept as a bitset per role of the roles it implies. a change builds the next
+ * {@link Closure} from the current one, recomputing only the roles whose closure it affects, and publishes it
+ * with one volatile write. users expand their roles against a closure once and reuse the result until the
+ * next change, so checking an inherited role stays a single bit test
+ */
+public class RoleHierarchy {
+
+    private static volatile Closure closure = Closure.FLAT;
+
+    /**
+     * @return the current closure, unchanged for good: later changes publish a new one
+     */
+    public static Closure current() {
+        return closure;
+    }
+
+    /**
+     * make the parent role imply the child role
+     * @return false if it already did directly
+     * @throws RuntimeException if the child already implies the parent
+     */
+    static synchronized boolean addInheritance(int parentId, int childId) {
+        Closure current = closure;
+        if (current.implies(childId, parentId)) {
+            throw new RuntimeException("role inheritance would form a cycle");
+        }
+        if (current.isChild(parentId, childId)) {
+            return false;
+        }
+        int size = Math.max(current.size(), Math.max(parentId, childId) + 1);
+        long[][] children = Arrays.copyOf(current.children, size);
+        children[parentId] = withBit(children[parentId], childId);
+        long[][] implied = Arrays.copyOf(current.implied, size);
+        long[] added = current.impliedBy(childId);
+        // every role implying the parent now implies what the child implies
+        for (int roleId = 0; roleId < size; roleId++) {
+            if (current.implies(roleId, parentId)) {
+                implied[roleId] = or(current.impliedBy(roleId), added);
+            }
+        }
+        closure = new Closure(children, implied, current.edges + 1);
+        return true;
+    }
+
+    /**
+     * stop the parent role from implying the child role directly
+     * @return false if it did not
+     */
+    static synchronized boolean removeInheritance(int parentId, int childId) {
+        Closure current = closure;
+        if (!current.isChild(parentId, childId)) {
+            return false;
+        }
+        long[][] children = current.children.clone();
+        children[parentId] = withoutBit(children[parentId], childId);
+        closure = recompute(current, children, parentId, current.edges - 1);
+        return true;
+    }
+
+    /**
+     * drop every inheritance of a deleted role, so that a role created again under its id starts without any
+     */
+    static synchronized void removeRole(int roleId) {
+        Closure current = closure;
+        if (roleId >= current.size()) {
+            return;
+        }
+        long[][] children = current.children.clone();
+        int edges = current.edges - countBits(children[roleId]);
+        children[roleId] = null;
+        for (int parentId = 0; parentId < children.length; parentId++) {
+            if (hasBit(children[parentId], roleId)) {
+                children[parentId] = withoutBit(children[parentId], roleId);
+                edges--;
+            }
+        }
+        closure = recompute(current, children, roleId, edges);
+    }
+
+    static synchronized void clear() {
+        closure = Closure.FLAT;
+    }
+
+    /**
+     * rebuild the closure of the roles implying the changed role, the others are unaffected
+     */
+    private static Closure recompute(Closure current, long[][] children, int changedId, int edges) {
+        if (edges == 0) {
+            return Closure.FLAT;
+        }
+        long[][] implied = current.implied.clone();
+        boolean[] affected = new boolean[implied.length];
+        for (int roleId = 0; roleId < implied.length; roleId++) {
+            if (current.implies(roleId, changedId)) {
+                affected[roleId] = true;
+                implied[roleId] = null;
+            }
+        }
+        for (int roleId = 0; roleId < implied.length; roleId++) {
+            if (affected[roleId]) {
+                close(roleId, children, implied, affected);
+            }
+        }
+        return new Closure(children, implied, edges);
+    }
+
+    private static long[] close(int roleId, long[][] children, long[][] implied, boolean[] affected) {
+        if (!affected[roleId]) {
+            return implied[roleId] == null ? withBit(null, roleId) : implied[roleId];
+        }
+        long[] bits = withBit(null, roleId);
+        long[] direct = children[roleId];
+        for (int word = 0; direct != null && word < direct.length; word++) {
+            long remaining = direct[word];
+            while (remaining != 0) {
+                int childId = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                bits = or(bits, close(childId, children, implied, affected));
+            }
+        }
+        // the hierarchy is acyclic, each role is closed once
+        implied[roleId] = bits;
+        affected[roleId] = false;
+        return bits;
+    }
+
+    private static boolean hasBit(long[] bits, int id) {
+        return bits != null && (id >>> 6) < bits.length && (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    private static long[] withBit(long[] bits, int id) {
+        long[] copy = bits == null ? new long[(id >>> 6) + 1] : Arrays.copyOf(bits, Math.max(bits.length, (id >>> 6) + 1));
+        copy[id >>> 6] |= 1L << id;
+        return copy;
+    }
+
+    private static long[] withoutBit(long[] bits, int id) {
+        long[] copy = bits.clone();
+        copy[id >>> 6] &= ~(1L << id);
+        return countBits(copy) == 0 ? null : copy;
+    }
+
+    private static long[] or(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            result[i] |= b[i];
+        }
+        return result;
+    }
+
+    private static int countBits(long[] bits) {
+        int count = 0;
+        for (int i = 0; bits != null && i < bits.length; i++) {
+            count += Long.bitCount(bits[i]);
+        }
+        return count;
+    }
+
+    /**
+     * immutable role hierarchy and its transitive closure, indexed by role id
+     */
+    public static final class Closure {
+        static final Closure FLAT = new Closure(new long[0][], new long[0][], 0);
+
+        /**
+         * roles each role inherits directly, null if none
+         */
+        private final long[][] children;
+        /**
+         * the role and every role it inherits, directly or not, null if it inherits none
+         */
+        private final long[][] implied;
+        private final int edges;
+
+        private Closure(long[][] children, long[][] implied, int edges) {
+            this.children = children;
+            this.implied = implied;
+            this.edges = edges;
+        }
+
+        /**
+         * @return true if no role inherits another
+         */
+        public boolean isFlat() {
+            return edges == 0;
+        }
+
+        /**
+         * @return true if having the role grants the other role
+         */
+        public boolean implies(int roleId, int otherId) {
+            if (roleId == otherId) {
+                return true;
+            }
+            return roleId >= 0 && roleId < implied.length && hasBit(implied[roleId], otherId);
+        }
+
+        /**
+         * expand a role bitset with the inherited roles
+         * @return the given bits if they grant no inherited role
+         */
+        public long[] expand(long[] roleBits) {
+            long[] effective = roleBits;
+            for (int word = 0; word < roleBits.length; word++) {
+                long remaining = roleBits[word];
+                while (remaining != 0) {
+                    int roleId = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                    remaining &= remaining - 1;
+                    if (roleId < implied.length && implied[roleId] != null) {
+                        effective = or(effective, implied[roleId]);
+                    }
+                }
+            }
+            return effective;
+        }
+
+        /**
+         * @return pairs of {parentId, childId} of the direct inheritances
+         */
+        public List<int[]> inheritances() {
+            List<int[]> pairs = new ArrayList<>(edges);
+            for (int parentId = 0; parentId < children.length; parentId++) {
+                long[] direct = children[parentId];
+                for (int word = 0; direct != null && word < direct.length; word++) {
+                    long remaining = direct[word];
+                    while (remaining != 0) {
+                        pairs.add(new int[]{parentId, (word << 6) + Long.numberOfTrailingZeros(remaining)});
+                        remaining &= remaining - 1;
+                    }
+                }
+            }
+            return pairs;
+        }
+
+        boolean isChild(int parentId, int childId) {
+            return parentId >= 0 && parentId < children.length && hasBit(children[parentId], childId);
+        }
+
+        int size() {
+            return implied.length;
+        }
+
+        long[] impliedBy(int roleId) {
+            return roleId < implied.length && implied[roleId] != null ? implied[roleId] : withBit(null, roleId);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.demo.authservice.utils;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description names of the users having each role, by role id. it is updated from the difference
+ * of a user's role bits before and after each write of the user, role bits are copy-on-write so the
+ * old bits stay intact. writes of one user are serialized by the user store, so are its updates here
+ */
+public class RoleMembers {
+
+    private final ConcurrentMap<Integer, Set<String>> members = new ConcurrentHashMap<>();
+
+    /**
+     * @param userName the user whose roles changed
+     * @param before role bits before the write, empty for a new user
+     * @param after role bits after the write, empty for a removed user
+     */
+    public void update(String userName, long[] before, long[] after) {
+        if (before == after) {
+            return;
+        }
+        int words = Math.max(before.length, after.length);
+        for (int word = 0; word < words; word++) {
+            long old = word < before.length ? before[word] : 0;
+            long now = word < after.length ? after[word] : 0;
+            long changed = old ^ now;
+            while (changed != 0) {
+                int bit = Long.numberOfTrailingZeros(changed);
+                int roleId = (word << 6) + bit;
+                if ((now & (1L << bit)) != 0) {
+                    members.computeIfAbsent(roleId, id -> ConcurrentHashMap.newKeySet()).add(userName);
+                } else {
+                    Set<String> names = members.get(roleId);
+                    if (names != null) {
+                        names.remove(userName);
+                    }
+                }
+                changed &= changed - 1;
+            }
+        }
+    }
+
+    /**
+     * @return live read-only view of the names of the role's members, weakly consistent while users change
+     */
+    public Set<String> get(int roleId) {
+        Set<String> names = members.get(roleId);
+        return names == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(names);
+    }
+
+    public void clear() {
+        members.clear();
+    }
+}
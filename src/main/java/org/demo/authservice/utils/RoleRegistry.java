@@ -0,0 +1,102 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description interns role names into dense int ids, so that role membership can be kept as bits.
+ * ids are never reused, a deleted role keeps its id and gets it back when it is created again
+ */
+public class RoleRegistry {
+
+    private static final ConcurrentMap<String, Integer> roleIds = new ConcurrentHashMap<>();
+
+    private static volatile Role[] roles = new Role[64];
+
+    private static int size;
+
+    /**
+     * get the id of the role name, assigning the next free id if the name is new
+     * @param roleName the name of role
+     * @return the id of the role
+     */
+    public static int register(String roleName) {
+        Integer id = roleIds.get(roleName);
+        if (id != null) {
+            return id;
+        }
+        synchronized (RoleRegistry.class) {
+            id = roleIds.get(roleName);
+            if (id != null) {
+                return id;
+            }
+            Role[] current = roles;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = new Role(roleName);
+            roles = current;
+            roleIds.put(roleName, size);
+            return size++;
+        }
+    }
+
+    /**
+     * register the role name under an id assigned by an earlier run, used when restoring persisted state.
+     * ids are only stable if persistence is enabled before any role is registered, a role registered
+     * earlier may have taken the id the persisted state assigns to another name
+     * @throws IllegalStateException if the name or the id is already registered differently
+     */
+    static synchronized void restore(int roleId, String roleName) {
+        Integer existing = roleIds.get(roleName);
+        if (existing != null) {
+            if (existing != roleId) {
+                throw new IllegalStateException("role " + roleName + " is registered as " + existing + ", not "
+                        + roleId + ", enable persistence before creating roles");
+            }
+            return;
+        }
+        Role[] current = roles;
+        if (roleId < current.length && current[roleId] != null) {
+            throw new IllegalStateException("role id " + roleId + " is registered as "
+                    + current[roleId].getRoleName() + ", enable persistence before creating roles");
+        }
+        if (roleId >= current.length) {
+            current = Arrays.copyOf(current, Math.max(current.length * 2, roleId + 1));
+        }
+        current[roleId] = new Role(roleName);
+        roles = current;
+        roleIds.put(roleName, roleId);
+        size = Math.max(size, roleId + 1);
+    }
+
+    /**
+     * @return one more than the highest assigned id
+     */
+    public static synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param roleName the name of role
+     * @return the id of the role, -1 if the name was never registered
+     */
+    public static int lookup(String roleName) {
+        Integer id = roleIds.get(roleName);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param roleId the id of role
+     * @return the shared role instance of the id, null if the id is not assigned
+     */
+    public static Role getRole(int roleId) {
+        Role[] current = roles;
+        return roleId >= 0 && roleId < current.length ? current[roleId] : null;
+    }
+}
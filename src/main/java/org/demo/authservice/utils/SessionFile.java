@@ -0,0 +1,330 @@
+package org.demo.authservice.utils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description sessions kept in a memory-mapped file of fixed-size slots, so they outlive the process.
+ * writes go to the page cache and reach the file even if the JVM is killed, only a crash of the
+ * machine loses the writes made since the last {@link #force()}.
+ * a slot is [token digest high 8][token digest low 8][last touch 8][used 1][name length 1][user name],
+ * the used byte is written last so a slot is never read back half written.
+ * <p>
+ * the file only holds a digest of each token, the first 128 bits of its HMAC-SHA256 under the key given
+ * to the constructor, or of its SHA-256 without a key, so the tokens can't be read back from it.
+ * it is created readable and writable by its owner only
+ */
+public class SessionFile implements Closeable {
+
+    static final int SLOT_SIZE = 128;
+    private static final int TIME_OFFSET = 16;
+    private static final int USED_OFFSET = 24;
+    private static final int NAME_OFFSET = 26;
+
+    /**
+     * longest user name in bytes a slot holds, sessions of longer names are kept in memory only
+     */
+    public static final int MAX_NAME_LENGTH = SLOT_SIZE - NAME_OFFSET;
+
+    /**
+     * the first slot holds the magic number, the slot size and the format
+     */
+    private static final long MAGIC = 0x61757468_73657373L;
+    /**
+     * 2 since the slots hold token digests instead of tokens
+     */
+    private static final int FORMAT = 2;
+    private static final String HMAC = "HmacSHA256";
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_SIZE - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final ThreadLocal<Digester> digesters;
+
+    /**
+     * stack of free slots, the lowest on top
+     */
+    private final int[] freeSlots;
+    private int freeCount;
+    private volatile boolean closed;
+
+    /**
+     * open the file with tokens digested by SHA-256, see {@link #SessionFile(Path, int, byte[])}
+     */
+    public SessionFile(Path file, int capacity) throws IOException {
+        this(file, capacity, null);
+    }
+
+    /**
+     * open the file, creating it or growing it to hold at least the given number of slots
+     * @param file path of the session file
+     * @param capacity number of sessions the file holds
+     * @param key secret of the token digests, kept apart from the file so that it can't be used to check
+     * guessed tokens. the same key must be given when the file is reopened, null for a plain SHA-256
+     */
+    public SessionFile(Path file, int capacity, byte[] key) throws IOException {
+        SecretKeySpec digestKey = key == null ? null : new SecretKeySpec(key, HMAC);
+        digesters = ThreadLocal.withInitial(() -> new Digester(digestKey));
+        restrictToOwner(file);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long existing = channel.size() / SLOT_SIZE - 1;
+            this.capacity = (int) Math.min(MAX_SLOTS, Math.max(capacity, existing));
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) (this.capacity + 1) * SLOT_SIZE);
+            if (existing < 0) {
+                buffer.putLong(0, MAGIC);
+                buffer.putInt(8, SLOT_SIZE);
+                buffer.putInt(12, FORMAT);
+            } else if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != SLOT_SIZE || buffer.getInt(12) != FORMAT) {
+                throw new IOException(file + " is not a session file");
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        freeSlots = new int[this.capacity];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * hand every used slot to the visitor and collect the others as free, called once after opening
+     * @return number of slots the visitor kept
+     */
+    public synchronized int load(SlotVisitor visitor) {
+        int kept = 0;
+        freeCount = 0;
+        for (int slot = capacity - 1; slot >= 0; slot--) {
+            int offset = offset(slot);
+            if (buffer.get(offset + USED_OFFSET) != 0) {
+                byte[] name = new byte[buffer.get(offset + USED_OFFSET + 1) & 0xff];
+                for (int i = 0; i < name.length; i++) {
+                    name[i] = buffer.get(offset + NAME_OFFSET + i);
+                }
+                if (visitor.visit(slot, buffer.getLong(offset), buffer.getLong(offset + 8),
+                        buffer.getLong(offset + TIME_OFFSET), new String(name, StandardCharsets.UTF_8))) {
+                    kept++;
+                    continue;
+                }
+                buffer.put(offset + USED_OFFSET, (byte) 0);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+        return kept;
+    }
+
+    /**
+     * write a session into a free slot, under the digest of its token
+     * @return the slot, -1 if the file is full or the user name is too long
+     */
+    public int allocate(long tokenHigh, long tokenLow, byte[] userName, long time) {
+        if (userName.length > MAX_NAME_LENGTH) {
+            return -1;
+        }
+        int slot;
+        synchronized (this) {
+            if (freeCount == 0 || closed) {
+                return -1;
+            }
+            slot = freeSlots[--freeCount];
+        }
+        Digester digester = digesters.get();
+        digester.digest(tokenHigh, tokenLow);
+        int offset = offset(slot);
+        buffer.putLong(offset, digester.high);
+        buffer.putLong(offset + 8, digester.low);
+        buffer.putLong(offset + TIME_OFFSET, time);
+        buffer.put(offset + USED_OFFSET + 1, (byte) userName.length);
+        for (int i = 0; i < userName.length; i++) {
+            buffer.put(offset + NAME_OFFSET + i, userName[i]);
+        }
+        buffer.put(offset + USED_OFFSET, (byte) 1);
+        return slot;
+    }
+
+    /**
+     * @return the digest the slot of the token holds, as {high, low}
+     */
+    public long[] digest(long tokenHigh, long tokenLow) {
+        Digester digester = digesters.get();
+        digester.digest(tokenHigh, tokenLow);
+        return new long[]{digester.high, digester.low};
+    }
+
+    /**
+     * record the last touch of the session in its slot, in place
+     */
+    public void touch(int slot, long time) {
+        buffer.putLong(offset(slot) + TIME_OFFSET, time);
+    }
+
+    /**
+     * mark the slot unused and make it available again
+     */
+    public void free(int slot) {
+        buffer.put(offset(slot) + USED_OFFSET, (byte) 0);
+        synchronized (this) {
+            if (!closed) {
+                freeSlots[freeCount++] = slot;
+            }
+        }
+    }
+
+    /**
+     * @return number of slots in use
+     */
+    public synchronized int size() {
+        return capacity - freeCount;
+    }
+
+    /**
+     * write the mapped slots through to the storage device
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        buffer.force();
+        channel.close();
+    }
+
+    private static int offset(int slot) {
+        return (slot + 1) * SLOT_SIZE;
+    }
+
+    /**
+     * create the file if missing and make it readable and writable by its owner only, with POSIX permissions
+     * or, where they are not supported such as on Windows, with an ACL granting the owner alone
+     */
+    private static void restrictToOwner(Path file) throws IOException {
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rw-------");
+            try {
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(ownerOnly));
+            } catch (FileAlreadyExistsException e) {
+                // reopened, its permissions are narrowed below in case they were widened
+            }
+            // the umask may have narrowed them further at creation
+            Files.setPosixFilePermissions(file, ownerOnly);
+            return;
+        }
+        try {
+            Files.createFile(file);
+        } catch (FileAlreadyExistsException e) {
+            // reopened
+        }
+        AclFileAttributeView acl = Files.getFileAttributeView(file, AclFileAttributeView.class);
+        if (acl == null) {
+            return;
+        }
+        AclEntry owner = AclEntry.newBuilder()
+                .setType(AclEntryType.ALLOW)
+                .setPrincipal(acl.getOwner())
+                .setPermissions(AclEntryPermission.READ_DATA, AclEntryPermission.WRITE_DATA,
+                        AclEntryPermission.APPEND_DATA, AclEntryPermission.READ_ATTRIBUTES,
+                        AclEntryPermission.WRITE_ATTRIBUTES, AclEntryPermission.READ_NAMED_ATTRS,
+                        AclEntryPermission.WRITE_NAMED_ATTRS, AclEntryPermission.READ_ACL,
+                        AclEntryPermission.WRITE_ACL, AclEntryPermission.DELETE, AclEntryPermission.SYNCHRONIZE)
+                .build();
+        acl.setAcl(Collections.singletonList(owner));
+    }
+
+    /**
+     * per-thread HMAC or SHA-256 of tokens, the digest of the last token is left in high and low
+     */
+    private static final class Digester {
+        private final Mac mac;
+        private final MessageDigest sha256;
+        private final byte[] input = new byte[16];
+        private final byte[] output = new byte[32];
+        private long high;
+        private long low;
+
+        Digester(SecretKeySpec key) {
+            try {
+                if (key == null) {
+                    mac = null;
+                    sha256 = MessageDigest.getInstance("SHA-256");
+                } else {
+                    mac = Mac.getInstance(HMAC);
+                    mac.init(key);
+                    sha256 = null;
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void digest(long tokenHigh, long tokenLow) {
+            for (int i = 0; i < 8; i++) {
+                input[i] = (byte) (tokenHigh >>> (56 - 8 * i));
+                input[8 + i] = (byte) (tokenLow >>> (56 - 8 * i));
+            }
+            try {
+                if (mac != null) {
+                    mac.update(input);
+                    mac.doFinal(output, 0);
+                } else {
+                    sha256.update(input);
+                    sha256.digest(output, 0, output.length);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                // the token must not outlive the call in the reused buffer
+                Arrays.fill(input, (byte) 0);
+            }
+            high = 0;
+            low = 0;
+            for (int i = 0; i < 8; i++) {
+                high = high << 8 | (output[i] & 0xff);
+                low = low << 8 | (output[8 + i] & 0xff);
+            }
+        }
+    }
+
+    /**
+     * receives the sessions found in the file
+     */
+    public interface SlotVisitor {
+        /**
+         * @param digestHigh high bits of the digest of the session's token, see {@link #digest(long, long)}
+         * @param digestLow low bits of the digest
+         * @return true to keep the session, false to free its slot
+         */
+        boolean visit(int slot, long digestHigh, long digestLow, long time, String userName);
+    }
+}
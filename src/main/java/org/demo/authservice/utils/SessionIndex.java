@@ -0,0 +1,184 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description the sessions of every user, as a doubly linked list through the sessions themselves
+ * so that indexing a session allocates nothing but the list of a user's first session. a list is kept in
+ * least recently used order, new and touched sessions go to the head, so the session to evict when a user
+ * has too many is the tail. the map holds the ends of each user's list, a list is only changed under its
+ * own lock and is retired once empty, a writer that finds a retired list looks the user up again.
+ * a session is in a list if it is the head or has a predecessor
+ */
+public class SessionIndex {
+
+    /**
+     * ends and length of the list of one user
+     */
+    private static final class UserSessions {
+        private Session head;
+        private Session tail;
+        private int count;
+        /**
+         * no longer in the map, changes must go to the user's current list
+         */
+        private boolean retired;
+    }
+
+    private static final Function<String, UserSessions> NEW_LIST = userName -> new UserSessions();
+
+    private final ConcurrentHashMap<String, UserSessions> users = new ConcurrentHashMap<>();
+
+    public void add(Session session) {
+        add(session, 0);
+    }
+
+    /**
+     * add the session, and if the user then has more than the limit of sessions take the least
+     * recently used one out of the index
+     * @param limit maximum number of sessions of one user, 0 for no limit
+     * @return the session taken out, null if the user is within the limit
+     */
+    public Session add(Session session, int limit) {
+        String userName = session.getUser().getUserName();
+        while (true) {
+            UserSessions list = users.get(userName);
+            if (list == null) {
+                list = users.computeIfAbsent(userName, NEW_LIST);
+            }
+            synchronized (list) {
+                if (list.retired) {
+                    continue;
+                }
+                linkFirst(list, session);
+                if (limit > 0 && list.count > limit) {
+                    Session evicted = list.tail;
+                    unlink(list, evicted);
+                    return evicted;
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * move the session to the head of its user's list after it was used,
+     * nothing happens if it is not in the list
+     */
+    public void touch(Session session) {
+        UserSessions list = users.get(session.getUser().getUserName());
+        if (list == null) {
+            return;
+        }
+        synchronized (list) {
+            if (!list.retired && session != list.head && session.getUserPrev() != null) {
+                unlink(list, session);
+                linkFirst(list, session);
+            }
+        }
+    }
+
+    /**
+     * unlink the session, nothing happens if it is not in the list of its user
+     */
+    public void remove(Session session) {
+        String userName = session.getUser().getUserName();
+        UserSessions list = users.get(userName);
+        if (list == null) {
+            return;
+        }
+        synchronized (list) {
+            if (list.retired || session != list.head && session.getUserPrev() == null) {
+                return;
+            }
+            unlink(list, session);
+            if (list.count == 0) {
+                retire(userName, list);
+            }
+        }
+    }
+
+    /**
+     * take every session of the user out of the index
+     * @return the removed sessions
+     */
+    public List<Session> removeAll(String userName) {
+        UserSessions list = users.get(userName);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        List<Session> removed = new ArrayList<>();
+        synchronized (list) {
+            if (list.retired) {
+                return Collections.emptyList();
+            }
+            for (Session session = list.head; session != null; ) {
+                Session next = session.getUserNext();
+                session.setUserPrev(null);
+                session.setUserNext(null);
+                removed.add(session);
+                session = next;
+            }
+            list.head = null;
+            list.tail = null;
+            list.count = 0;
+            retire(userName, list);
+        }
+        return removed;
+    }
+
+    private void retire(String userName, UserSessions list) {
+        list.retired = true;
+        users.remove(userName, list);
+    }
+
+    private static void linkFirst(UserSessions list, Session session) {
+        Session head = list.head;
+        session.setUserPrev(null);
+        session.setUserNext(head);
+        if (head != null) {
+            head.setUserPrev(session);
+        } else {
+            list.tail = session;
+        }
+        list.head = session;
+        list.count++;
+    }
+
+    private static void unlink(UserSessions list, Session session) {
+        Session prev = session.getUserPrev();
+        Session next = session.getUserNext();
+        if (prev != null) {
+            prev.setUserNext(next);
+        } else {
+            list.head = next;
+        }
+        if (next != null) {
+            next.setUserPrev(prev);
+        } else {
+            list.tail = prev;
+        }
+        session.setUserPrev(null);
+        session.setUserNext(null);
+        list.count--;
+    }
+
+    /**
+     * @return number of users having sessions
+     */
+    public int users() {
+        return users.size();
+    }
+
+    public void clear() {
+        users.clear();
+    }
+}
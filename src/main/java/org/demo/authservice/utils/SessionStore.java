@@ -0,0 +1,64 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.User;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description where session tokens live. {@link TokenUtil} keeps sessions in this JVM unless a store
+ * is set with {@link TokenUtil#setSessionStore(SessionStore)}, e.g. one shared by several nodes.
+ * times are in milliseconds, passed in so that callers can use a cached clock
+ */
+public interface SessionStore {
+
+    /**
+     * start a session for the user
+     * @return the token of the session
+     */
+    String generateToken(User user, long now);
+
+    /**
+     * @return true if the token has a session that did not expire
+     */
+    boolean validateToken(String token, long now);
+
+    /**
+     * @return the user of the token's session, null if the token is malformed, unknown or expired
+     */
+    User resolveToken(String token, long now);
+
+    /**
+     * resolve the token and update its expiring time
+     * @return the user of the token's session, null if the token is malformed, unknown or expired
+     */
+    User touchToken(String token, long now);
+
+    default void updateTokenTime(String token, long now) {
+        touchToken(token, now);
+    }
+
+    /**
+     * end the token's session
+     * @return true if the session was known
+     */
+    boolean invalidateToken(String token);
+
+    /**
+     * end every session of the user, e.g. once the user is deleted. a store shared by several nodes
+     * tells the other nodes asynchronously
+     * @return number of sessions ended in this store
+     */
+    int invalidateAllTokens(String userName);
+
+    /**
+     * evict the sessions that expired, called every {@link TokenUtil#EXPIRY_TICK_MILLIS} so it should not
+     * visit every session
+     * @return number of evicted sessions
+     */
+    int expireTokens(long now);
+
+    /**
+     * @return number of sessions held by this store
+     */
+    int size();
+}
@@ -0,0 +1,408 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description sessions keyed by their 128-bit token, held as two longs.
+ * the table is split into segments, each an open addressing table with linear probing
+ * over a long[] of keys and a Session[] of values. lookups are optimistic and take no lock
+ * unless a writer of the same segment got in the way. the all-zero key marks an empty slot
+ */
+public class SessionTable {
+
+    private static final int SEGMENTS = 64;
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * home slots a cursor visits per lock hold
+     */
+    private static final int SCAN_STEP = 256;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public SessionTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return the session of the token, null if there is none
+     */
+    public Session get(long high, long low) {
+        long hash = hash(high, low);
+        return segmentFor(hash).get(hash, high, low);
+    }
+
+    /**
+     * store the session under its token unless the token is taken
+     * @return true if the session was stored
+     */
+    public boolean putIfAbsent(Session session) {
+        long high = session.getTokenHigh();
+        long low = session.getTokenLow();
+        if (high == 0 && low == 0) {
+            throw new IllegalArgumentException("the all-zero token is reserved");
+        }
+        long hash = hash(high, low);
+        return segmentFor(hash).putIfAbsent(hash, session);
+    }
+
+    /**
+     * @return the removed session, null if there was none
+     */
+    public Session remove(long high, long low) {
+        long hash = hash(high, low);
+        return segmentFor(hash).remove(hash, high, low, null);
+    }
+
+    /**
+     * remove the session only if it is still the one stored under its token
+     * @return true if the session was removed
+     */
+    public boolean remove(Session session) {
+        long high = session.getTokenHigh();
+        long low = session.getTokenLow();
+        long hash = hash(high, low);
+        return segmentFor(hash).remove(hash, high, low, session) != null;
+    }
+
+    /**
+     * remove every session matching the filter, one segment at a time.
+     * the filter runs under the segment's write lock and must not access the table
+     * @return number of removed sessions
+     */
+    public int removeIf(Predicate<Session> filter) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            removed += segment.removeIf(filter);
+        }
+        return removed;
+    }
+
+    /**
+     * pick a session at random, for sampled eviction
+     * @param random picks the segment and the slot to start looking from
+     * @return a session, null if the table looked empty
+     */
+    public Session sample(Random random) {
+        int start = random.nextInt(SEGMENTS);
+        // visit every segment once, so that a nearly empty table still yields its sessions
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment segment = segments[(start + i) & (SEGMENTS - 1)];
+            if (segment.size == 0) {
+                continue;
+            }
+            Session session = segment.sample(random.nextInt());
+            if (session != null) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * page through the sessions matching the filter, see {@link Cursor}. the filter runs under a segment's
+     * lock and must not access the table
+     */
+    public Cursor<Session> cursor(Predicate<Session> filter) {
+        return new Cursor<Session>() {
+            private int segment;
+            private int position;
+
+            @Override
+            public List<Session> next(int limit) {
+                if (segment == SEGMENTS) {
+                    return Collections.emptyList();
+                }
+                List<Session> page = new ArrayList<>(Math.min(limit, 1024));
+                while (page.size() < limit && segment < SEGMENTS) {
+                    position = segments[segment].scan(position, limit - page.size(), filter, page);
+                    if (position == 0) {
+                        segment++;
+                    }
+                }
+                return page;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return segment < SEGMENTS;
+            }
+        };
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> 58) & (SEGMENTS - 1)];
+    }
+
+    private static long hash(long high, long low) {
+        // tokens are random, mixing only guards against poorly distributed generators
+        long h = high ^ (low * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * keys and values replaced together on resize, so a reader always sees a matching pair
+     */
+    private static final class Table {
+        private final long[] keys;
+        private final Session[] values;
+        private final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity * 2];
+            values = new Session[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private Table table = new Table(INITIAL_CAPACITY);
+        private volatile int size;
+
+        Session get(long hash, long high, long low) {
+            long stamp = lock.tryOptimisticRead();
+            Session session = find(table, hash, high, low);
+            if (lock.validate(stamp)) {
+                return session;
+            }
+            stamp = lock.readLock();
+            try {
+                return find(table, hash, high, low);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        Session sample(int start) {
+            long stamp = lock.tryOptimisticRead();
+            Session session = firstFrom(table, start);
+            if (lock.validate(stamp)) {
+                return session;
+            }
+            stamp = lock.readLock();
+            try {
+                return firstFrom(table, start);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * add the matching sessions of some home slots to the page, visiting home slots in reverse binary
+         * order: slots visited before a resize map to slots visited before in the larger table, so a
+         * cursor neither misses sessions nor returns them twice when the table grows
+         * @param position home slot to start from, 0 for the first one
+         * @return home slot to continue from, 0 when the segment is done
+         */
+        int scan(int position, int limit, Predicate<Session> filter, List<Session> page) {
+            int start = page.size();
+            long stamp = lock.tryOptimisticRead();
+            int next = scanTable(table, position, limit, filter, page);
+            if (lock.validate(stamp)) {
+                return next;
+            }
+            page.subList(start, page.size()).clear();
+            stamp = lock.readLock();
+            try {
+                return scanTable(table, position, limit, filter, page);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        boolean putIfAbsent(long hash, Session session) {
+            long stamp = lock.writeLock();
+            try {
+                if (find(table, hash, session.getTokenHigh(), session.getTokenLow()) != null) {
+                    return false;
+                }
+                if ((size + 1) * 2 > table.values.length) {
+                    resize();
+                }
+                insert(table, hash, session);
+                size++;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        Session remove(long hash, long high, long low, Session expected) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int index = (int) hash & t.mask;
+                for (int probes = 0; probes <= t.mask; probes++) {
+                    long keyHigh = t.keys[index * 2];
+                    long keyLow = t.keys[index * 2 + 1];
+                    if (keyHigh == 0 && keyLow == 0) {
+                        return null;
+                    }
+                    if (keyHigh == high && keyLow == low) {
+                        Session session = t.values[index];
+                        if (expected != null && expected != session) {
+                            return null;
+                        }
+                        delete(t, index);
+                        size--;
+                        return session;
+                    }
+                    index = (index + 1) & t.mask;
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int removeIf(Predicate<Session> filter) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                int removed = 0;
+                int index = 0;
+                while (index <= t.mask) {
+                    Session session = t.values[index];
+                    if (session != null && filter.test(session)) {
+                        // deleting shifts a later entry into this slot, look at it again
+                        delete(t, index);
+                        removed++;
+                    } else {
+                        index++;
+                    }
+                }
+                size -= removed;
+                return removed;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void resize() {
+            Table old = table;
+            Table resized = new Table(old.values.length * 2);
+            for (Session session : old.values) {
+                if (session != null) {
+                    insert(resized, hash(session.getTokenHigh(), session.getTokenLow()), session);
+                }
+            }
+            table = resized;
+        }
+
+        private static int scanTable(Table t, int position, int limit, Predicate<Session> filter,
+                                     List<Session> page) {
+            Session[] values = t.values;
+            int mask = t.mask;
+            int found = 0;
+            for (int visited = 0; visited < SCAN_STEP && found < limit; visited++) {
+                int home = position & mask;
+                // linear probing keeps the sessions of a home slot in the run of full slots starting there
+                for (int index = home; values[index] != null; index = (index + 1) & mask) {
+                    Session session = values[index];
+                    if (((int) hash(session.getTokenHigh(), session.getTokenLow()) & mask) == home
+                            && filter.test(session)) {
+                        page.add(session);
+                        found++;
+                    }
+                }
+                position = Integer.reverse(Integer.reverse(position | ~mask) + 1);
+                if (position == 0) {
+                    break;
+                }
+            }
+            return position;
+        }
+
+        /**
+         * @return the first session at or after the start slot, wrapping around, null if there is none
+         */
+        private static Session firstFrom(Table t, int start) {
+            Session[] values = t.values;
+            int index = start & t.mask;
+            for (int probes = 0; probes <= t.mask; probes++) {
+                Session session = values[index];
+                if (session != null) {
+                    return session;
+                }
+                index = (index + 1) & t.mask;
+            }
+            return null;
+        }
+
+        private static Session find(Table t, long hash, long high, long low) {
+            long[] keys = t.keys;
+            Session[] values = t.values;
+            int index = (int) hash & t.mask;
+            for (int probes = 0; probes <= t.mask; probes++) {
+                long keyHigh = keys[index * 2];
+                long keyLow = keys[index * 2 + 1];
+                if (keyHigh == high && keyLow == low) {
+                    return values[index];
+                }
+                if (keyHigh == 0 && keyLow == 0) {
+                    return null;
+                }
+                index = (index + 1) & t.mask;
+            }
+            return null;
+        }
+
+        private static void insert(Table t, long hash, Session session) {
+            int index = (int) hash & t.mask;
+            while (t.values[index] != null) {
+                index = (index + 1) & t.mask;
+            }
+            t.keys[index * 2] = session.getTokenHigh();
+            t.keys[index * 2 + 1] = session.getTokenLow();
+            t.values[index] = session;
+        }
+
+        /**
+         * backward shift deletion, keeps probe sequences intact without tombstones
+         */
+        private static void delete(Table t, int index) {
+            int hole = index;
+            int next = index;
+            while (true) {
+                next = (next + 1) & t.mask;
+                Session session = t.values[next];
+                if (session == null) {
+                    break;
+                }
+                int home = (int) hash(session.getTokenHigh(), session.getTokenLow()) & t.mask;
+                // the entry can fill the hole only if its home slot is not between the hole and itself
+                boolean between = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if (!between) {
+                    t.keys[hole * 2] = t.keys[next * 2];
+                    t.keys[hole * 2 + 1] = t.keys[next * 2 + 1];
+                    t.values[hole] = session;
+                    hole = next;
+                }
+            }
+            t.keys[hole * 2] = 0;
+            t.keys[hole * 2 + 1] = 0;
+            t.values[hole] = null;
+        }
+    }
+}
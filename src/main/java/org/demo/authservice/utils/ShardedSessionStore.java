@@ -0,0 +1,860 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Session;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.metrics.Counter;
+import org.demo.authservice.metrics.MetricsRegistry;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description session store of one node of a cluster, so that nodes behind a load balancer accept each
+ * other's tokens. a token is held by the nodes that follow its hash on a consistent-hash ring of virtual
+ * nodes, a node only mints tokens it holds itself so that it can serve them at once. creates, touches and
+ * invalidations are sent to the other holders asynchronously over TCP, a node asked for a token it does not
+ * hold looks it up on the holders and borrows the answer for up to {@link #BORROW_MILLIS}, so a token used
+ * on a node that does not hold it costs one remote lookup per borrow rather than one per request. touches
+ * of a borrowed session reach the holders with the next lookup. invalidations go to every node, which drop
+ * their borrowed copies too, though one that races a lookup may serve the token until its borrow ends.
+ * replication is best effort: messages for a peer that is down or too far behind are dropped and counted.
+ * users are resolved by name in {@link StoreUtil} on every node.
+ * <p>
+ * a peer whose lookup failed is skipped for {@link #DOWN_MILLIS}, and each peer takes at most
+ * {@link #MAX_LOOKUP_CONNECTIONS} lookups at a time, so a dead or slow node costs its callers little.
+ * <p>
+ * peers share a secret. on every connection the accepting node first sends a random nonce, then each frame
+ * carries an HMAC-SHA256 of the nonce, its direction, its sequence number on the connection and its payload.
+ * a frame that fails the check closes the connection before it is parsed, so a client without the secret
+ * can't create, read or end sessions, nor replay or reorder frames it has seen. connections are only taken
+ * from the members' addresses, must authenticate a first frame within {@link #READ_TIMEOUT_MILLIS}, and are
+ * served by a pool sized for the members' connections
+ */
+public class ShardedSessionStore implements SessionStore, Closeable {
+
+    private static final byte HELLO = 0;
+    private static final byte CREATE = 1;
+    private static final byte TOUCH = 2;
+    private static final byte INVALIDATE = 3;
+    private static final byte LOOKUP = 4;
+    private static final byte INVALIDATE_USER = 5;
+
+    private static final String HMAC = "HmacSHA256";
+    private static final int TAG_BYTES = 32;
+    private static final int NONCE_BYTES = 16;
+    private static final int MIN_SECRET_BYTES = 16;
+    /**
+     * longest user name in bytes, as in the client protocol
+     */
+    private static final int MAX_NAME_BYTES = 0xFFFF;
+    /**
+     * longest payload of a frame, a create message of the longest user name
+     */
+    private static final int MAX_FRAME_BYTES = 29 + MAX_NAME_BYTES;
+    private static final byte[] HELLO_MESSAGE = {HELLO};
+
+    private static final int VIRTUAL_NODES = 128;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 1000;
+    private static final long RECONNECT_MILLIS = 100;
+    private static final long BORROW_MILLIS = 1000;
+    private static final long DOWN_MILLIS = 1000;
+    private static final int MAX_LOOKUP_CONNECTIONS = 8;
+
+    private static final Counter droppedMessages = MetricsRegistry.getDefault().counter("session.replication.dropped");
+    private static final Counter remoteLookups = MetricsRegistry.getDefault().counter("session.lookup.remote");
+    private static final Counter failedLookups = MetricsRegistry.getDefault().counter("session.lookup.failed");
+    private static final Counter rejectedPeers = MetricsRegistry.getDefault().counter("session.peer.rejected");
+
+    private final MemorySessionStore sessions = new MemorySessionStore();
+    /**
+     * sessions held elsewhere that were looked up lately, each kept until {@link #BORROW_MILLIS} after the
+     * lookup or its own deadline, whichever comes first
+     */
+    private final MemorySessionStore borrowed = new MemorySessionStore();
+    private final SecretKeySpec secret;
+    private final int replicas;
+    private final ServerSocket server;
+    private final InetSocketAddress address;
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor handlers;
+    private final Map<InetSocketAddress, Peer> peers = new HashMap<>();
+    private volatile Set<InetAddress> memberAddresses = Collections.emptySet();
+    private volatile Ring ring;
+    private volatile boolean closed;
+
+    /**
+     * start listening for peers, the node serves tokens once it joined a cluster
+     * @param bindAddress address to listen on, port 0 picks a free port
+     * @param replicas number of nodes holding each token
+     * @param secret key shared by all nodes of the cluster, at least 16 bytes
+     */
+    public ShardedSessionStore(InetSocketAddress bindAddress, int replicas, byte[] secret) throws IOException {
+        if (replicas < 1) {
+            throw new IllegalArgumentException("replicas must be positive");
+        }
+        if (secret == null || secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("secret must have at least " + MIN_SECRET_BYTES + " bytes");
+        }
+        this.secret = new SecretKeySpec(secret, HMAC);
+        this.replicas = replicas;
+        this.server = new ServerSocket();
+        server.bind(bindAddress);
+        this.address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        borrowed.setExpiredTime(BORROW_MILLIS);
+        this.handlers = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+            Thread handler = new Thread(task, "authservice-session-peer-" + address.getPort());
+            handler.setDaemon(true);
+            return handler;
+        });
+        Thread acceptor = new Thread(this::acceptLoop, "authservice-session-acceptor-" + address.getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the address peers reach this node at
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public void setExpiredTime(long expiredTime) {
+        sessions.setExpiredTime(expiredTime);
+    }
+
+    public void setTouchGranularity(long touchGranularity) {
+        sessions.setTouchGranularity(touchGranularity);
+    }
+
+    /**
+     * place tokens on the given nodes from now on. every node is meant to be given the same members,
+     * sessions already held are not moved
+     * @param members addresses of all nodes of the cluster, this node included
+     */
+    public synchronized void join(List<InetSocketAddress> members) {
+        if (!members.contains(address)) {
+            throw new IllegalArgumentException("members must include " + address);
+        }
+        Map<InetSocketAddress, Peer> left = new HashMap<>(peers);
+        for (InetSocketAddress member : members) {
+            if (!member.equals(address) && left.remove(member) == null) {
+                peers.put(member, new Peer(member));
+            }
+        }
+        for (Peer peer : left.values()) {
+            peers.remove(peer.address);
+            peer.close();
+        }
+        Set<InetAddress> addresses = new HashSet<>();
+        for (InetSocketAddress member : members) {
+            if (member.getAddress() != null) {
+                addresses.add(member.getAddress());
+            }
+        }
+        memberAddresses = addresses;
+        // a replication connection and the lookup connections of every peer, twice over so that peers
+        // reconnecting before their broken connections time out are not turned away
+        handlers.setMaximumPoolSize(Math.max(1, 2 * peers.size() * (1 + MAX_LOOKUP_CONNECTIONS)));
+        ring = new Ring(members, peers, address, replicas);
+    }
+
+    @Override
+    public String generateToken(User user, long now) {
+        byte[] userName = user.getUserName().getBytes(StandardCharsets.UTF_8);
+        if (userName.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("user name is too long");
+        }
+        Ring current = currentRing();
+        TokenGenerator generator = TokenGenerator.current();
+        Session session;
+        Peer[] holders;
+        do {
+            long high = generator.nextLong();
+            long low = generator.nextLong();
+            holders = current.holders(hash(high, low));
+            session = holders == null ? null : new Session(high, low, user, now);
+        } while (session == null || !sessions.add(session));
+        replicate(holders, ByteBuffer.allocate(29 + userName.length)
+                .put(CREATE).putLong(session.getTokenHigh()).putLong(session.getTokenLow())
+                .putLong(now).putInt(userName.length).put(userName).array());
+        return session.getToken();
+    }
+
+    @Override
+    public boolean validateToken(String token, long now) {
+        return resolve(token, now, false) != null;
+    }
+
+    @Override
+    public User resolveToken(String token, long now) {
+        return resolve(token, now, false);
+    }
+
+    @Override
+    public User touchToken(String token, long now) {
+        return resolve(token, now, true);
+    }
+
+    /**
+     * @return true if this node held the session, invalidations of tokens held elsewhere are only sent
+     */
+    @Override
+    public boolean invalidateToken(String token) {
+        if (!TokenCodec.isValid(token)) {
+            return false;
+        }
+        long high = TokenCodec.decodeHigh(token);
+        long low = TokenCodec.decodeLow(token);
+        Ring current = currentRing();
+        // every node, so that the ones which borrowed the session drop it too
+        replicate(current.peers, ByteBuffer.allocate(17).put(INVALIDATE).putLong(high).putLong(low).array());
+        borrowed.remove(high, low);
+        return current.holders(hash(high, low)) != null && sessions.remove(high, low) != null;
+    }
+
+    /**
+     * @return number of sessions this node held, every other node is told to end the user's sessions
+     */
+    @Override
+    public int invalidateAllTokens(String userName) {
+        byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+        if (name.length <= MAX_NAME_BYTES) {
+            byte[] message = ByteBuffer.allocate(5 + name.length).put(INVALIDATE_USER).putInt(name.length).put(name)
+                    .array();
+            List<Peer> others;
+            synchronized (this) {
+                others = new ArrayList<>(peers.values());
+            }
+            for (Peer peer : others) {
+                peer.send(message);
+            }
+        }
+        borrowed.invalidateAllTokens(userName);
+        return sessions.invalidateAllTokens(userName);
+    }
+
+    @Override
+    public int expireTokens(long now) {
+        borrowed.expireTokens(now);
+        return sessions.expireTokens(now);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        synchronized (this) {
+            for (Peer peer : peers.values()) {
+                peer.close();
+            }
+            peers.clear();
+        }
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+        handlers.shutdown();
+    }
+
+    private User resolve(String token, long now, boolean touch) {
+        if (!TokenCodec.isValid(token)) {
+            return null;
+        }
+        long high = TokenCodec.decodeHigh(token);
+        long low = TokenCodec.decodeLow(token);
+        Ring current = currentRing();
+        long hash = hash(high, low);
+        Peer[] holders = current.holders(hash);
+        boolean holder = holders != null;
+        if (holder) {
+            Session session = sessions.get(high, low, now);
+            if (session != null) {
+                if (touch && sessions.touch(session, now)) {
+                    replicate(holders, touchMessage(high, low, now));
+                }
+                return session.getUser();
+            }
+            // not replicated here yet, or lost: ask the other holders
+        } else {
+            Session copy = borrowed.get(high, low, now);
+            if (copy != null) {
+                return copy.getUser();
+            }
+            holders = current.others(hash);
+        }
+        for (Peer peer : holders) {
+            remoteLookups.increment();
+            try {
+                Session session = peer.lookup(high, low, touch, now);
+                if (session != null) {
+                    if (holder) {
+                        sessions.put(session);
+                    } else {
+                        session.setTime(Math.min(now, session.getTime() + sessions.getExpiredTime() - BORROW_MILLIS));
+                        borrowed.put(session);
+                    }
+                    return session.getUser();
+                }
+            } catch (IOException e) {
+                failedLookups.increment();
+            }
+        }
+        return null;
+    }
+
+    private Ring currentRing() {
+        Ring current = ring;
+        if (current == null) {
+            throw new IllegalStateException("session store has not joined a cluster");
+        }
+        return current;
+    }
+
+    private void replicate(Peer[] holders, byte[] message) {
+        for (Peer peer : holders) {
+            peer.send(message);
+        }
+    }
+
+    private static byte[] touchMessage(long high, long low, long time) {
+        return ByteBuffer.allocate(25).put(TOUCH).putLong(high).putLong(low).putLong(time).array();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    // out of file descriptors or the like, give connections time to close
+                    sleepQuietly(RECONNECT_MILLIS);
+                }
+                continue;
+            }
+            if (!memberAddresses.contains(socket.getInetAddress())) {
+                rejectedPeers.increment();
+                closeQuietly(socket);
+                continue;
+            }
+            accepted.add(socket);
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                handlers.execute(() -> serve(socket));
+            } catch (IOException | RejectedExecutionException e) {
+                rejectedPeers.increment();
+                accepted.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            Channel channel = new Channel(socket, true);
+            // authenticated, replication connections may idle for long
+            socket.setSoTimeout(0);
+            byte[] frame;
+            while ((frame = channel.read()) != null) {
+                handle(channel, ByteBuffer.wrap(frame));
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            // peer went away or sent a malformed frame
+        } finally {
+            accepted.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * apply an authenticated message of a peer
+     */
+    private void handle(Channel channel, ByteBuffer message) throws IOException {
+        byte type = message.get();
+        if (type == INVALIDATE_USER) {
+            String userName = readName(message);
+            sessions.invalidateAllTokens(userName);
+            borrowed.invalidateAllTokens(userName);
+            return;
+        }
+        long high = message.getLong();
+        long low = message.getLong();
+        switch (type) {
+            case CREATE:
+                long time = message.getLong();
+                User user = StoreUtil.getUser(readName(message));
+                if (user != null) {
+                    sessions.put(new Session(high, low, user, time));
+                }
+                break;
+            case TOUCH:
+                sessions.touch(high, low, message.getLong());
+                break;
+            case INVALIDATE:
+                sessions.remove(high, low);
+                borrowed.remove(high, low);
+                break;
+            case LOOKUP:
+                boolean touch = message.get() != 0;
+                long now = message.getLong();
+                Session session = sessions.get(high, low, now);
+                if (session == null) {
+                    channel.write(new byte[]{0});
+                } else {
+                    if (touch && sessions.touch(session, now)) {
+                        Peer[] holders = currentRing().holders(hash(high, low));
+                        if (holders != null) {
+                            replicate(holders, touchMessage(high, low, now));
+                        }
+                    }
+                    byte[] name = session.getUser().getUserName().getBytes(StandardCharsets.UTF_8);
+                    channel.write(ByteBuffer.allocate(13 + name.length).put((byte) 1).putLong(session.getTime())
+                            .putInt(name.length).put(name).array());
+                }
+                channel.flush();
+                break;
+            default:
+                throw new IOException("unknown message type " + type);
+        }
+    }
+
+    private static String readName(ByteBuffer message) throws IOException {
+        int length = message.getInt();
+        if (length < 0 || length > message.remaining()) {
+            throw new IOException("bad name length " + length);
+        }
+        byte[] name = new byte[length];
+        message.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already broken
+        }
+    }
+
+    private static long hash(long high, long low) {
+        return mix(high * 0x9E3779B97F4A7C15L + low);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return the member as every node names it, whatever host name it was built with
+     */
+    private static String canonical(InetSocketAddress member) {
+        InetAddress address = member.getAddress();
+        return (address == null ? member.getHostString() : address.getHostAddress()) + ":" + member.getPort();
+    }
+
+    /**
+     * FNV-1a of the key's UTF-8 bytes
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * positions of the virtual nodes, immutable. every node computes the same ring from the same members:
+     * positions come from the members' canonical names, and a position two members share goes to both,
+     * ordered by name
+     */
+    private static final class Ring {
+
+        private final long[] points;
+        /**
+         * node at each point, null for this node
+         */
+        private final Peer[] nodes;
+        /**
+         * every other node
+         */
+        private final Peer[] peers;
+        private final int holderCount;
+
+        Ring(List<InetSocketAddress> members, Map<InetSocketAddress, Peer> peers, InetSocketAddress self,
+             int replicas) {
+            Map<String, Peer> byName = new TreeMap<>();
+            for (InetSocketAddress member : members) {
+                byName.put(canonical(member), member.equals(self) ? null : peers.get(member));
+            }
+            List<Point> points = new ArrayList<>(byName.size() * VIRTUAL_NODES);
+            for (Map.Entry<String, Peer> member : byName.entrySet()) {
+                long base = hash(member.getKey());
+                for (int v = 0; v < VIRTUAL_NODES; v++) {
+                    points.add(new Point(mix(base + v * 0x9E3779B97F4A7C15L), member.getKey(), member.getValue()));
+                }
+            }
+            points.sort(Comparator.<Point>comparingLong(point -> point.position).thenComparing(point -> point.name));
+            this.points = new long[points.size()];
+            this.nodes = new Peer[points.size()];
+            for (int p = 0; p < points.size(); p++) {
+                this.points[p] = points.get(p).position;
+                this.nodes[p] = points.get(p).node;
+            }
+            List<Peer> others = new ArrayList<>(byName.values());
+            others.remove(null);
+            this.peers = others.toArray(new Peer[0]);
+            this.holderCount = Math.min(replicas, byName.size());
+        }
+
+        /**
+         * @return the other holders of the hash, null if this node is not a holder
+         */
+        Peer[] holders(long hash) {
+            List<Peer> holders = walk(hash);
+            return holders.remove(null) ? holders.toArray(new Peer[0]) : null;
+        }
+
+        /**
+         * @return the holders of a hash this node does not hold
+         */
+        Peer[] others(long hash) {
+            return walk(hash).toArray(new Peer[0]);
+        }
+
+        private List<Peer> walk(long hash) {
+            List<Peer> holders = new ArrayList<>(holderCount);
+            // first point at or after the hash
+            int start = 0;
+            int end = points.length;
+            while (start < end) {
+                int middle = (start + end) >>> 1;
+                if (points[middle] < hash) {
+                    start = middle + 1;
+                } else {
+                    end = middle;
+                }
+            }
+            for (int p = 0; holders.size() < holderCount && p < points.length; p++) {
+                Peer node = nodes[(start + p) % points.length];
+                if (!holders.contains(node)) {
+                    holders.add(node);
+                }
+            }
+            return holders;
+        }
+
+        private static final class Point {
+
+            private final long position;
+            private final String name;
+            private final Peer node;
+
+            Point(long position, String name, Peer node) {
+                this.position = position;
+                this.name = name;
+                this.node = node;
+            }
+        }
+    }
+
+    /**
+     * connections to another node: one for replication, fed by a queue and a sender thread,
+     * and a pool of connections for lookups
+     */
+    private final class Peer {
+
+        private final InetSocketAddress address;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final ConcurrentLinkedQueue<Channel> idle = new ConcurrentLinkedQueue<>();
+        private final Semaphore lookups = new Semaphore(MAX_LOOKUP_CONNECTIONS);
+        private final Thread sender;
+        /**
+         * lookups fail at once until then, in milliseconds
+         */
+        private volatile long downUntil;
+        private volatile boolean stopped;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+            this.sender = new Thread(this::sendLoop, "authservice-session-replicator-" + address.getPort());
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        void send(byte[] message) {
+            if (!queue.offer(message)) {
+                droppedMessages.increment();
+            }
+        }
+
+        /**
+         * @return the unexpired session, null if the peer does not know the token or its user
+         * @throws IOException if the peer is down, busy with other lookups or failed to answer
+         */
+        Session lookup(long high, long low, boolean touch, long now) throws IOException {
+            if (System.currentTimeMillis() < downUntil) {
+                throw new IOException("peer is down");
+            }
+            try {
+                if (!lookups.tryAcquire(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("peer is busy");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a lookup connection");
+            }
+            try {
+                return lookup(idle.poll(), high, low, touch, now);
+            } catch (IOException e) {
+                downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+                throw e;
+            } finally {
+                lookups.release();
+            }
+        }
+
+        private Session lookup(Channel channel, long high, long low, boolean touch, long now) throws IOException {
+            if (channel == null) {
+                channel = open();
+            }
+            try {
+                channel.write(ByteBuffer.allocate(26).put(LOOKUP).putLong(high).putLong(low)
+                        .put((byte) (touch ? 1 : 0)).putLong(now).array());
+                channel.flush();
+                byte[] frame = channel.read();
+                if (frame == null) {
+                    throw new IOException("peer closed the connection");
+                }
+                ByteBuffer reply = ByteBuffer.wrap(frame);
+                Session session = null;
+                if (reply.get() != 0) {
+                    long time = reply.getLong();
+                    User user = StoreUtil.getUser(readName(reply));
+                    session = user == null ? null : new Session(high, low, user, time);
+                }
+                if (stopped) {
+                    channel.close();
+                } else {
+                    idle.offer(channel);
+                }
+                return session;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            } catch (BufferUnderflowException e) {
+                channel.close();
+                throw new IOException("malformed reply", e);
+            }
+        }
+
+        void close() {
+            stopped = true;
+            sender.interrupt();
+            Channel channel;
+            while ((channel = idle.poll()) != null) {
+                channel.close();
+            }
+        }
+
+        /**
+         * connect to the peer, take its nonce and greet it
+         */
+        private Channel open() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                return new Channel(socket, false);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        private void sendLoop() {
+            List<byte[]> batch = new ArrayList<>();
+            while (!stopped) {
+                Channel channel = null;
+                try {
+                    channel = open();
+                    downUntil = 0;
+                    while (!stopped) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch);
+                        for (byte[] message : batch) {
+                            channel.write(message);
+                        }
+                        channel.flush();
+                        batch.clear();
+                    }
+                } catch (IOException e) {
+                    // queued messages wait for the next connection, until the queue fills up
+                    droppedMessages.add(batch.size());
+                    batch.clear();
+                    try {
+                        Thread.sleep(RECONNECT_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    if (channel != null) {
+                        channel.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * a connection between two nodes carrying authenticated frames: the length of the payload, the payload
+     * and its tag. the tag covers the nonce the accepting node sent, the direction and the sequence number,
+     * so frames can't be replayed on another connection, reflected or reordered. used by one thread at a time
+     */
+    private final class Channel {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final Mac mac;
+        private final byte[] nonce = new byte[NONCE_BYTES];
+        private final byte[] tag = new byte[TAG_BYTES];
+        private final byte outbound;
+        private long sent;
+        private long received;
+
+        /**
+         * @param accepting true on the node that accepted the connection, which picks the nonce and waits
+         *                  for an authenticated greeting
+         */
+        Channel(Socket socket, boolean accepting) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            try {
+                this.mac = Mac.getInstance(HMAC);
+                mac.init(secret);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+            this.outbound = (byte) (accepting ? 1 : 0);
+            if (accepting) {
+                TokenGenerator generator = TokenGenerator.current();
+                ByteBuffer.wrap(nonce).putLong(generator.nextLong()).putLong(generator.nextLong());
+                out.write(nonce);
+                out.flush();
+                byte[] hello = read();
+                if (hello == null || hello.length != 1 || hello[0] != HELLO) {
+                    throw new IOException("peer did not greet");
+                }
+            } else {
+                in.readFully(nonce);
+                write(HELLO_MESSAGE);
+                flush();
+            }
+        }
+
+        void write(byte[] payload) throws IOException {
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.write(sign(outbound, sent++, payload));
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * @return the payload of the next frame, null at the end of the stream
+         * @throws IOException if the frame is too long or its tag is wrong
+         */
+        byte[] read() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (length < 1 || length > MAX_FRAME_BYTES) {
+                throw new IOException("bad frame length " + length);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            in.readFully(tag);
+            if (!MessageDigest.isEqual(tag, sign((byte) (outbound ^ 1), received++, payload))) {
+                throw new IOException("frame failed authentication");
+            }
+            return payload;
+        }
+
+        private byte[] sign(byte direction, long sequence, byte[] payload) {
+            mac.update(nonce);
+            mac.update(direction);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mac.update((byte) (sequence >>> shift));
+            }
+            return mac.doFinal(payload);
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.RoleList;
+import org.demo.authservice.entity.Role;
+
+import java.util.List;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description claims carried by a signed token, see {@link SignedTokenUtil}
+ */
+public class SignedToken {
+    private final String userName;
+    private final long issuedAt;
+    private final long expiresAt;
+    private final long[] roleBits;
+    private final String signature;
+    private final long signatureHigh;
+    private final long signatureLow;
+
+    SignedToken(String userName, long issuedAt, long expiresAt, long[] roleBits, String signature,
+                long signatureHigh, long signatureLow) {
+        this.userName = userName;
+        this.issuedAt = issuedAt;
+        this.expiresAt = expiresAt;
+        this.roleBits = roleBits;
+        this.signature = signature;
+        this.signatureHigh = signatureHigh;
+        this.signatureLow = signatureLow;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * @param roleId interned id of the role
+     * @return true if the role was granted to the user, directly or inherited, when the token was issued
+     */
+    public boolean hasRole(int roleId) {
+        int word = roleId >>> 6;
+        return roleId >= 0 && word < roleBits.length && (roleBits[word] & (1L << roleId)) != 0;
+    }
+
+    /**
+     * @return the roles granted to the user when the token was issued, inherited roles included
+     */
+    public List<Role> getRoles() {
+        return new RoleList(roleBits);
+    }
+
+    /**
+     * @return the encoded signature, unique per token and used as its revocation key
+     */
+    String getSignature() {
+        return signature;
+    }
+
+    long getSignatureHigh() {
+        return signatureHigh;
+    }
+
+    long getSignatureLow() {
+        return signatureLow;
+    }
+}
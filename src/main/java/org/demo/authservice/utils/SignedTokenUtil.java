@@ -0,0 +1,178 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.User;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description issue and verify self-contained tokens signed with HMAC-SHA256.
+ * a token is base64url(payload) + "." + base64url(signature), the payload holds a random
+ * nonce, the issuing time, the expiring time, the role bits and the user name of the user it was issued to.
+ * the nonce keeps tokens issued to the same user in the same millisecond apart, so they can be revoked one by one.
+ * the signature is truncated to 128 bits
+ * <p>
+ * the role bits are ids of this node's {@link RoleRegistry}, not role names. a node verifying tokens signed by
+ * another one reads them against its own registry, so every node sharing the signing key must intern the same
+ * roles in the same order, e.g. by restoring the same store or creating the roles in the same sequence before
+ * any token is issued. otherwise a token grants whatever role the verifier happens to hold under that id
+ */
+public class SignedTokenUtil {
+
+    public static final char SEPARATOR = '.';
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_LENGTH = 16;
+    private static final int MAX_ROLE_WORDS = 255;
+    /**
+     * nonce, issuing time, expiring time and number of role words
+     */
+    private static final int HEADER_LENGTH = 8 + 8 + 8 + 1;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * random until a key is configured, tokens then don't survive a restart and are only valid on this node
+     */
+    private static volatile SecretKeySpec signingKey = randomKey();
+
+    private static final ThreadLocal<KeyedMac> macs = new ThreadLocal<>();
+
+    /**
+     * a per-thread Mac with the key it was initialized with
+     */
+    private static final class KeyedMac {
+        private final SecretKeySpec key;
+        private final Mac mac;
+
+        KeyedMac(SecretKeySpec key) throws GeneralSecurityException {
+            this.key = key;
+            this.mac = Mac.getInstance(ALGORITHM);
+            this.mac.init(key);
+        }
+    }
+
+    /**
+     * set the key shared by every node that must accept the tokens, tokens signed with the old key become invalid.
+     * the nodes must also agree on the role ids, see the class comment
+     * @param key secret of at least 32 bytes
+     */
+    public static void setSigningKey(byte[] key) {
+        if (key == null || key.length < 32) {
+            throw new IllegalArgumentException("signing key must have at least 32 bytes");
+        }
+        signingKey = new SecretKeySpec(key.clone(), ALGORITHM);
+    }
+
+    /**
+     * @return true if the token has the shape of a signed token, it is not verified
+     */
+    public static boolean isSignedToken(String token) {
+        return token != null && token.indexOf(SEPARATOR) >= 0;
+    }
+
+    /**
+     * issue a token for the user with the roles the user has now, inherited roles included
+     * @param user the authenticated user
+     * @param issuedAt the time the token is issued in milliseconds
+     * @param expiresAt the time the token expires in milliseconds
+     * @return the signed token
+     */
+    public static String sign(User user, long issuedAt, long expiresAt) {
+        long[] roleBits = user.getSnapshot().getEffectiveRoleBits();
+        int roleWords = roleBits.length;
+        // trailing empty words carry no role
+        while (roleWords > 0 && roleBits[roleWords - 1] == 0) {
+            roleWords--;
+        }
+        if (roleWords > MAX_ROLE_WORDS) {
+            throw new IllegalStateException("too many roles for a signed token");
+        }
+        byte[] name = user.getUserName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(HEADER_LENGTH + roleWords * 8 + name.length);
+        payload.putLong(ThreadLocalRandom.current().nextLong());
+        payload.putLong(issuedAt);
+        payload.putLong(expiresAt);
+        payload.put((byte) roleWords);
+        for (int i = 0; i < roleWords; i++) {
+            payload.putLong(roleBits[i]);
+        }
+        payload.put(name);
+        byte[] bytes = payload.array();
+        return ENCODER.encodeToString(bytes) + SEPARATOR + ENCODER.encodeToString(signature(bytes));
+    }
+
+    /**
+     * verify the signature of the token and decode its claims, expiry and revocation are not checked
+     * @param token the token to verify
+     * @return the claims of the token, null if the token is malformed or not signed by the current key
+     */
+    public static SignedToken parse(String token) {
+        int separator = token.lastIndexOf(SEPARATOR);
+        if (separator <= 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, separator));
+            signature = DECODER.decode(token.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (signature.length != SIGNATURE_LENGTH || payload.length < HEADER_LENGTH
+                || !MessageDigest.isEqual(signature, signature(payload))) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        // skip the nonce
+        buffer.getLong();
+        long issuedAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+        int roleWords = buffer.get() & 0xff;
+        if (buffer.remaining() < roleWords * 8) {
+            return null;
+        }
+        long[] roleBits = new long[roleWords];
+        for (int i = 0; i < roleWords; i++) {
+            roleBits[i] = buffer.getLong();
+        }
+        String userName = new String(payload, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        ByteBuffer signatureBits = ByteBuffer.wrap(signature);
+        return new SignedToken(userName, issuedAt, expiresAt, roleBits, token.substring(separator + 1),
+                signatureBits.getLong(), signatureBits.getLong());
+    }
+
+    private static byte[] signature(byte[] payload) {
+        SecretKeySpec key = signingKey;
+        KeyedMac keyedMac = macs.get();
+        try {
+            if (keyedMac == null || keyedMac.key != key) {
+                keyedMac = new KeyedMac(key);
+                macs.set(keyedMac);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] full = keyedMac.mac.doFinal(payload);
+        byte[] truncated = new byte[SIGNATURE_LENGTH];
+        System.arraycopy(full, 0, truncated, 0, SIGNATURE_LENGTH);
+        return truncated;
+    }
+
+    private static SecretKeySpec randomKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, ALGORITHM);
+    }
+}
@@ -0,0 +1,480 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.entity.UserSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description durable state of {@link StoreUtil} on local disk: a write-ahead log of every mutation
+ * plus compact snapshots that bound its length. snapshot N holds the state when log segment N was
+ * started, recovery memory-maps the latest snapshot and replays the segments from N on.
+ * records are full states or removals of one user, role or role inheritance, so replaying one twice is harmless.
+ * a record is [type][payload length][payload][crc32 of type and payload]
+ */
+public class StorePersistence implements Closeable {
+
+    static final byte PUT_USER = 1;
+    static final byte REMOVE_USER = 2;
+    static final byte PUT_ROLE = 3;
+    static final byte REMOVE_ROLE = 4;
+    static final byte ROLE_ID = 5;
+    static final byte PUT_INHERITANCE = 6;
+    static final byte REMOVE_INHERITANCE = 7;
+
+    public static final long DEFAULT_SNAPSHOT_THRESHOLD = 256L << 20;
+
+    private static final int HEADER_LENGTH = 1 + 4;
+    private static final int CRC_LENGTH = 4;
+    private static final int MAX_PAYLOAD = 1 << 24;
+    private static final long MAP_WINDOW = 256L << 20;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+
+    private final Path directory;
+    private final WriteAheadLog log;
+
+    /**
+     * mutations log and apply under the read lock, rolling to a new segment takes the write lock,
+     * so a snapshot never misses a mutation logged in the segment before it
+     */
+    private final ReentrantReadWriteLock rollLock = new ReentrantReadWriteLock();
+
+    /**
+     * role ids whose name is already in the log or the snapshot
+     */
+    private final BitSet loggedRoleIds = new BitSet();
+
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "authservice-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private volatile long snapshotThreshold = DEFAULT_SNAPSHOT_THRESHOLD;
+
+    private StorePersistence(Path directory, long generation, long position) throws IOException {
+        this.directory = directory;
+        this.log = new WriteAheadLog(directory, generation, position);
+    }
+
+    /**
+     * restore the state kept in the directory into {@link StoreUtil} and start logging mutations
+     * @param directory a directory on local disk, created if missing
+     * @return the opened persistence
+     */
+    static StorePersistence open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        long snapshotGeneration = -1;
+        for (long generation : generations(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            snapshotGeneration = generation;
+        }
+        if (snapshotGeneration >= 0) {
+            replay(snapshotPath(directory, snapshotGeneration), false);
+        }
+        long generation = Math.max(snapshotGeneration, 0);
+        long position = 0;
+        for (long segment : generations(directory, "wal-", ".log")) {
+            if (segment < generation) {
+                Files.delete(WriteAheadLog.segmentPath(directory, segment));
+                continue;
+            }
+            generation = segment;
+            position = replay(WriteAheadLog.segmentPath(directory, segment), true);
+        }
+        StorePersistence persistence = new StorePersistence(directory, generation, position);
+        synchronized (persistence.loggedRoleIds) {
+            persistence.loggedRoleIds.set(0, RoleRegistry.size());
+        }
+        return persistence;
+    }
+
+    public void setSnapshotThreshold(long snapshotThreshold) {
+        this.snapshotThreshold = snapshotThreshold;
+    }
+
+    /**
+     * keep the log from rolling while a mutation is logged and applied
+     */
+    Lock mutationLock() {
+        return rollLock.readLock();
+    }
+
+    long logUser(User user) {
+        UserSnapshot snapshot = user.getSnapshot();
+        logRoleIds(snapshot.getRoleBits());
+        return append(userRecord(user.getUserName(), snapshot));
+    }
+
+    long logRemoveUser(String userName) {
+        return append(nameRecord(REMOVE_USER, userName));
+    }
+
+    long logRole(Role role) {
+        int roleId = RoleRegistry.register(role.getRoleName());
+        logRoleIds(roleId);
+        return append(nameRecord(PUT_ROLE, role.getRoleName()));
+    }
+
+    long logRemoveRole(Role role) {
+        return append(nameRecord(REMOVE_ROLE, role.getRoleName()));
+    }
+
+    long logInheritance(Role parent, Role child, boolean present) {
+        return append(inheritanceRecord(present ? PUT_INHERITANCE : REMOVE_INHERITANCE,
+                parent.getRoleName(), child.getRoleName()));
+    }
+
+    /**
+     * wait until the mutation of the sequence number is durable, and start a snapshot if the log grew too long
+     */
+    void awaitDurable(long sequence) {
+        try {
+            log.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (log.getSegmentSize() >= snapshotThreshold && snapshotScheduled.compareAndSet(false, true)) {
+            snapshotExecutor.execute(() -> {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    // the log is still complete, the next mutation tries again
+                } finally {
+                    snapshotScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * write a snapshot of the current state and drop the log segments it makes obsolete
+     */
+    public synchronized void snapshot() throws IOException {
+        long generation;
+        rollLock.writeLock().lock();
+        try {
+            generation = log.roll();
+        } finally {
+            rollLock.writeLock().unlock();
+        }
+        writeSnapshot(generation);
+        deleteBefore(generation);
+    }
+
+    /**
+     * resume logging after a failed write or fsync. writes that failed may already be visible in memory,
+     * so the memory is written as a snapshot of a new generation and the log continues in its segment,
+     * which brings the disk back in line with what readers saw. writes wait until it is done
+     */
+    public synchronized void recover() throws IOException {
+        long generation;
+        rollLock.writeLock().lock();
+        try {
+            generation = log.getGeneration() + 1;
+            writeSnapshot(generation);
+            log.restart();
+        } finally {
+            rollLock.writeLock().unlock();
+        }
+        deleteBefore(generation);
+    }
+
+    /**
+     * @return the error that stopped the log, null if writes are logged
+     */
+    public IOException getFailure() {
+        return log.getFailure();
+    }
+
+    WriteAheadLog getLog() {
+        return log;
+    }
+
+    /**
+     * write the state as the snapshot of the generation, the state when its segment was started
+     */
+    private void writeSnapshot(long generation) throws IOException {
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + generation + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 20));
+            int roleCount = RoleRegistry.size();
+            for (int roleId = 0; roleId < roleCount; roleId++) {
+                Role role = RoleRegistry.getRole(roleId);
+                if (role != null) {
+                    out.write(roleIdRecord(roleId, role.getRoleName()));
+                }
+            }
+            for (Role role : StoreUtil.roles()) {
+                out.write(nameRecord(PUT_ROLE, role.getRoleName()));
+            }
+            for (int[] inheritance : RoleHierarchy.current().inheritances()) {
+                Role parent = RoleRegistry.getRole(inheritance[0]);
+                Role child = RoleRegistry.getRole(inheritance[1]);
+                out.write(inheritanceRecord(PUT_INHERITANCE, parent.getRoleName(), child.getRoleName()));
+            }
+            for (User user : StoreUtil.users()) {
+                out.write(userRecord(user.getUserName(), user.getSnapshot()));
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotPath(directory, generation), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteBefore(long generation) throws IOException {
+        for (long old : generations(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (old < generation) {
+                Files.delete(snapshotPath(directory, old));
+            }
+        }
+        for (long old : generations(directory, "wal-", ".log")) {
+            if (old < generation) {
+                Files.delete(WriteAheadLog.segmentPath(directory, old));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotExecutor.shutdown();
+        log.close();
+    }
+
+    private long append(byte[] record) {
+        try {
+            return log.append(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void logRoleIds(long[] roleBits) {
+        for (int word = 0; word < roleBits.length; word++) {
+            long bits = roleBits[word];
+            while (bits != 0) {
+                logRoleIds((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private void logRoleIds(int roleId) {
+        synchronized (loggedRoleIds) {
+            if (loggedRoleIds.get(roleId)) {
+                return;
+            }
+        }
+        append(roleIdRecord(roleId, RoleRegistry.getRole(roleId).getRoleName()));
+        // only marked once appended, a concurrent writer logs it again rather than before it is in the log
+        synchronized (loggedRoleIds) {
+            loggedRoleIds.set(roleId);
+        }
+    }
+
+    private static byte[] userRecord(String userName, UserSnapshot snapshot) {
+        byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+        byte[] hash = snapshot.getPasswordHash();
+        long[] roleBits = snapshot.getRoleBits();
+        int roleWords = roleBits.length;
+        while (roleWords > 0 && roleBits[roleWords - 1] == 0) {
+            roleWords--;
+        }
+        ByteBuffer payload = record(PUT_USER, 2 + name.length + 2 + hash.length + 2 + roleWords * 8);
+        putBytes(payload, name);
+        putBytes(payload, hash);
+        payload.putShort((short) roleWords);
+        for (int i = 0; i < roleWords; i++) {
+            payload.putLong(roleBits[i]);
+        }
+        return seal(payload);
+    }
+
+    private static byte[] nameRecord(byte type, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = record(type, 2 + bytes.length);
+        putBytes(payload, bytes);
+        return seal(payload);
+    }
+
+    private static byte[] inheritanceRecord(byte type, String parentName, String childName) {
+        byte[] parent = parentName.getBytes(StandardCharsets.UTF_8);
+        byte[] child = childName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = record(type, 2 + parent.length + 2 + child.length);
+        putBytes(payload, parent);
+        putBytes(payload, child);
+        return seal(payload);
+    }
+
+    private static byte[] roleIdRecord(int roleId, String roleName) {
+        byte[] bytes = roleName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = record(ROLE_ID, 4 + 2 + bytes.length);
+        payload.putInt(roleId);
+        putBytes(payload, bytes);
+        return seal(payload);
+    }
+
+    private static ByteBuffer record(byte type, int payloadLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payloadLength + CRC_LENGTH);
+        buffer.put(type);
+        buffer.putInt(payloadLength);
+        return buffer;
+    }
+
+    private static byte[] seal(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = buffer.array();
+        crc.update(bytes[0]);
+        crc.update(bytes, HEADER_LENGTH, buffer.position() - HEADER_LENGTH);
+        buffer.putInt((int) crc.getValue());
+        return bytes;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException("value too long to persist");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * apply the records of a file to StoreUtil, memory-mapped a window at a time
+     * @param tolerateTornTail true for log segments, whose last record may be cut by a crash
+     * @return length of the valid records
+     */
+    private static long replay(Path file, boolean tolerateTornTail) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            long windowStart = 0;
+            MappedByteBuffer window = null;
+            CRC32 crc = new CRC32();
+            while (position + HEADER_LENGTH <= size) {
+                if (window == null || position + HEADER_LENGTH > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                }
+                int offset = (int) (position - windowStart);
+                byte type = window.get(offset);
+                int payloadLength = window.getInt(offset + 1);
+                long end = position + HEADER_LENGTH + (long) payloadLength + CRC_LENGTH;
+                if (payloadLength < 0 || payloadLength > MAX_PAYLOAD || end > size) {
+                    break;
+                }
+                if (end > windowStart + window.limit()) {
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(Math.max(MAP_WINDOW, end - position), size - position));
+                    offset = 0;
+                }
+                ByteBuffer payload = window.duplicate();
+                payload.limit(offset + HEADER_LENGTH + payloadLength).position(offset + HEADER_LENGTH);
+                crc.reset();
+                crc.update(type);
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != window.getInt(offset + HEADER_LENGTH + payloadLength)) {
+                    break;
+                }
+                apply(type, payload);
+                position = end;
+            }
+            if (position != size && !tolerateTornTail) {
+                throw new IOException("corrupt snapshot " + file + " at offset " + position);
+            }
+            return position;
+        }
+    }
+
+    private static void apply(byte type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case PUT_USER:
+                String userName = getString(payload);
+                byte[] hash = new byte[payload.getShort() & 0xffff];
+                payload.get(hash);
+                long[] roleBits = new long[payload.getShort() & 0xffff];
+                for (int i = 0; i < roleBits.length; i++) {
+                    roleBits[i] = payload.getLong();
+                }
+                StoreUtil.restoreUser(new User(userName, hash, roleBits));
+                break;
+            case REMOVE_USER:
+                StoreUtil.restoreRemoveUser(getString(payload));
+                break;
+            case PUT_ROLE:
+                StoreUtil.restoreRole(new Role(getString(payload)), true);
+                break;
+            case REMOVE_ROLE:
+                StoreUtil.restoreRole(new Role(getString(payload)), false);
+                break;
+            case PUT_INHERITANCE:
+            case REMOVE_INHERITANCE:
+                Role parent = new Role(getString(payload));
+                StoreUtil.restoreRoleInheritance(parent, new Role(getString(payload)), type == PUT_INHERITANCE);
+                break;
+            case ROLE_ID:
+                int roleId = payload.getInt();
+                RoleRegistry.restore(roleId, getString(payload));
+                break;
+            default:
+                throw new IOException("unknown record type " + type);
+        }
+    }
+
+    private static Path snapshotPath(Path directory, long generation) {
+        return directory.resolve(String.format(SNAPSHOT_PREFIX + "%012d" + SNAPSHOT_SUFFIX, generation));
+    }
+
+    /**
+     * @return generations of the files with the prefix and suffix, in ascending order
+     */
+    private static List<Long> generations(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+}
@@ -2,30 +2,217 @@ package org.demo.authservice.utils;
 
 import org.demo.authservice.entity.Role;
 import org.demo.authservice.entity.User;
+import org.demo.authservice.metrics.MetricsRegistry;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
 
 /**
  * @author Zhi Chen
  * @date 2022/8/27
- * @description Memory store for users and roles
+ * @description Memory store for users and roles, safe for concurrent use.
+ * reads never lock, writes lock only the bin of the affected key.
+ * with persistence enabled every write is logged while its bin is locked, so the log keeps the order
+ * of the writes to each key, and returns once the log is durable.
+ * a write is visible to readers as soon as it is applied, before it is durable: returning is what
+ * acknowledges it. if the log fails to write or fsync, the writes waiting for it throw but stay applied
+ * in memory, and every later write throws without being applied until {@link #recoverPersistence()}
+ * writes the memory as a snapshot, so that the disk holds again everything readers may have seen
  */
 public class StoreUtil {
 
-    private static Map<String, User> usersStore = new HashMap<>();
+    private static final ConcurrentMap<String, User> usersStore = new ConcurrentHashMap<>();
 
-    private static Set<Role> roleStore = new HashSet<>();
+    private static final ConcurrentMap<Role, Boolean> roleStore = new ConcurrentHashMap<>();
+
+    private static final long[] NO_ROLES = new long[0];
+
+    /**
+     * users of every role, kept in step with the users' role bits by every write of a user
+     */
+    private static final RoleMembers roleMembers = new RoleMembers();
+
+    private static volatile StorePersistence persistence;
+
+    static {
+        MetricsRegistry.getDefault().gauge("user.count", () -> usersStore.size());
+        MetricsRegistry.getDefault().gauge("role.count", () -> roleStore.size());
+    }
 
     public static boolean containsUser(String userName) {
         return usersStore.containsKey(userName);
     }
 
     public static User storeUser(User user) {
-        return usersStore.put(user.getUserName(), user);
+        StorePersistence current = persistence;
+        Mutation<User> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            usersStore.compute(user.getUserName(), (name, storedUser) -> {
+                mutation.previous = storedUser;
+                roleMembers.update(name, roleBits(storedUser), user.getRoleBits());
+                if (current != null) {
+                    mutation.sequence = current.logUser(user);
+                }
+                return user;
+            });
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return mutation.previous;
+    }
+
+    /**
+     * store the user only if no user with the same name exists, as a single atomic step
+     * @param user the user to store
+     * @return true if the user was stored, false if the name is already taken
+     */
+    public static boolean storeUserIfAbsent(User user) {
+        StorePersistence current = persistence;
+        Mutation<User> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            usersStore.computeIfAbsent(user.getUserName(), name -> {
+                mutation.changed = true;
+                roleMembers.update(name, NO_ROLES, user.getRoleBits());
+                if (current != null) {
+                    mutation.sequence = current.logUser(user);
+                }
+                return user;
+            });
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return mutation.changed;
+    }
+
+    /**
+     * store a batch of users, skipping those whose name is taken. each user is stored atomically,
+     * a persisted batch is waited for once
+     * @param users the users to store
+     * @return number of users stored
+     */
+    public static int storeUsersIfAbsent(Collection<User> users) {
+        return storeNewUsers(users).size();
+    }
+
+    /**
+     * store a batch of users like {@link #storeUsersIfAbsent(Collection)}
+     * @param users the users to store
+     * @return the users stored, in the order of the batch
+     */
+    public static List<User> storeNewUsers(Collection<User> users) {
+        StorePersistence current = persistence;
+        Mutation<User> mutation = new Mutation<>();
+        List<User> stored = new ArrayList<>(users.size());
+        Lock lock = lockMutations(current);
+        try {
+            for (User user : users) {
+                mutation.changed = false;
+                usersStore.computeIfAbsent(user.getUserName(), name -> {
+                    mutation.changed = true;
+                    roleMembers.update(name, NO_ROLES, user.getRoleBits());
+                    if (current != null) {
+                        mutation.sequence = current.logUser(user);
+                    }
+                    return user;
+                });
+                if (mutation.changed) {
+                    stored.add(user);
+                }
+            }
+        } finally {
+            unlock(lock);
+        }
+        // the log is durable in order, the last record of the batch covers the others
+        awaitDurable(current, mutation);
+        return stored;
+    }
+
+    /**
+     * atomically update a stored user, other writers of the same user wait until it finishes.
+     * the roles of a stored user must only be changed by such an update, which keeps the role members in step.
+     * the updater changes a {@link User#copy()} of the stored user, the stored user takes over its state only
+     * once the change is logged, so a failed write leaves the user as it was
+     * @param userName the name of the user to update
+     * @param updater receives the name and a copy of the stored user, returns the copy or another user to keep,
+     * or null to remove the user
+     * @return the user kept after the update, null if the user does not exist
+     */
+    public static User computeUserIfPresent(String userName, BiFunction<String, User, User> updater) {
+        StorePersistence current = persistence;
+        Mutation<User> mutation = new Mutation<>();
+        User kept;
+        Lock lock = lockMutations(current);
+        try {
+            kept = usersStore.computeIfPresent(userName, (name, storedUser) -> {
+                User draft = storedUser.copy();
+                User updated = updater.apply(name, draft);
+                if (current != null) {
+                    mutation.sequence = updated == null ? current.logRemoveUser(name) : current.logUser(updated);
+                }
+                roleMembers.update(name, storedUser.getRoleBits(), roleBits(updated));
+                if (updated != draft) {
+                    return updated;
+                }
+                // the same instance stays stored, sessions and tokens keep referring to it
+                storedUser.setSnapshot(draft.getSnapshot());
+                return storedUser;
+            });
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return kept;
+    }
+
+    /**
+     * grant roles to a stored user without leaving it a role removed meanwhile. removeRole marks a role
+     * removed before it sweeps the role's members, so a grant that completed while the role still existed
+     * is swept by it, and a grant that finds the role removed once it completed takes the role back itself
+     * @param userName the name of the user
+     * @param roleIds interned ids of the roles to grant
+     * @return the user after the grant, null if the user does not exist
+     */
+    public static User grantRoles(String userName, int[] roleIds) {
+        User granted = computeUserIfPresent(userName, (name, storedUser) -> {
+            storedUser.addRoles(roleIds);
+            return storedUser;
+        });
+        if (granted == null) {
+            return null;
+        }
+        int[] removed = new int[roleIds.length];
+        int count = 0;
+        for (int roleId : roleIds) {
+            Role role = RoleRegistry.getRole(roleId);
+            if (role == null || !roleStore.containsKey(role)) {
+                removed[count++] = roleId;
+            }
+        }
+        if (count == 0) {
+            return granted;
+        }
+        int removedCount = count;
+        return computeUserIfPresent(userName, (name, storedUser) -> {
+            for (int i = 0; i < removedCount; i++) {
+                storedUser.removeRole(removed[i]);
+            }
+            return storedUser;
+        });
     }
 
     public static User getUser(String userName) {
@@ -33,20 +220,305 @@ public class StoreUtil {
     }
 
     public static boolean removeUser(User user) {
-       usersStore.remove(user.getUserName());
-       return true;
+        StorePersistence current = persistence;
+        Mutation<User> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            usersStore.computeIfPresent(user.getUserName(), (name, storedUser) -> {
+                mutation.changed = true;
+                roleMembers.update(name, storedUser.getRoleBits(), NO_ROLES);
+                if (current != null) {
+                    mutation.sequence = current.logRemoveUser(name);
+                }
+                return null;
+            });
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return mutation.changed;
+    }
+
+    /**
+     * stream the users having the role, read from the role's members without copying the user table.
+     * weakly consistent, users whose roles change meanwhile may or may not be included
+     * @param roleId interned id of the role
+     * @return the users having the role
+     */
+    public static Stream<User> usersInRole(int roleId) {
+        if (roleId < 0) {
+            return Stream.empty();
+        }
+        return roleMembers.get(roleId).stream()
+                .map(usersStore::get)
+                .filter(user -> user != null && user.hasRole(roleId));
+    }
+
+    /**
+     * page through all users, see {@link Cursor}
+     */
+    public static Cursor<User> scanUsers() {
+        return Cursor.of(usersStore.values().iterator());
+    }
+
+    /**
+     * page through the users of a role, see {@link Cursor}
+     * @param roleId interned id of the role
+     */
+    public static Cursor<User> scanUsers(int roleId) {
+        return Cursor.of(usersInRole(roleId).iterator());
+    }
+
+    /**
+     * page through all roles, see {@link Cursor}
+     */
+    public static Cursor<Role> scanRoles() {
+        return Cursor.of(roleStore.keySet().iterator());
     }
 
     public static boolean storeRole(Role role) {
-        return roleStore.add(role);
+        RoleRegistry.register(role.getRoleName());
+        StorePersistence current = persistence;
+        Mutation<Role> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            roleStore.computeIfAbsent(role, key -> {
+                mutation.changed = true;
+                if (current != null) {
+                    mutation.sequence = current.logRole(key);
+                }
+                return Boolean.TRUE;
+            });
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return mutation.changed;
     }
 
+    /**
+     * remove the role and take it away from its members, at a cost proportional to their number
+     * @return true if the role existed
+     */
     public static boolean removeRole(Role role) {
-        return roleStore.remove(role);
+        StorePersistence current = persistence;
+        Mutation<Role> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            roleStore.computeIfPresent(role, (key, present) -> {
+                mutation.changed = true;
+                if (current != null) {
+                    mutation.sequence = current.logRemoveRole(key);
+                }
+                return null;
+            });
+            if (mutation.changed) {
+                RoleHierarchy.removeRole(role.getId());
+            }
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        if (!mutation.changed) {
+            return false;
+        }
+        int roleId = role.getId();
+        for (String userName : roleMembers.get(roleId)) {
+            computeUserIfPresent(userName, (name, storedUser) -> {
+                storedUser.removeRole(roleId);
+                return storedUser;
+            });
+        }
+        return true;
     }
 
     public static boolean existRole(Role role) {
-        return roleStore.contains(role);
+        return roleStore.containsKey(role);
+    }
+
+    /**
+     * make every holder of the parent role inherit the child role, see {@link RoleHierarchy}
+     * @return false if the parent already inherited the child directly
+     * @throws RuntimeException if a role does not exist or the child inherits the parent
+     */
+    public static boolean addRoleInheritance(Role parent, Role child) {
+        StorePersistence current = persistence;
+        Mutation<Role> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            // a role removed concurrently drops its inheritances after this
+            synchronized (RoleHierarchy.class) {
+                if (!existRole(parent) || !existRole(child)) {
+                    throw new RuntimeException("role does not exist");
+                }
+                mutation.changed = RoleHierarchy.addInheritance(parent.getId(), child.getId());
+                if (mutation.changed && current != null) {
+                    mutation.sequence = current.logInheritance(parent, child, true);
+                }
+            }
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return mutation.changed;
+    }
+
+    /**
+     * stop the parent role from inheriting the child role directly
+     * @return false if it did not
+     */
+    public static boolean removeRoleInheritance(Role parent, Role child) {
+        if (parent.getId() < 0 || child.getId() < 0) {
+            return false;
+        }
+        StorePersistence current = persistence;
+        Mutation<Role> mutation = new Mutation<>();
+        Lock lock = lockMutations(current);
+        try {
+            synchronized (RoleHierarchy.class) {
+                mutation.changed = RoleHierarchy.removeInheritance(parent.getId(), child.getId());
+                if (mutation.changed && current != null) {
+                    mutation.sequence = current.logInheritance(parent, child, false);
+                }
+            }
+        } finally {
+            unlock(lock);
+        }
+        awaitDurable(current, mutation);
+        return mutation.changed;
+    }
+
+    /**
+     * restore the users and roles kept in the directory and log every later write to it,
+     * see {@link StorePersistence}. it must be enabled before any role is created, so that the persisted
+     * role ids are still free
+     * @param directory a directory on local disk, created if missing
+     */
+    public static synchronized void enablePersistence(Path directory) throws IOException {
+        if (persistence != null) {
+            throw new IllegalStateException("persistence is already enabled");
+        }
+        persistence = StorePersistence.open(directory);
     }
 
+    /**
+     * resume persisting writes after the log failed, see {@link StorePersistence#recover()}
+     */
+    public static synchronized void recoverPersistence() throws IOException {
+        StorePersistence current = persistence;
+        if (current == null) {
+            throw new IllegalStateException("persistence is not enabled");
+        }
+        current.recover();
+    }
+
+    /**
+     * stop logging writes, the users and roles stay in memory
+     */
+    public static synchronized void disablePersistence() throws IOException {
+        StorePersistence current = persistence;
+        if (current != null) {
+            persistence = null;
+            current.close();
+        }
+    }
+
+    /**
+     * @return the enabled persistence, null if writes are not persisted
+     */
+    public static StorePersistence getPersistence() {
+        return persistence;
+    }
+
+    /**
+     * remove all users and roles from memory, the persisted state is not touched
+     */
+    public static void clear() {
+        usersStore.clear();
+        roleStore.clear();
+        roleMembers.clear();
+        RoleHierarchy.clear();
+    }
+
+    static Collection<User> users() {
+        return Collections.unmodifiableCollection(usersStore.values());
+    }
+
+    static Set<Role> roles() {
+        return Collections.unmodifiableSet(roleStore.keySet());
+    }
+
+    static void restoreUser(User user) {
+        User previous = usersStore.put(user.getUserName(), user);
+        roleMembers.update(user.getUserName(), roleBits(previous), user.getRoleBits());
+    }
+
+    static void restoreRemoveUser(String userName) {
+        User previous = usersStore.remove(userName);
+        roleMembers.update(userName, roleBits(previous), NO_ROLES);
+    }
+
+    private static long[] roleBits(User user) {
+        return user == null ? NO_ROLES : user.getRoleBits();
+    }
+
+    /**
+     * keep the log from rolling while a write is logged and applied
+     * @return the taken lock, null if writes are not persisted
+     */
+    private static Lock lockMutations(StorePersistence current) {
+        if (current == null) {
+            return null;
+        }
+        Lock lock = current.mutationLock();
+        lock.lock();
+        return lock;
+    }
+
+    private static void unlock(Lock lock) {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    private static void awaitDurable(StorePersistence current, Mutation<?> mutation) {
+        if (current != null && mutation.sequence >= 0) {
+            current.awaitDurable(mutation.sequence);
+        }
+    }
+
+    static void restoreRole(Role role, boolean present) {
+        if (present) {
+            roleStore.put(role, Boolean.TRUE);
+        } else if (roleStore.remove(role) != null) {
+            RoleHierarchy.removeRole(role.getId());
+        }
+    }
+
+    /**
+     * replay an inheritance, one that would form a cycle is skipped: it was removed later in the log
+     */
+    static void restoreRoleInheritance(Role parent, Role child, boolean present) {
+        if (parent.getId() < 0 || child.getId() < 0) {
+            return;
+        }
+        if (!present) {
+            RoleHierarchy.removeInheritance(parent.getId(), child.getId());
+            return;
+        }
+        try {
+            RoleHierarchy.addInheritance(parent.getId(), child.getId());
+        } catch (RuntimeException e) {
+            // superseded by a later record
+        }
+    }
+
+    /**
+     * carries what a write did out of the compute function that logged it
+     */
+    private static final class Mutation<T> {
+        T previous;
+        boolean changed;
+        long sequence = -1;
+    }
 }
@@ -0,0 +1,167 @@
+package org.demo.authservice.utils;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description hashed timing wheel that expires entries close to their deadline.
+ * scheduling and cancelling are O(1), every tick only visits the entries of one bucket.
+ * deadlines are read again when a bucket fires, so an entry whose deadline moved later
+ * (a touched session) is simply moved to the bucket of its new deadline at that time
+ * instead of being re-linked on every touch
+ */
+public class TimingWheel<E extends TimingWheel.Entry> {
+
+    /**
+     * intrusive list node, the scheduled object extends it so that scheduling allocates nothing
+     */
+    public abstract static class Entry {
+        Entry prev;
+        Entry next;
+        volatile Bucket bucket;
+    }
+
+    /**
+     * tells the wheel when an entry is due and what to do once it is
+     */
+    public interface Expiry<E> {
+        /**
+         * @return the current deadline of the entry, negative to drop the entry without expiring it
+         */
+        long deadline(E entry);
+
+        void expire(E entry);
+    }
+
+    private static final class Bucket {
+        private Entry head;
+    }
+
+    private final long tickMillis;
+    private final int mask;
+    private final Bucket[] buckets;
+    private final Expiry<E> expiry;
+    private volatile long lastTick;
+
+    /**
+     * @param tickMillis the resolution of the wheel, entries expire at most one tick late
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param expiry the deadline source and expiring action of entries
+     */
+    public TimingWheel(long tickMillis, int wheelSize, Expiry<E> expiry) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.expiry = expiry;
+        this.lastTick = System.currentTimeMillis() / tickMillis - 1;
+    }
+
+    /**
+     * put the entry into the bucket of its deadline, an entry already due fires on the next tick
+     */
+    public void schedule(E entry, long deadline) {
+        while (true) {
+            long tick = Math.max(deadline / tickMillis, lastTick + 1);
+            Bucket bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                // the bucket may have fired since the tick was computed, it would not fire again for a whole round
+                if (tick > lastTick) {
+                    entry.bucket = bucket;
+                    entry.prev = null;
+                    entry.next = bucket.head;
+                    if (bucket.head != null) {
+                        bucket.head.prev = entry;
+                    }
+                    bucket.head = entry;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * remove the entry from the wheel, nothing happens if it is not scheduled
+     */
+    public void cancel(E entry) {
+        while (true) {
+            Bucket bucket = entry.bucket;
+            if (bucket == null) {
+                return;
+            }
+            synchronized (bucket) {
+                // the entry may have moved to another bucket before the lock was taken
+                if (entry.bucket == bucket) {
+                    unlink(bucket, entry);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * fire every bucket whose tick has passed, expiring the due entries and moving the others
+     * @param now current time in milliseconds
+     * @return number of expired entries
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized int advance(long now) {
+        long nowTick = now / tickMillis;
+        // after a long pause every bucket is due, there is no point in visiting one twice
+        long from = Math.max(lastTick + 1, nowTick - mask);
+        int expired = 0;
+        for (long tick = from; tick <= nowTick; tick++) {
+            lastTick = tick;
+            Entry entry = detach(buckets[(int) (tick & mask)]);
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = null;
+                long deadline = expiry.deadline((E) entry);
+                if (deadline >= 0) {
+                    if (deadline <= now) {
+                        expiry.expire((E) entry);
+                        expired++;
+                    } else {
+                        schedule((E) entry, deadline);
+                    }
+                }
+                entry = next;
+            }
+        }
+        return expired;
+    }
+
+    private static Entry detach(Bucket bucket) {
+        synchronized (bucket) {
+            Entry head = bucket.head;
+            bucket.head = null;
+            for (Entry entry = head; entry != null; entry = entry.next) {
+                entry.bucket = null;
+                entry.prev = null;
+            }
+            return head;
+        }
+    }
+
+    private static void unlink(Bucket bucket, Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            bucket.head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = null;
+    }
+}
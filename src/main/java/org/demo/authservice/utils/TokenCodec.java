@@ -0,0 +1,88 @@
+package org.demo.authservice.utils;
+
+import java.util.Arrays;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description wire form of 128-bit session tokens: 22 url-safe base64 characters without padding.
+ * the token is held as two longs everywhere else, decoding allocates nothing
+ */
+public class TokenCodec {
+
+    public static final int TOKEN_LENGTH = 22;
+
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * @param high the first 64 bits of the token
+     * @param low the last 64 bits of the token
+     * @return the wire form of the token
+     */
+    public static String encode(long high, long low) {
+        char[] chars = new char[TOKEN_LENGTH];
+        for (int i = 0; i < 10; i++) {
+            chars[i] = ALPHABET[(int) (high >>> (58 - 6 * i)) & 63];
+        }
+        chars[10] = ALPHABET[(int) ((high & 0xf) << 2 | low >>> 62)];
+        for (int i = 0; i < 10; i++) {
+            chars[11 + i] = ALPHABET[(int) (low >>> (56 - 6 * i)) & 63];
+        }
+        chars[21] = ALPHABET[(int) (low & 3) << 4];
+        return new String(chars);
+    }
+
+    /**
+     * @return true if the string is the canonical wire form of a token
+     */
+    public static boolean isValid(String token) {
+        if (token == null || token.length() != TOKEN_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            if (value(token.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        // the last character only carries 2 bits, the others must be zero
+        return (value(token.charAt(TOKEN_LENGTH - 1)) & 0xf) == 0;
+    }
+
+    /**
+     * @param token a token that passed {@link #isValid(String)}
+     * @return the first 64 bits of the token
+     */
+    public static long decodeHigh(String token) {
+        long high = 0;
+        for (int i = 0; i < 10; i++) {
+            high = high << 6 | value(token.charAt(i));
+        }
+        return high << 4 | value(token.charAt(10)) >>> 2;
+    }
+
+    /**
+     * @param token a token that passed {@link #isValid(String)}
+     * @return the last 64 bits of the token
+     */
+    public static long decodeLow(String token) {
+        long low = value(token.charAt(10)) & 3;
+        for (int i = 11; i < 21; i++) {
+            low = low << 6 | value(token.charAt(i));
+        }
+        return low << 2 | value(token.charAt(21)) >>> 4;
+    }
+
+    private static int value(char c) {
+        return c < 128 ? VALUES[c] : -1;
+    }
+}
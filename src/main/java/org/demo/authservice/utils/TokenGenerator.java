@@ -0,0 +1,116 @@
+package org.demo.authservice.utils;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description random 128-bit session tokens without a shared generator. UUID.randomUUID draws from one
+ * SecureRandom for the whole JVM, which serializes concurrent logins; here every thread has its own
+ * generator and takes the bytes of several tokens from it at once.
+ * <p>
+ * security properties:
+ * <ul>
+ * <li>every bit of a token is drawn from a cryptographically strong generator, 128 bits per token
+ * against 122 for a random UUID, so a token can't be guessed nor derived from other tokens</li>
+ * <li>each thread's generator is a DRBG, or SHA1PRNG before Java 9, seeded with 256 bits from the
+ * operating system's generator, and gets another 256 bits mixed in every {@link #RESEED_BYTES} bytes.
+ * threads never share state, so one thread's tokens tell nothing about another's</li>
+ * <li>at most {@link #BUFFER_BYTES} bytes of future tokens wait in a thread's buffer, bytes are zeroed
+ * once handed out, so the generator's buffer holds at most that many upcoming tokens and none already
+ * issued. issued tokens still live in their sessions, the session file only keeps their digests</li>
+ * </ul>
+ */
+public final class TokenGenerator {
+    /**
+     * random bytes drawn at once, the bytes of 16 tokens
+     */
+    public static final int BUFFER_BYTES = 256;
+
+    /**
+     * bytes a generator produces before fresh entropy is mixed into it
+     */
+    public static final long RESEED_BYTES = 1L << 20;
+
+    private static final int SEED_BYTES = 32;
+
+    private static final String[] ALGORITHMS = {"DRBG", "SHA1PRNG"};
+
+    /**
+     * the operating system's generator, used only to seed the per-thread generators
+     */
+    private static final SecureRandom seedSource = new SecureRandom();
+
+    private static final ThreadLocal<TokenGenerator> generators = ThreadLocal.withInitial(TokenGenerator::new);
+
+    private final SecureRandom random;
+    private final byte[] bytes = new byte[BUFFER_BYTES];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private long untilReseed = RESEED_BYTES;
+
+    private TokenGenerator() {
+        this.random = newGenerator();
+        random.setSeed(seed());
+        // empty, the first token fills it
+        buffer.position(BUFFER_BYTES);
+    }
+
+    /**
+     * @return the generator of the calling thread, not to be handed to other threads
+     */
+    public static TokenGenerator current() {
+        return generators.get();
+    }
+
+    /**
+     * @return a new session token in its wire form, see {@link TokenCodec}
+     */
+    public static String nextToken() {
+        TokenGenerator generator = current();
+        return TokenCodec.encode(generator.nextLong(), generator.nextLong());
+    }
+
+    /**
+     * @return 64 random bits
+     */
+    public long nextLong() {
+        if (buffer.remaining() < 8) {
+            refill();
+        }
+        int position = buffer.position();
+        long value = buffer.getLong();
+        for (int i = position; i < position + 8; i++) {
+            bytes[i] = 0;
+        }
+        return value;
+    }
+
+    private void refill() {
+        if (untilReseed <= 0) {
+            random.setSeed(seed());
+            untilReseed = RESEED_BYTES;
+        }
+        random.nextBytes(bytes);
+        untilReseed -= BUFFER_BYTES;
+        buffer.clear();
+    }
+
+    private static byte[] seed() {
+        byte[] seed = new byte[SEED_BYTES];
+        seedSource.nextBytes(seed);
+        return seed;
+    }
+
+    private static SecureRandom newGenerator() {
+        for (String algorithm : ALGORITHMS) {
+            try {
+                return SecureRandom.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                // try the next one
+            }
+        }
+        return new SecureRandom();
+    }
+}
@@ -1,11 +1,20 @@
 package org.demo.authservice.utils;
 
+import org.demo.authservice.entity.Role;
 import org.demo.authservice.entity.Session;
 import org.demo.authservice.entity.User;
+import org.demo.authservice.metrics.Counter;
+import org.demo.authservice.metrics.LatencyHistogram;
+import org.demo.authservice.metrics.MetricsRegistry;
 
-import java.util.Map;
-import java.util.UUID;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author Zhi Chen
@@ -14,38 +23,441 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class TokenUtil {
 
-    private static long expiredTime = 2 * 60 * 60 * 1000;
+    /**
+     * kind of token issued by generateToken, tokens of both kinds are accepted whatever the mode is
+     */
+    public enum TokenMode {
+        /**
+         * random token of a session kept in this JVM, expiry slides on use
+         */
+        SESSION,
+        /**
+         * self-contained token signed by {@link SignedTokenUtil}, validated without any session lookup.
+         * it carries the roles of the user at issuing time and expires at a fixed time
+         */
+        SIGNED
+    }
+
+    /**
+     * expired revocations are pruned at most this often
+     */
+    private static final long REVOCATION_PRUNE_MILLIS = 60 * 1000;
+
+    /**
+     * resolution of session expiry, sessions are evicted at most one tick after their deadline
+     */
+    public static final long EXPIRY_TICK_MILLIS = 1000;
+
+    private static volatile long expiredTime = 2 * 60 * 60 * 1000;
+
+    private static volatile TokenMode tokenMode = TokenMode.SESSION;
+
+    /**
+     * a session touched more recently than this is not touched again, so that threads sharing a token
+     * don't keep writing its time. sessions may expire this much earlier than their exact deadline
+     */
+    private static volatile long touchGranularity = 1000;
+
+    /**
+     * sessions compared to pick the least recently touched one when the total cap is hit
+     */
+    private static final int EVICTION_SAMPLES = 8;
+
+    /**
+     * cap on all sessions, 0 for no cap. when it is hit the least recently touched of a few sampled
+     * sessions is evicted for each new one, so the number of sessions may overshoot by the number of
+     * threads creating sessions at the same time
+     */
+    private static volatile int maxSessions;
+
+    /**
+     * cap on the sessions of one user, 0 for no cap. the user's least recently touched session is evicted.
+     * off by default like the total cap, touches only keep the per-user order while a cap is set
+     */
+    private static volatile int maxSessionsPerUser;
+
+    private static final RevocationFilter revocations = new RevocationFilter();
+
+    /**
+     * tokens of the last sessions that expired, about 16k of them in 128KB, see {@link #hasExpired(String)}
+     */
+    private static final ExpiredTokenFilter recentlyExpired = new ExpiredTokenFilter(1 << 14);
+
+    private static volatile long nextRevocationPrune;
+
+    private static final SessionTable tokenMap = new SessionTable();
+
+    private static final SessionIndex sessionsByUser = new SessionIndex();
+
+    /**
+     * signed tokens can't be enumerated, those of a user issued up to the cutoff were issued before
+     * {@link #invalidateAllTokens(String)} and are rejected. a token signed later is stamped after the cutoff
+     * even within the same millisecond. a cutoff is dropped once every token issued before it expired
+     */
+    private static final ConcurrentMap<String, Long> signedCutoffs = new ConcurrentHashMap<>();
+
+    /**
+     * longest expiring time ever set, how long a cutoff is kept
+     */
+    private static volatile long longestExpiredTime = expiredTime;
+
+    /**
+     * mirror of the sessions on disk, null unless enabled by {@link #enableSessionFile(Path, int)}
+     */
+    private static volatile SessionFile sessionFile;
+
+    /**
+     * sessions restored from the session file, which holds digests of the tokens only. they are stored
+     * under the digest of their token until the token is first presented, then moved to the token table
+     */
+    private static final SessionTable restoredSessions = new SessionTable();
+
+    /**
+     * the session file that digests the tokens of the restored sessions, kept after it is closed
+     */
+    private static volatile SessionFile restoredFrom;
+
+    /**
+     * false once no restored session is left, so that unknown tokens are not digested for nothing
+     */
+    private static volatile boolean hasRestored;
+
+    /**
+     * store of session tokens, null to keep them in the tables of this class
+     */
+    private static volatile SessionStore sessionStore;
+
+    private static final Counter expiredSessions = MetricsRegistry.getDefault().counter("session.expired");
+    private static final Counter invalidatedTokens = MetricsRegistry.getDefault().counter("token.invalidated");
+    private static final Counter capEvictions = MetricsRegistry.getDefault().counter("session.evicted.total_cap");
+    private static final Counter userCapEvictions = MetricsRegistry.getDefault().counter("session.evicted.user_cap");
+    private static final LatencyHistogram sweepLatency = MetricsRegistry.getDefault().histogram("session.sweep.latency");
+
+    static {
+        MetricsRegistry.getDefault().gauge("session.live", () -> tokenMap.size());
+    }
+
+    /**
+     * 8192 one-second buckets cover the default 2 hours expiry in a single round
+     */
+    private static final TimingWheel<Session> expiryWheel = new TimingWheel<>(EXPIRY_TICK_MILLIS, 8192,
+            new TimingWheel.Expiry<Session>() {
+                @Override
+                public long deadline(Session session) {
+                    // invalidated sessions are dropped, touched sessions report their later deadline
+                    if (!isLive(session)) {
+                        return -1;
+                    }
+                    return session.getTime() + expiredTime;
+                }
 
-    private static final Map<String, User> tokenUserMap = new ConcurrentHashMap<>();
-    private static final Map<String, Long> tokenTimeMap = new ConcurrentHashMap<>();
-    private static final Map<String, Session> tokenMap = new ConcurrentHashMap<>();
+                @Override
+                public void expire(Session session) {
+                    if (removeLive(session)) {
+                        recentlyExpired.add(session.getTokenHigh(), session.getTokenLow());
+                        releaseSlot(session);
+                        sessionsByUser.remove(session);
+                        expiredSessions.increment();
+                    }
+                }
+            });
 
-    public static void setExpiredTime(long expiredTime) {
+    public static synchronized void setExpiredTime(long expiredTime) {
         TokenUtil.expiredTime = expiredTime;
+        longestExpiredTime = Math.max(longestExpiredTime, expiredTime);
+    }
+
+    /**
+     * @param touchGranularity minimum milliseconds between two updates of a session's time, 0 to update on every use
+     */
+    public static void setTouchGranularity(long touchGranularity) {
+        TokenUtil.touchGranularity = touchGranularity;
+    }
+
+    /**
+     * @param maxSessions cap on all sessions, 0 for no cap
+     */
+    public static void setMaxSessions(int maxSessions) {
+        TokenUtil.maxSessions = maxSessions;
+    }
+
+    /**
+     * @param maxSessionsPerUser cap on the sessions of one user, 0 for no cap
+     */
+    public static void setMaxSessionsPerUser(int maxSessionsPerUser) {
+        TokenUtil.maxSessionsPerUser = maxSessionsPerUser;
+    }
+
+    public static SessionStore getSessionStore() {
+        return sessionStore;
+    }
+
+    /**
+     * keep session tokens in the store instead of this JVM, e.g. to share them between nodes.
+     * session caps and the session file only apply to sessions kept in this JVM
+     * @param sessionStore the store, null to go back to the sessions of this JVM
+     */
+    public static void setSessionStore(SessionStore sessionStore) {
+        TokenUtil.sessionStore = sessionStore;
+    }
+
+    public static TokenMode getTokenMode() {
+        return tokenMode;
+    }
+
+    public static void setTokenMode(TokenMode tokenMode) {
+        TokenUtil.tokenMode = tokenMode;
     }
 
     /**
      * generate user's token and store associated information in session
      * @param user the user to authenticate
-     * @return token of user
+     * @return token of user, null if the user was deleted meanwhile
      */
     public static String generateToken(User user) {
-        long currentTime = System.currentTimeMillis();
-        String token = generateUUID() + currentTime;
-        Session session = new Session(user,  currentTime);
-        tokenMap.put(token, session);
-        return token;
+        long currentTime = ClockUtil.currentTimeMillis();
+        if (tokenMode == TokenMode.SIGNED) {
+            return sign(user, currentTime);
+        }
+        SessionStore store = sessionStore;
+        if (store != null) {
+            String token = store.generateToken(user, currentTime);
+            if (StoreUtil.getUser(user.getUserName()) != user) {
+                // deleted meanwhile, its invalidateAllTokens may have run before the session was stored
+                store.invalidateToken(token);
+                return null;
+            }
+            return token;
+        }
+        int cap = maxSessions;
+        if (cap > 0 && tokenMap.size() >= cap) {
+            evictSampled();
+        }
+        TokenGenerator generator = TokenGenerator.current();
+        Session session = newSession(generator, user, currentTime);
+        // linked before it is published, so that invalidateAllTokens finds every session that can be used
+        int userCap = maxSessionsPerUser;
+        Session evicted = sessionsByUser.add(session, userCap);
+        while (!tokenMap.putIfAbsent(session)) {
+            // the token is taken, draw another
+            sessionsByUser.remove(session);
+            releaseSlot(session);
+            session = newSession(generator, user, currentTime);
+            sessionsByUser.add(session);
+        }
+        if (evicted != null && evict(evicted)) {
+            userCapEvictions.increment();
+        }
+        if (StoreUtil.getUser(user.getUserName()) != user) {
+            // deleted meanwhile, its invalidateAllTokens may have run before the session was published
+            if (tokenMap.remove(session)) {
+                sessionsByUser.remove(session);
+                releaseSlot(session);
+            }
+            return null;
+        }
+        expiryWheel.schedule(session, currentTime + expiredTime);
+        return session.getToken();
     }
 
     /**
-     * remove expired token
+     * @return a new session with a random token, written to the session file if there is room.
+     * its slot is set before the session is published, so that whoever removes it frees the slot
+     */
+    private static Session newSession(TokenGenerator generator, User user, long currentTime) {
+        Session session = new Session(generator.nextLong(), generator.nextLong(), user, currentTime);
+        SessionFile file = sessionFile;
+        if (file != null) {
+            session.setSlot(file.allocate(session.getTokenHigh(), session.getTokenLow(),
+                    user.getUserName().getBytes(StandardCharsets.UTF_8), currentTime));
+        }
+        return session;
+    }
+
+    /**
+     * keep sessions in a session file whose token digests are plain SHA-256,
+     * see {@link #enableSessionFile(Path, int, byte[])}
+     */
+    public static int enableSessionFile(Path file, int capacity) throws IOException {
+        return enableSessionFile(file, capacity, null);
+    }
+
+    /**
+     * keep sessions in a memory-mapped file as well, and serve the unexpired sessions already in it.
+     * a restarted process reopens the file and its clients keep their tokens without logging in again.
+     * the file holds digests of the tokens only, see {@link SessionFile}.
+     * meant to be called at startup, after the users are restored
+     * @param file path of the session file, created if missing
+     * @param capacity number of sessions the file holds, further sessions are kept in memory only
+     * @param key secret of the token digests, the same on every restart, null for a plain SHA-256
+     * @return number of sessions restored from the file
+     */
+    public static synchronized int enableSessionFile(Path file, int capacity, byte[] key) throws IOException {
+        if (sessionFile != null) {
+            throw new IllegalStateException("session file is already enabled");
+        }
+        SessionFile opened = new SessionFile(file, capacity, key);
+        long now = ClockUtil.currentTimeMillis();
+        int restored = opened.load((slot, digestHigh, digestLow, time, userName) -> {
+            User user = StoreUtil.getUser(userName);
+            if (user == null || now - time >= expiredTime) {
+                return false;
+            }
+            Session session = new Session(digestHigh, digestLow, user, time);
+            session.setSlot(slot);
+            if (!restoredSessions.putIfAbsent(session)) {
+                return false;
+            }
+            sessionsByUser.add(session);
+            expiryWheel.schedule(session, time + expiredTime);
+            return true;
+        });
+        if (restored > 0) {
+            restoredFrom = opened;
+            hasRestored = true;
+        }
+        sessionFile = opened;
+        return restored;
+    }
+
+    /**
+     * stop mirroring sessions to the file and close it, the sessions stay valid in memory
+     */
+    public static synchronized void disableSessionFile() throws IOException {
+        SessionFile file = sessionFile;
+        if (file == null) {
+            return;
+        }
+        sessionFile = null;
+        tokenMap.removeIf(session -> {
+            session.setSlot(-1);
+            return false;
+        });
+        restoredSessions.removeIf(session -> {
+            session.setSlot(-1);
+            return false;
+        });
+        file.close();
+    }
+
+    /**
+     * drop every session from memory, sessions in a closed session file are kept
+     */
+    static void clearSessions() {
+        tokenMap.removeIf(session -> {
+            expiryWheel.cancel(session);
+            releaseSlot(session);
+            return true;
+        });
+        restoredSessions.removeIf(session -> {
+            expiryWheel.cancel(session);
+            releaseSlot(session);
+            return true;
+        });
+        restoredRemoved();
+        sessionsByUser.clear();
+    }
+
+    /**
+     * page through the live session tokens kept in this JVM, see {@link Cursor}
+     * @param role a role the session's user must have, null for any user
+     * @param minIdleMillis sessions unused for less than this long are skipped
+     * @param maxIdleMillis sessions unused for longer than this are skipped
+     */
+    public static Cursor<Session> scanSessions(Role role, long minIdleMillis, long maxIdleMillis) {
+        int roleId = role == null ? -1 : role.getId();
+        if (role != null && roleId < 0) {
+            return Cursor.of(Collections.<Session>emptyIterator());
+        }
+        long now = ClockUtil.currentTimeMillis();
+        long expiry = expiredTime;
+        return tokenMap.cursor(session -> {
+            long idle = now - session.getTime();
+            return idle < expiry && idle >= minIdleMillis && idle <= maxIdleMillis
+                    && (roleId < 0 || session.getUser().hasRole(roleId));
+        });
+    }
+
+    /**
+     * log the user out everywhere: invalidate all of the user's session tokens, at a cost proportional
+     * to their number, and reject the user's signed tokens issued so far
+     * @param userName the name of the user
+     * @return number of invalidated session tokens
+     */
+    public static int invalidateAllTokens(String userName) {
+        int invalidated = 0;
+        for (Session session : sessionsByUser.removeAll(userName)) {
+            if (removeLive(session)) {
+                expiryWheel.cancel(session);
+                releaseSlot(session);
+                invalidated++;
+            }
+        }
+        SessionStore store = sessionStore;
+        if (store != null) {
+            invalidated += store.invalidateAllTokens(userName);
+        }
+        signedCutoffs.merge(userName, ClockUtil.currentTimeMillis(), Math::max);
+        invalidatedTokens.add(invalidated);
+        return invalidated;
+    }
+
+    /**
+     * evict the sessions whose deadline passed since the last call, meant to run every EXPIRY_TICK_MILLIS
+     * @return number of evicted sessions
+     */
+    public static int expireTokens() {
+        long start = System.nanoTime();
+        long now = ClockUtil.currentTimeMillis();
+        if (now >= nextRevocationPrune) {
+            pruneRevocations(now);
+        }
+        int expired = expiryWheel.advance(now);
+        SessionStore store = sessionStore;
+        if (store != null) {
+            int storeExpired = store.expireTokens(now);
+            expiredSessions.add(storeExpired);
+            expired += storeExpired;
+        }
+        sweepLatency.recordSince(start);
+        return expired;
+    }
+
+    /**
+     * forget the revocations and cutoffs of signed tokens that expired, they are rejected as expired anyway.
+     * {@link #expireTokens()} does it every REVOCATION_PRUNE_MILLIS
+     * @param now current time in milliseconds
+     * @return number of revoked signed tokens left
+     */
+    public static int pruneRevocations(long now) {
+        nextRevocationPrune = now + REVOCATION_PRUNE_MILLIS;
+        long lifetime = longestExpiredTime;
+        signedCutoffs.values().removeIf(cutoff -> cutoff + lifetime < now);
+        return revocations.prune(now);
+    }
+
+    /**
+     * remove expired token by scanning every session
      */
     public static void removeExpiredToken() {
-         for (Map.Entry<String, Session> entry : tokenMap.entrySet()) {
-             if (System.currentTimeMillis() - entry.getValue().getTime() >= expiredTime) {
-                 tokenMap.remove(entry.getKey());
+         long start = System.nanoTime();
+         long now = ClockUtil.currentTimeMillis();
+         int expired = tokenMap.removeIf(session -> {
+             if (now - session.getTime() < expiredTime) {
+                 return false;
              }
+             expiryWheel.cancel(session);
+             recentlyExpired.add(session.getTokenHigh(), session.getTokenLow());
+             releaseSlot(session);
+             sessionsByUser.remove(session);
+             return true;
+         });
+         SessionStore store = sessionStore;
+         if (store != null) {
+             expired += store.expireTokens(now);
          }
+         expiredSessions.add(expired);
+         sweepLatency.recordSince(start);
     }
 
     /**
@@ -54,11 +466,19 @@ public class TokenUtil {
      * @return
      */
     public static boolean validateToken(String token) {
-        if (!tokenMap.containsKey(token)) {
+        if (SignedTokenUtil.isSignedToken(token)) {
+            return getSignedToken(token) != null;
+        }
+        SessionStore store = sessionStore;
+        if (store != null) {
+            return store.validateToken(token, ClockUtil.currentTimeMillis());
+        }
+        Session session = findSession(token);
+        if (session == null) {
             return false;
         }
-        if (System.currentTimeMillis() - tokenMap.get(token).getTime() >= expiredTime) {
-            tokenMap.remove(token);
+        if (ClockUtil.currentTimeMillis() - session.getTime() >= expiredTime) {
+            removeSession(session);
             return false;
         }
         return true;
@@ -69,29 +489,300 @@ public class TokenUtil {
      * @param token
      */
     public static void invalidateToken(String token) {
-            tokenMap.remove(token);
+        if (SignedTokenUtil.isSignedToken(token)) {
+            SignedToken signedToken = SignedTokenUtil.parse(token);
+            if (signedToken != null) {
+                revocations.revoke(signedToken);
+                invalidatedTokens.increment();
+            }
+            return;
+        }
+        SessionStore store = sessionStore;
+        if (store != null) {
+            if (store.invalidateToken(token)) {
+                invalidatedTokens.increment();
+            }
+            return;
+        }
+        Session session = findSession(token);
+        if (session != null && tokenMap.remove(session)) {
+            expiryWheel.cancel(session);
+            releaseSlot(session);
+            sessionsByUser.remove(session);
+            invalidatedTokens.increment();
+        }
+    }
+
+
+    /**
+     * resolve a session token to its user and update its expiring time, with a single lookup
+     * and the cached clock
+     * @param token a session token
+     * @return the user of the session, null if the token is malformed, unknown or expired
+     */
+    public static User touchToken(String token) {
+        return touchToken(token, ClockUtil.currentTimeMillis());
+    }
+
+    /**
+     * resolve a session token to its user and update its expiring time, with a single lookup
+     * @param token a session token
+     * @param now current time in milliseconds
+     * @return the user of the session, null if the token is malformed, unknown or expired
+     */
+    public static User touchToken(String token, long now) {
+        SessionStore store = sessionStore;
+        if (store != null) {
+            return store.touchToken(token, now);
+        }
+        Session session = findSession(token);
+        if (session == null) {
+            return null;
+        }
+        if (now - session.getTime() >= expiredTime) {
+            removeSession(session);
+            return null;
+        }
+        touch(session, now);
+        return session.getUser();
+    }
+
+    /**
+     * tell why a session token was rejected, without allocating. meant for the failure path only
+     * @param token a session token that did not resolve
+     * @return true if the token's session expired recently. false if the token is malformed, unknown,
+     * invalidated, kept in a {@link SessionStore}, or expired so long ago that it was forgotten
+     */
+    public static boolean hasExpired(String token) {
+        return sessionStore == null && TokenCodec.isValid(token)
+                && recentlyExpired.contains(TokenCodec.decodeHigh(token), TokenCodec.decodeLow(token));
+    }
+
+    /**
+     * verify a signed token without any session lookup
+     * @param token the signed token
+     * @return the claims of the token, null if it is malformed, forged, expired or revoked
+     */
+    public static SignedToken getSignedToken(String token) {
+        SignedToken signedToken = SignedTokenUtil.parse(token);
+        if (signedToken == null
+                || ClockUtil.currentTimeMillis() >= signedToken.getExpiresAt()
+                || isRevoked(signedToken)) {
+            return null;
+        }
+        return signedToken;
     }
 
+    /**
+     * @return true if the signed token was invalidated, alone or with all tokens of its user
+     */
+    public static boolean isRevoked(SignedToken signedToken) {
+        return revocations.isRevoked(signedToken) || isCutOff(signedToken);
+    }
 
     /**
      * return the associated user with token
      */
     public static User getUserByToken(String token) {
-        return tokenMap.get(token).getUser();
+        if (SignedTokenUtil.isSignedToken(token)) {
+            SignedToken signedToken = SignedTokenUtil.parse(token);
+            return signedToken == null ? null : StoreUtil.getUser(signedToken.getUserName());
+        }
+        SessionStore store = sessionStore;
+        if (store != null) {
+            return store.resolveToken(token, ClockUtil.currentTimeMillis());
+        }
+        Session session = findSession(token);
+        return session == null ? null : session.getUser();
     }
 
     /**
-     * update token expiring time if client uses the token recently
+     * update token expiring time if client uses the token recently,
+     * the expiry wheel picks up the later deadline when the session's bucket fires.
+     * signed tokens expire at a fixed time and are not updated
      * @param token
      */
     public static void updateTokenTime(String token) {
-        if (validateToken(token)) {
-            tokenMap.get(token).setTime(System.currentTimeMillis());
+        if (SignedTokenUtil.isSignedToken(token)) {
+            return;
+        }
+        touchToken(token);
+    }
+
+    private static boolean isCutOff(SignedToken signedToken) {
+        if (signedCutoffs.isEmpty()) {
+            return false;
+        }
+        Long cutoff = signedCutoffs.get(signedToken.getUserName());
+        return cutoff != null && signedToken.getIssuedAt() <= cutoff;
+    }
+
+    private static String sign(User user, long currentTime) {
+        long issuedAt = currentTime;
+        Long cutoff = signedCutoffs.isEmpty() ? null : signedCutoffs.get(user.getUserName());
+        if (cutoff != null && cutoff >= issuedAt) {
+            // issued after the user logged out everywhere, within the cutoff's millisecond
+            issuedAt = cutoff + 1;
+        }
+        return SignedTokenUtil.sign(user, issuedAt, currentTime + expiredTime);
+    }
+
+    /**
+     * @return the session of a session token, null if the token is malformed or has no session
+     */
+    private static Session findSession(String token) {
+        if (!TokenCodec.isValid(token)) {
+            return null;
+        }
+        long high = TokenCodec.decodeHigh(token);
+        long low = TokenCodec.decodeLow(token);
+        Session session = tokenMap.get(high, low);
+        if (session == null && hasRestored) {
+            return claimRestored(high, low);
+        }
+        return session;
+    }
+
+    /**
+     * move the restored session of the token to the token table, now that the token is known
+     * @return the session of the token, null if none was restored for it
+     */
+    private static Session claimRestored(long high, long low) {
+        SessionFile file = restoredFrom;
+        if (file == null) {
+            return null;
+        }
+        long[] digest = file.digest(high, low);
+        Session restored = restoredSessions.get(digest[0], digest[1]);
+        if (restored == null) {
+            return null;
+        }
+        Session session = new Session(high, low, restored.getUser(), restored.getTime());
+        // linked before it is published, so that invalidateAllTokens finds it once it can be used
+        sessionsByUser.add(session);
+        if (!tokenMap.putIfAbsent(session)) {
+            // claimed by a concurrent use of the same token
+            sessionsByUser.remove(session);
+            return tokenMap.get(high, low);
+        }
+        if (!restoredSessions.remove(restored)) {
+            // invalidated or expired meanwhile, its slot is already free
+            tokenMap.remove(session);
+            sessionsByUser.remove(session);
+            return null;
+        }
+        expiryWheel.cancel(restored);
+        sessionsByUser.remove(restored);
+        session.setSlot(restored.getSlot());
+        expiryWheel.schedule(session, session.getTime() + expiredTime);
+        restoredRemoved();
+        return session;
+    }
+
+    /**
+     * @return true if the session is still stored, in the token table or among the restored sessions
+     */
+    private static boolean isLive(Session session) {
+        long high = session.getTokenHigh();
+        long low = session.getTokenLow();
+        return tokenMap.get(high, low) == session || hasRestored && restoredSessions.get(high, low) == session;
+    }
+
+    /**
+     * @return true if the session was still stored, in the token table or among the restored sessions,
+     * and is now removed
+     */
+    private static boolean removeLive(Session session) {
+        if (tokenMap.remove(session)) {
+            return true;
+        }
+        if (hasRestored && restoredSessions.remove(session)) {
+            restoredRemoved();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * stop digesting unknown tokens once the last restored session is gone
+     */
+    private static synchronized void restoredRemoved() {
+        if (hasRestored && restoredSessions.size() == 0) {
+            hasRestored = false;
+            restoredFrom = null;
+        }
+    }
+
+    /**
+     * remove a session found expired on use
+     */
+    private static void removeSession(Session session) {
+        if (tokenMap.remove(session)) {
+            expiryWheel.cancel(session);
+            recentlyExpired.add(session.getTokenHigh(), session.getTokenLow());
+            releaseSlot(session);
+            sessionsByUser.remove(session);
+            expiredSessions.increment();
+        }
+    }
+
+    /**
+     * evict the least recently touched of a few randomly sampled sessions, an approximation of LRU
+     * that costs the same whatever the number of sessions
+     */
+    private static void evictSampled() {
+        Random random = ThreadLocalRandom.current();
+        Session oldest = null;
+        for (int i = 0; i < EVICTION_SAMPLES; i++) {
+            Session sampled = tokenMap.sample(random);
+            if (sampled != null && (oldest == null || sampled.getTime() < oldest.getTime())) {
+                oldest = sampled;
+            }
+        }
+        if (oldest != null && evict(oldest)) {
+            capEvictions.increment();
+        }
+    }
+
+    /**
+     * @return true if the session was still there and is now removed
+     */
+    private static boolean evict(Session session) {
+        if (!removeLive(session)) {
+            return false;
+        }
+        expiryWheel.cancel(session);
+        releaseSlot(session);
+        sessionsByUser.remove(session);
+        return true;
+    }
+
+    /**
+     * update the last touch of the session in memory and in its slot, without allocating.
+     * skipped if the session was touched within the touch granularity
+     */
+    private static void touch(Session session, long now) {
+        if (now - session.getTime() < touchGranularity) {
+            return;
+        }
+        session.setTime(now);
+        if (maxSessionsPerUser > 0) {
+            // keeps the user's sessions in LRU order for the per-user cap
+            sessionsByUser.touch(session);
+        }
+        int slot = session.getSlot();
+        SessionFile file = sessionFile;
+        if (slot >= 0 && file != null) {
+            file.touch(slot, now);
         }
     }
 
-    private static String generateUUID() {
-        return UUID.randomUUID().toString().replace("-", "");
+    private static void releaseSlot(Session session) {
+        int slot = session.getSlot();
+        SessionFile file = sessionFile;
+        if (slot >= 0 && file != null) {
+            file.free(slot);
+        }
     }
 
 }
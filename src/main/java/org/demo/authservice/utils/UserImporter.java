@@ -0,0 +1,322 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description bulk load of users and role assignments from a text file, one tab-separated record per line:
+ * <pre>
+ * role   roleName
+ * user   userName   password        [roleName,roleName...]
+ * hash   userName   hexPasswordHash [roleName,roleName...]
+ * grant  userName   roleName,roleName...
+ * </pre>
+ * blank lines and lines starting with # are ignored. the file is read in batches: a batch is hashed on a
+ * fork-join pool while the next one is read, then stored at once, so memory is bounded by two batches.
+ * roles are created as they are read, a record can use the roles of earlier lines and a grant the users
+ * of earlier lines. users whose name is taken are skipped, as are malformed lines and hashes whose first
+ * byte is not the id of a registered {@link PasswordHasher}
+ */
+public class UserImporter {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * passwords hashed by one fork-join task
+     */
+    private static final int HASHES_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private volatile Consumer<ImportProgress> progressListener;
+
+    /**
+     * importer hashing on the common pool, i.e. on all cores
+     */
+    public UserImporter() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param pool the pool hashing passwords
+     * @param batchSize number of records stored at once
+     */
+    public UserImporter(ForkJoinPool pool, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param progressListener called on the importing thread after every stored batch
+     */
+    public void setProgressListener(Consumer<ImportProgress> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * import the records of a UTF-8 file
+     * @return the counts of the whole import
+     */
+    public ImportProgress importFrom(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(reader);
+        }
+    }
+
+    /**
+     * import the records read from the reader, which is not closed
+     * @return the counts of the whole import
+     */
+    public ImportProgress importFrom(BufferedReader reader) throws IOException {
+        Run run = new Run();
+        Batch batch = new Batch();
+        Batch hashed = null;
+        ForkJoinTask<?> hashing = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            run.lines++;
+            parse(run, batch, line);
+            if (batch.size() >= batchSize) {
+                if (hashing != null) {
+                    hashing.join();
+                    install(run, hashed);
+                }
+                hashed = batch;
+                hashing = pool.submit(new HashTask(batch.users, 0, batch.users.size()));
+                batch = new Batch();
+            }
+        }
+        if (hashing != null) {
+            hashing.join();
+            install(run, hashed);
+        }
+        if (batch.size() > 0) {
+            pool.invoke(new HashTask(batch.users, 0, batch.users.size()));
+            install(run, batch);
+        }
+        return run.progress();
+    }
+
+    private void parse(Run run, Batch batch, String line) {
+        if (line.isEmpty() || line.charAt(0) == '#') {
+            return;
+        }
+        String[] fields = line.split("\t", -1);
+        switch (fields[0]) {
+            case "role":
+                if (fields.length == 2 && !fields[1].isEmpty()) {
+                    if (StoreUtil.storeRole(new Role(fields[1]))) {
+                        run.rolesCreated++;
+                    }
+                    return;
+                }
+                break;
+            case "user":
+            case "hash":
+                if ((fields.length == 3 || fields.length == 4) && !fields[1].isEmpty() && !fields[2].isEmpty()) {
+                    UserRecord record = new UserRecord(fields[1], fields.length == 4 ? fields[3] : null);
+                    if (fields[0].equals("user")) {
+                        record.password = fields[2];
+                    } else {
+                        byte[] hash = parseHex(fields[2]);
+                        // a hash no hasher can verify would lock the user out
+                        if (hash != null && hash.length > 0 && EncryptUtil.isRegisteredHasher(hash[0] & 0xff)) {
+                            record.hash = hash;
+                        }
+                    }
+                    if (record.password != null || record.hash != null) {
+                        batch.users.add(record);
+                        return;
+                    }
+                }
+                break;
+            case "grant":
+                if (fields.length == 3 && !fields[1].isEmpty()) {
+                    batch.grants.add(new String[]{fields[1], fields[2]});
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        run.rejectedLines++;
+    }
+
+    private void install(Run run, Batch batch) {
+        List<User> users = new ArrayList<>(batch.users.size());
+        for (UserRecord record : batch.users) {
+            User user = new User(record.userName, record.hash);
+            if (record.roles != null) {
+                int[] roleIds = run.resolveRoles(record.roles);
+                if (roleIds.length > 0) {
+                    user.addRoles(roleIds);
+                }
+            }
+            users.add(user);
+        }
+        int created = StoreUtil.storeUsersIfAbsent(users);
+        run.usersCreated += created;
+        run.usersSkipped += users.size() - created;
+        for (User user : users) {
+            if (user.getRoleBits().length > 0 && StoreUtil.getUser(user.getUserName()) == user) {
+                run.grantsApplied += user.getRoles().size();
+            }
+        }
+        for (String[] grant : batch.grants) {
+            int[] roleIds = run.resolveRoles(grant[1]);
+            if (roleIds.length == 0) {
+                continue;
+            }
+            User updated = StoreUtil.grantRoles(grant[0], roleIds);
+            if (updated == null) {
+                run.grantsSkipped += roleIds.length;
+            } else {
+                run.grantsApplied += roleIds.length;
+            }
+        }
+        Consumer<ImportProgress> listener = progressListener;
+        if (listener != null) {
+            listener.accept(run.progress());
+        }
+    }
+
+    /**
+     * @return the bytes of an even-length hex string, null if it is not one
+     */
+    private static byte[] parseHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * counts and role ids of one import, used by the importing thread only
+     */
+    private static final class Run {
+        private final long start = System.nanoTime();
+        private final Map<String, Integer> roleIds = new HashMap<>();
+        private long lines;
+        private long usersCreated;
+        private long usersSkipped;
+        private long rolesCreated;
+        private long grantsApplied;
+        private long grantsSkipped;
+        private long rejectedLines;
+
+        /**
+         * @param roleNames comma-separated role names
+         * @return ids of the existing roles, the others are counted as skipped grants
+         */
+        int[] resolveRoles(String roleNames) {
+            String[] names = roleNames.split(",");
+            int[] ids = new int[names.length];
+            int count = 0;
+            for (String name : names) {
+                if (name.isEmpty()) {
+                    continue;
+                }
+                Integer roleId = roleIds.get(name);
+                if (roleId == null || roleId < 0) {
+                    // roles created since the last lookup are picked up
+                    Role role = new Role(name);
+                    roleId = StoreUtil.existRole(role) ? role.getId() : -1;
+                    roleIds.put(name, roleId);
+                }
+                if (roleId >= 0) {
+                    ids[count++] = roleId;
+                } else {
+                    grantsSkipped++;
+                }
+            }
+            return count == ids.length ? ids : Arrays.copyOf(ids, count);
+        }
+
+        ImportProgress progress() {
+            return new ImportProgress(lines, usersCreated, usersSkipped, rolesCreated, grantsApplied, grantsSkipped,
+                    rejectedLines, System.nanoTime() - start);
+        }
+    }
+
+    private static final class Batch {
+        private final List<UserRecord> users = new ArrayList<>();
+        private final List<String[]> grants = new ArrayList<>();
+
+        int size() {
+            return users.size() + grants.size();
+        }
+    }
+
+    private static final class UserRecord {
+        private final String userName;
+        private final String roles;
+        private String password;
+        private byte[] hash;
+
+        UserRecord(String userName, String roles) {
+            this.userName = userName;
+            this.roles = roles;
+        }
+    }
+
+    /**
+     * hash the plain passwords of a range of records, splitting it in halves until it is small
+     */
+    private static final class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<UserRecord> records;
+        private final int from;
+        private final int to;
+
+        HashTask(List<UserRecord> records, int from, int to) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= HASHES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    UserRecord record = records.get(i);
+                    if (record.password != null) {
+                        record.hash = EncryptUtil.hashPassword(record.password);
+                        record.password = null;
+                    }
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(records, from, middle), new HashTask(records, middle, to));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.demo.authservice.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description append-only log in numbered segment files with group commit. appenders copy their
+ * record into a shared buffer and wait until it is durable, a single flusher thread writes and
+ * fsyncs everything appended while the previous fsync was running, so concurrent writers share fsyncs
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final int INITIAL_BUFFER = 1 << 16;
+
+    private final Path directory;
+    private Thread flusher;
+
+    private FileChannel channel;
+    private long generation;
+    private long segmentSize;
+
+    /**
+     * records appended and not yet taken by the flusher
+     */
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+
+    /**
+     * bytes appended and bytes made durable since the log was opened, sequence numbers of the appends
+     */
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private boolean flusherRunning;
+    private boolean closed;
+    /**
+     * the error of a failed write or fsync, every later append and wait throws it until {@link #restart()}
+     */
+    private IOException failure;
+
+    /**
+     * @param directory directory of the segment files
+     * @param generation number of the segment to append to
+     * @param position valid length of the segment, anything after it is cut off
+     */
+    public WriteAheadLog(Path directory, long generation, long position) throws IOException {
+        this.directory = directory;
+        this.generation = generation;
+        this.channel = openSegment(generation, position);
+        this.segmentSize = position;
+        startFlusher();
+    }
+
+    public static Path segmentPath(Path directory, long generation) {
+        return directory.resolve(String.format("wal-%012d.log", generation));
+    }
+
+    /**
+     * append a record, it is durable once {@link #awaitDurable(long)} returned for the sequence number
+     * @return sequence number of the record
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        if (closed) {
+            throw new IOException("write-ahead log is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (pending.remaining() < record.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + record.length));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        pending.put(record);
+        appended += record.length;
+        notifyAll();
+        return appended;
+    }
+
+    /**
+     * wait until the record of the sequence number and all records before it are on disk
+     */
+    public synchronized void awaitDurable(long sequence) throws IOException {
+        boolean interrupted = false;
+        while (durable < sequence && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durable < sequence) {
+            throw failure != null ? failure : new IOException("write-ahead log is closed");
+        }
+    }
+
+    /**
+     * make everything appended so far durable and continue in a new segment.
+     * the caller must keep appenders out until it returns
+     * @return the generation of the new segment
+     */
+    public synchronized long roll() throws IOException {
+        awaitDurable(appended);
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while rolling the write-ahead log");
+            }
+        }
+        FileChannel next = openSegment(generation + 1, 0);
+        channel.close();
+        channel = next;
+        generation++;
+        segmentSize = 0;
+        return generation;
+    }
+
+    /**
+     * continue in a new segment after a failed write, dropping the records that were not made durable.
+     * the caller must keep appenders out until it returns, and must already have made everything appended
+     * so far durable some other way, e.g. in a snapshot of the next generation
+     * @return the generation of the new segment
+     */
+    public synchronized long restart() throws IOException {
+        if (closed) {
+            throw new IOException("write-ahead log is closed");
+        }
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while restarting the write-ahead log");
+            }
+        }
+        FileChannel next = openSegment(generation + 1, 0);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // the segment already failed
+        }
+        channel = next;
+        generation++;
+        segmentSize = 0;
+        pending.clear();
+        if (spare == null) {
+            spare = ByteBuffer.allocate(INITIAL_BUFFER);
+        }
+        durable = appended;
+        failure = null;
+        if (!flusherRunning) {
+            startFlusher();
+        }
+        notifyAll();
+        return generation;
+    }
+
+    /**
+     * @return the error that stopped the log, null if it is working
+     */
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return bytes durable in the current segment
+     */
+    public synchronized long getSegmentSize() {
+        return segmentSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            // let the flusher write what is pending before it stops
+            while ((pending.position() > 0 || flushing) && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            notifyAll();
+        }
+        Thread stopped;
+        synchronized (this) {
+            stopped = flusher;
+        }
+        try {
+            stopped.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * the segment being appended to
+     */
+    synchronized FileChannel getChannel() {
+        return channel;
+    }
+
+    private void startFlusher() {
+        flusherRunning = true;
+        flusher = new Thread(this::flushLoop, "authservice-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private FileChannel openSegment(long segment, long position) throws IOException {
+        FileChannel opened = FileChannel.open(segmentPath(directory, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        opened.truncate(position);
+        opened.position(position);
+        return opened;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            FileChannel target;
+            long batchEnd;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only close stops the flusher
+                    }
+                }
+                if (pending.position() == 0) {
+                    flusherRunning = false;
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+                spare = null;
+                batchEnd = appended;
+                target = channel;
+                flushing = true;
+            }
+            IOException error = null;
+            batch.flip();
+            int length = batch.remaining();
+            try {
+                while (batch.hasRemaining()) {
+                    target.write(batch);
+                }
+                target.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            batch.clear();
+            synchronized (this) {
+                spare = batch;
+                flushing = false;
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durable = batchEnd;
+                    segmentSize += length;
+                }
+                notifyAll();
+                if (failure != null) {
+                    flusherRunning = false;
+                    return;
+                }
+            }
+        }
+    }
+}
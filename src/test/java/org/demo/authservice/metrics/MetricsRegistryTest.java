@@ -0,0 +1,93 @@
+package org.demo.authservice.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description counters, latency histograms and the snapshot of a registry
+ */
+public class MetricsRegistryTest {
+
+    @Test
+    public void testBucketsCoverValues() {
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            Assert.assertTrue(bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1));
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(500_500, snapshot.getMean(), 0.001);
+        assertWithinBucket(500_000, snapshot.getPercentile(50));
+        assertWithinBucket(990_000, snapshot.getPercentile(99));
+        assertWithinBucket(1_000_000, snapshot.getMax());
+        Assert.assertEquals(0, new LatencyHistogram().snapshot().getPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        int threads = 8;
+        int perThread = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                Counter counter = registry.counter("calls");
+                LatencyHistogram histogram = registry.histogram("latency");
+                for (int i = 0; i < perThread; i++) {
+                    counter.increment();
+                    histogram.record(i);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        registry.gauge("answer", () -> 42);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        Assert.assertEquals(threads * perThread, snapshot.getCounter("calls"));
+        Assert.assertEquals(threads * perThread, snapshot.getHistogram("latency").getCount());
+        Assert.assertEquals(42, snapshot.getGauge("answer"));
+        Assert.assertEquals(0, snapshot.getCounter("missing"));
+    }
+
+    @Test
+    public void testRecordingOverhead() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Counter counter = new Counter();
+        int rounds = 2_000_000;
+        long start = 0;
+        for (int warmup = 0; warmup < 2; warmup++) {
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                long begin = System.nanoTime();
+                counter.increment();
+                histogram.recordSince(begin);
+            }
+        }
+        double nanos = (double) (System.nanoTime() - start) / rounds;
+        System.out.println("timed and counted call overhead: " + String.format("%.1f", nanos) + " ns");
+        // generous bound for a shared test machine, the point is nanoseconds rather than microseconds
+        Assert.assertTrue(nanos < 1000);
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        Assert.assertTrue(actual + " is not close to " + expected,
+                actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,167 @@
+package org.demo.authservice.server;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.demo.authservice.utils.MemorySessionStore;
+import org.demo.authservice.utils.TokenUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description serving the user service over loopback
+ */
+public class AuthServerTest {
+
+    private UserServiceImpl userService;
+    private AuthServer server;
+    private AuthClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        userService = new UserServiceImpl();
+        userService.createUser("server1", "123456");
+        userService.createRole("serverAdmin");
+        userService.addRoleToUser(new User("server1"), new Role("serverAdmin"));
+        server = new AuthServer(userService, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = new AuthClient(server.getAddress());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        userService.deleteUser(new User("server1"));
+        userService.deleteRole(new Role("serverAdmin"));
+        userService.destroy();
+    }
+
+    @Test
+    public void testRequests() throws IOException {
+        String token = client.authenticateUser("server1", "123456");
+        Assert.assertTrue(client.checkRole(token, "serverAdmin"));
+        Assert.assertFalse(client.checkRole(token, "serverGuest"));
+        Assert.assertEquals(Collections.singletonList("serverAdmin"), client.allRoles(token));
+        client.invalidateToken(token);
+        try {
+            client.checkRole(token, "serverAdmin");
+            Assert.fail("invalidated token accepted");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("token is not valid", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRequestsWithSessionStore() throws IOException {
+        // checks then run on the service's pool, as they may look tokens up on other nodes
+        TokenUtil.setSessionStore(new MemorySessionStore());
+        try {
+            testRequests();
+        } finally {
+            TokenUtil.setSessionStore(null);
+        }
+    }
+
+    @Test
+    public void testFailedAuthentication() throws IOException {
+        try {
+            client.authenticateUser("server1", "654321");
+            Assert.fail("wrong password accepted");
+        } catch (RuntimeException e) {
+            Assert.assertEquals("password is not right", e.getMessage());
+        }
+        // the connection keeps serving after a failure
+        Assert.assertNotNull(client.authenticateUser("server1", "123456"));
+    }
+
+    @Test
+    public void testPipelining() throws IOException {
+        String token = client.authenticateUser("server1", "123456");
+        Set<Integer> pending = new HashSet<>();
+        int authentication = client.sendAuthenticate("server1", "123456");
+        pending.add(authentication);
+        for (int i = 0; i < 10_000; i++) {
+            pending.add(client.sendCheckRole(token, "serverAdmin"));
+        }
+        client.flush();
+        // checks are answered inline, the authentication completes on the hashing pool
+        while (!pending.isEmpty()) {
+            AuthClient.Response response = client.receive();
+            Assert.assertTrue(response.getError(), response.isOk());
+            Assert.assertTrue(pending.remove(response.getId()));
+            if (response.getId() == authentication) {
+                Assert.assertTrue(response.getValue() instanceof String);
+            } else {
+                Assert.assertEquals(Boolean.TRUE, response.getValue());
+            }
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void testClientReadingLateGetsEveryResponse() throws Exception {
+        String token = client.authenticateUser("server1", "123456");
+        int count = 200_000;
+        // more responses than the server lets pile up: it stops decoding until they are read
+        Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    client.sendCheckRole(token, "serverAdmin");
+                }
+                client.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        sender.start();
+        Thread.sleep(200);
+        for (int i = 0; i < count; i++) {
+            AuthClient.Response response = client.receive();
+            Assert.assertTrue(response.getError(), response.isOk());
+        }
+        sender.join();
+        Assert.assertTrue(client.checkRole(token, "serverAdmin"));
+    }
+
+    @Test
+    public void testMalformedRequestClosesConnection() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(server.getAddress());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(Integer.MAX_VALUE);
+            out.flush();
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+        Assert.assertNotNull(client.authenticateUser("server1", "123456"));
+    }
+
+    @Test
+    public void testStringPastMessageEndClosesConnection() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(server.getAddress());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            // a token said to be 100 bytes long in a message that ends after its length
+            out.writeInt(7);
+            out.writeByte(AuthProtocol.INVALIDATE_TOKEN);
+            out.writeInt(1);
+            out.writeShort(100);
+            out.write(new byte[100]);
+            out.flush();
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+        Assert.assertNotNull(client.authenticateUser("server1", "123456"));
+    }
+}
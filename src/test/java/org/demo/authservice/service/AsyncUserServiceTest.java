@@ -0,0 +1,94 @@
+package org.demo.authservice.service;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description
+ */
+public class AsyncUserServiceTest {
+
+    @Test
+    public void testAuthenticateUserAsync() throws Exception {
+        UserServiceImpl userService = new UserServiceImpl();
+        try {
+            Assert.assertTrue(userService.createUserAsync("Async1", "123456").get());
+            Assert.assertFalse(userService.createUserAsync("Async1", "123456").get());
+            userService.createRole("asyncAdmin");
+            userService.addRoleToUser(new User("Async1"), new Role("asyncAdmin"));
+            String token = userService.authenticateUserAsync("Async1", "123456").get();
+            Assert.assertTrue(userService.checkRoleAsync(token, new Role("asyncAdmin")).get());
+            Assert.assertEquals(1, userService.allRolesAsync(token).get().size());
+        } finally {
+            userService.destroy();
+        }
+    }
+
+    @Test
+    public void testFailuresCompleteExceptionally() throws Exception {
+        UserServiceImpl userService = new UserServiceImpl();
+        try {
+            userService.createUser("Async2", "123456");
+            assertFailsWith(userService.authenticateUserAsync("Async2", "12345"), "password is not right");
+            CompletableFuture<Boolean> check = userService.checkRoleAsync("invalid", new Role("asyncAdmin"));
+            Assert.assertTrue(check.isDone());
+            assertFailsWith(check, "token is not valid");
+        } finally {
+            userService.destroy();
+        }
+    }
+
+    @Test
+    public void testSaturatedPoolSheds() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        UserServiceImpl userService = new UserServiceImpl(1, 1) {
+            @Override
+            public boolean createUser(String userName, String password) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.createUser(userName, password);
+            }
+        };
+        try {
+            // one hash running, one queued, the next one has no room
+            CompletableFuture<Boolean> running = userService.createUserAsync("Async3", "123456");
+            CompletableFuture<Boolean> queued = userService.createUserAsync("Async4", "123456");
+            CompletableFuture<Boolean> shed = userService.createUserAsync("Async5", "123456");
+            Assert.assertTrue(shed.isCompletedExceptionally());
+            try {
+                shed.get();
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            Assert.assertEquals(1, userService.getRejectedHashes());
+            release.countDown();
+            Assert.assertTrue(running.get());
+            Assert.assertTrue(queued.get());
+        } finally {
+            userService.destroy();
+        }
+    }
+
+    private static void assertFailsWith(CompletableFuture<?> future, String message) throws InterruptedException {
+        try {
+            future.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(message, e.getCause().getMessage());
+        }
+    }
+}
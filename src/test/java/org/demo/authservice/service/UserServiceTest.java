@@ -1,14 +1,24 @@
 package org.demo.authservice.service;
 
 import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.Session;
 import org.demo.authservice.entity.User;
+import org.demo.authservice.metrics.MetricsSnapshot;
 import org.demo.authservice.service.impl.UserServiceImpl;
+import org.demo.authservice.utils.Cursor;
 import org.demo.authservice.utils.StoreUtil;
 import org.demo.authservice.utils.TokenUtil;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author Zhi Chen
@@ -65,14 +75,14 @@ public class UserServiceTest {
         String userName = "Hello";
         String password = "123456";
         userService.createUser(userName, password);
-        Assert.assertTrue(userService.deleteUser(new User(userName, password)));
+        Assert.assertTrue(userService.deleteUser(new User(userName)));
     }
 
     @Test
     public void testDeleteNotExistUser() {
         String userName = "Hello";
         String password = "123456";
-        Assert.assertFalse(userService.deleteUser(new User(userName, password)));
+        Assert.assertFalse(userService.deleteUser(new User(userName)));
     }
 
     @Test
@@ -102,7 +112,7 @@ public class UserServiceTest {
         String userName = "Jack";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin";
         userService.createRole("admin");
         Role role = new Role(roleName);
@@ -115,7 +125,7 @@ public class UserServiceTest {
         String userName = "David";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin";
         userService.createRole("admin");
         Role role = new Role(roleName);
@@ -190,7 +200,7 @@ public class UserServiceTest {
         String userName = "Jack4";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin3";
         userService.createRole("admin3");
         userService.createRole("manager3");
@@ -200,12 +210,26 @@ public class UserServiceTest {
         Assert.assertTrue(userService.checkRole(token, role));
     }
 
+    @Test
+    public void testCheckRoleById() {
+        String userName = "Jack7";
+        String password = "123456";
+        userService.createUser(userName, password);
+        userService.createRole("admin7");
+        userService.createRole("manager7");
+        userService.addRoleToUser(new User(userName), new Role("admin7"));
+        String token = userService.authenticateUser("Jack7", "123456");
+        Assert.assertTrue(userService.checkRole(token, new Role("admin7").getId()));
+        Assert.assertFalse(userService.checkRole(token, new Role("manager7").getId()));
+        Assert.assertFalse(userService.checkRole(token, new Role("unknown7").getId()));
+    }
+
     @Test
     public void testCheckRoleNotBelong() {
         String userName = "Chen";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin2";
         String roleName2 = "manager2";
         userService.createRole("admin2");
@@ -224,7 +248,7 @@ public class UserServiceTest {
         String userName = "Jack5";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin4";
         userService.createRole("admin4");
         userService.createRole("manager4");
@@ -242,7 +266,7 @@ public class UserServiceTest {
         String userName = "Jack6";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin5";
         userService.createRole("admin5");
         userService.createRole("manager5");
@@ -258,7 +282,7 @@ public class UserServiceTest {
         String userName = "Jack";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin";
         String roleName2 = "manager";
         userService.createRole("admin");
@@ -278,7 +302,7 @@ public class UserServiceTest {
         String userName = "Jack3";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin";
         String roleName2 = "manager";
         userService.createRole("admin");
@@ -299,7 +323,7 @@ public class UserServiceTest {
         String userName = "Jack";
         String password = "123456";
         userService.createUser(userName, password);
-        User user = new User(userName, password);
+        User user = new User(userName);
         String roleName = "admin";
         String roleName2 = "manager";
         userService.createRole("admin");
@@ -313,4 +337,284 @@ public class UserServiceTest {
         List<Role> roles = userService.allRoles(token);
     }
 
+    @Test
+    public void testBatchProvisioning() {
+        Map<String, String> passwords = new HashMap<>();
+        passwords.put("Batch1", "123456");
+        passwords.put("Batch2", "123456");
+        userService.createUser("Batch2", "123456");
+        Assert.assertEquals(Collections.singleton("Batch1"), userService.createUsers(passwords));
+        Assert.assertNotNull(userService.authenticateUser("Batch1", "123456"));
+        userService.createRole("batchAdmin");
+        userService.createRole("batchViewer");
+        Map<String, List<Role>> roles = new HashMap<>();
+        roles.put("Batch1", Arrays.asList(new Role("batchAdmin"), new Role("batchViewer"), new Role("batchNone")));
+        roles.put("Batch2", Collections.singletonList(new Role("batchViewer")));
+        roles.put("BatchNone", Collections.singletonList(new Role("batchViewer")));
+        userService.addRolesToUsers(roles);
+        Assert.assertEquals(2, StoreUtil.getUser("Batch1").getRoles().size());
+        Assert.assertEquals(1, StoreUtil.getUser("Batch2").getRoles().size());
+    }
+
+    @Test
+    public void testCheckRoles() {
+        userService.createUser("Batch3", "123456");
+        userService.createRole("batchAdmin");
+        userService.createRole("batchViewer");
+        userService.addRoleToUser(new User("Batch3"), new Role("batchViewer"));
+        String token = userService.authenticateUser("Batch3", "123456");
+        Set<Role> granted = userService.checkRoles(token, Arrays.asList(new Role("batchAdmin"), new Role("batchViewer")));
+        Assert.assertEquals(Collections.singleton(new Role("batchViewer")), granted);
+    }
+
+    @Test
+    public void testCheckRolesOfExpiredToken() {
+        userService.createUser("Batch6", "123456");
+        userService.createRole("batchViewer");
+        String token = userService.authenticateUser("Batch6", "123456");
+        TokenUtil.setExpiredTime(0);
+        try {
+            try {
+                userService.checkRoles(token, Collections.singletonList(new Role("batchViewer")));
+                Assert.fail("expired token accepted");
+            } catch (AuthException e) {
+                Assert.assertEquals(AuthStatus.EXPIRED, e.getStatus());
+            }
+            // the single check gives the same reason as the batch one
+            Assert.assertEquals(AuthStatus.EXPIRED, userService.tryCheckRole(token, new Role("batchViewer")).getStatus());
+        } finally {
+            TokenUtil.setExpiredTime(2 * 60 * 60 * 1000);
+        }
+    }
+
+    @Test
+    public void testCheckRoleOfManyTokens() {
+        userService.createUser("Batch4", "123456");
+        userService.createUser("Batch5", "123456");
+        userService.createRole("batchAdmin");
+        userService.addRoleToUser(new User("Batch4"), new Role("batchAdmin"));
+        String token4 = userService.authenticateUser("Batch4", "123456");
+        String token5 = userService.authenticateUser("Batch5", "123456");
+        Map<String, Boolean> result = userService.checkRole(Arrays.asList(token4, token5, token5 + "1"), new Role("batchAdmin"));
+        Assert.assertEquals(2, result.size());
+        Assert.assertTrue(result.get(token4));
+        Assert.assertFalse(result.get(token5));
+    }
+
+    @Test
+    public void testMetrics() {
+        userService.createUser("Metered", "123456");
+        userService.createRole("meteredRole");
+        MetricsSnapshot before = userService.getMetrics();
+        String token = userService.authenticateUser("Metered", "123456");
+        try {
+            userService.authenticateUser("Metered", "wrong");
+            Assert.fail();
+        } catch (RuntimeException expected) {
+        }
+        userService.checkRole(token, new Role("meteredRole"));
+        userService.invalidateToken(token);
+        MetricsSnapshot after = userService.getMetrics();
+
+        Assert.assertEquals(1, after.getCounter("authenticate.success") - before.getCounter("authenticate.success"));
+        Assert.assertEquals(1, after.getCounter("authenticate.failure.bad_password")
+                - before.getCounter("authenticate.failure.bad_password"));
+        Assert.assertEquals(1, after.getCounter("token.invalidated") - before.getCounter("token.invalidated"));
+        Assert.assertEquals(2, after.getHistogram("authenticate.latency").getCount()
+                - before.getHistogram("authenticate.latency").getCount());
+        Assert.assertTrue(after.getHistogram("check_role.latency").getCount() > 0);
+        Assert.assertTrue(after.getGauge("user.count") > 0);
+        Assert.assertTrue(after.getGauges().containsKey("session.live"));
+    }
+
+    @Test
+    public void testDeleteUserInvalidatesTokens() {
+        userService.createUser("Leaving", "123456");
+        String first = userService.authenticateUser("Leaving", "123456");
+        String second = userService.authenticateUser("Leaving", "123456");
+        Assert.assertTrue(userService.deleteUser(new User("Leaving")));
+        Assert.assertFalse(TokenUtil.validateToken(first));
+        Assert.assertFalse(TokenUtil.validateToken(second));
+    }
+
+    @Test
+    public void testUsersInRoleAndDeleteRole() {
+        userService.createRole("crew");
+        for (int i = 0; i < 3; i++) {
+            userService.createUser("Crew" + i, "123456");
+            userService.addRoleToUser(new User("Crew" + i), new Role("crew"));
+        }
+        userService.createUser("Passenger", "123456");
+        Set<String> members = userService.usersInRole(new Role("crew"))
+                .map(User::getUserName).collect(Collectors.toSet());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Crew0", "Crew1", "Crew2")), members);
+
+        userService.deleteUser(new User("Crew1"));
+        Assert.assertEquals(2, userService.usersInRole(new Role("crew")).count());
+
+        Assert.assertTrue(userService.deleteRole(new Role("crew")));
+        Assert.assertEquals(0, userService.usersInRole(new Role("crew")).count());
+        Assert.assertFalse(StoreUtil.getUser("Crew0").hasRole(new Role("crew")));
+        Assert.assertTrue(StoreUtil.getUser("Crew2").getRoles().isEmpty());
+
+        // a recreated role starts without members
+        userService.createRole("crew");
+        Assert.assertEquals(0, userService.usersInRole(new Role("crew")).count());
+    }
+
+    @Test
+    public void testAllRolesIsSharedSnapshot() {
+        userService.createUser("Viewer", "123456");
+        userService.createRole("viewerRole");
+        userService.createRole("editorRole");
+        userService.addRoleToUser(new User("Viewer"), new Role("viewerRole"));
+        String token = userService.authenticateUser("Viewer", "123456");
+        List<Role> before = userService.allRoles(token);
+        Assert.assertSame(before, userService.allRoles(token));
+        try {
+            before.add(new Role("editorRole"));
+            Assert.fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        userService.addRoleToUser(new User("Viewer"), new Role("editorRole"));
+        List<Role> after = userService.allRoles(token);
+        Assert.assertEquals(1, before.size());
+        Assert.assertEquals(2, after.size());
+        Assert.assertTrue(userService.checkRole(token, new Role("editorRole")));
+    }
+
+    @Test
+    public void testScanUsersRolesAndSessions() {
+        userService.createRole("auditor");
+        for (int i = 0; i < 25; i++) {
+            userService.createUser("Audited" + i, "123456");
+            if (i % 5 == 0) {
+                userService.addRoleToUser(new User("Audited" + i), new Role("auditor"));
+            }
+        }
+        Set<String> auditors = new HashSet<>();
+        Cursor<User> users = userService.scanUsers(new Role("auditor"));
+        while (users.hasNext()) {
+            users.next(2).forEach(user -> auditors.add(user.getUserName()));
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList("Audited0", "Audited5", "Audited10", "Audited15", "Audited20")),
+                auditors);
+        Assert.assertTrue(userService.scanUsers(new Role("noSuchRole")).next(10).isEmpty());
+
+        Set<Role> roles = new HashSet<>();
+        Cursor<Role> roleCursor = userService.scanRoles();
+        while (roleCursor.hasNext()) {
+            roles.addAll(roleCursor.next(1));
+        }
+        Assert.assertTrue(roles.contains(new Role("auditor")));
+
+        String auditorToken = userService.authenticateUser("Audited5", "123456");
+        userService.authenticateUser("Audited6", "123456");
+        Set<String> tokens = new HashSet<>();
+        Cursor<Session> sessions = userService.scanSessions(new Role("auditor"), 0, Long.MAX_VALUE);
+        while (sessions.hasNext()) {
+            sessions.next(100).forEach(session -> tokens.add(session.getToken()));
+        }
+        Assert.assertTrue(tokens.contains(auditorToken));
+        for (String token : tokens) {
+            Assert.assertTrue(TokenUtil.getUserByToken(token).hasRole(new Role("auditor")));
+        }
+        // no session has been idle for an hour
+        Assert.assertTrue(userService.scanSessions(null, TimeUnit.HOURS.toMillis(1), Long.MAX_VALUE).next(10).isEmpty());
+        userService.invalidateAllTokens("Audited5");
+        userService.invalidateAllTokens("Audited6");
+    }
+
+    @Test
+    public void testRoleHierarchy() {
+        Role admin = new Role("hierarchyAdmin");
+        Role editor = new Role("hierarchyEditor");
+        Role viewer = new Role("hierarchyViewer");
+        userService.createRole(admin.getRoleName());
+        userService.createRole(editor.getRoleName());
+        userService.createRole(viewer.getRoleName());
+        userService.createUser("Chief", "123456");
+        userService.addRoleToUser(new User("Chief"), admin);
+        String token = userService.authenticateUser("Chief", "123456");
+        Assert.assertFalse(userService.checkRole(token, viewer));
+
+        Assert.assertTrue(userService.addRoleInheritance(admin, editor));
+        Assert.assertTrue(userService.addRoleInheritance(editor, viewer));
+        Assert.assertFalse(userService.addRoleInheritance(editor, viewer));
+        Assert.assertTrue(userService.checkRole(token, editor));
+        Assert.assertTrue(userService.checkRole(token, viewer));
+        Assert.assertEquals(Collections.singleton(viewer),
+                userService.checkRoles(token, Arrays.asList(viewer, new Role("crew"))));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(admin, editor, viewer)),
+                new HashSet<>(userService.allRoles(token)));
+        Assert.assertSame(userService.allRoles(token), userService.allRoles(token, true));
+        Assert.assertEquals(Collections.singletonList(admin), userService.allRoles(token, false));
+        // inherited roles are not members of the role
+        Assert.assertEquals(0, userService.usersInRole(viewer).count());
+        try {
+            userService.addRoleInheritance(viewer, admin);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals("role inheritance would form a cycle", e.getMessage());
+        }
+
+        Assert.assertTrue(userService.removeRoleInheritance(editor, viewer));
+        Assert.assertTrue(userService.checkRole(token, editor));
+        Assert.assertFalse(userService.checkRole(token, viewer));
+        userService.deleteRole(editor);
+        Assert.assertFalse(userService.checkRole(token, editor));
+        Assert.assertEquals(Collections.singletonList(admin), userService.allRoles(token));
+        userService.deleteRole(admin);
+        userService.deleteRole(viewer);
+        userService.invalidateAllTokens("Chief");
+    }
+
+    @Test
+    public void testResultCodes() {
+        userService.createUser("Coded", "123456");
+        userService.createRole("codedRole");
+        userService.addRoleToUser(new User("Coded"), new Role("codedRole"));
+
+        AuthResult<String> unknown = userService.tryAuthenticateUser("NoSuchUser", "123456", null);
+        Assert.assertEquals(AuthStatus.UNKNOWN_USER, unknown.getStatus());
+        Assert.assertSame(unknown, userService.tryAuthenticateUser("NoSuchUser", "654321", null));
+        Assert.assertEquals(AuthStatus.BAD_PASSWORD, userService.tryAuthenticateUser("Coded", "654321", null).getStatus());
+        AuthResult<String> authenticated = userService.tryAuthenticateUser("Coded", "123456", null);
+        Assert.assertTrue(authenticated.isOk());
+        String token = authenticated.getValue();
+
+        Assert.assertSame(AuthResult.GRANTED, userService.tryCheckRole(token, new Role("codedRole")));
+        Assert.assertSame(AuthResult.DENIED, userService.tryCheckRole(token, new Role("crew")));
+        Assert.assertEquals(Collections.singletonList(new Role("codedRole")),
+                userService.tryAllRoles(token, true).getValue());
+        Assert.assertEquals(AuthStatus.INVALID, userService.tryCheckRole(token + "1", new Role("codedRole")).getStatus());
+        Assert.assertEquals(AuthStatus.INVALID, userService.tryAllRoles(null, true).getStatus());
+
+        // the session is past its expiry on its next use, before the expiry wheel gets to it
+        TokenUtil.setExpiredTime(0);
+        try {
+            Assert.assertEquals(AuthStatus.EXPIRED, userService.tryCheckRole(token, new Role("codedRole")).getStatus());
+        } finally {
+            TokenUtil.setExpiredTime(2 * 60 * 60 * 1000);
+        }
+        // the session is gone, its token is still told expired rather than unknown
+        Assert.assertEquals(AuthStatus.EXPIRED, userService.tryAllRoles(token, true).getStatus());
+
+        try {
+            userService.checkRole(token, new Role("codedRole"));
+            Assert.fail();
+        } catch (AuthException e) {
+            Assert.assertEquals(AuthStatus.EXPIRED, e.getStatus());
+            Assert.assertEquals("token is not valid", e.getMessage());
+            Assert.assertEquals(0, e.getStackTrace().length);
+            Assert.assertSame(AuthException.of(AuthStatus.EXPIRED), e);
+        }
+        try {
+            userService.checkRole(token + "1", new Role("codedRole"));
+            Assert.fail();
+        } catch (AuthException e) {
+            Assert.assertSame(AuthException.of(AuthStatus.INVALID), e);
+        }
+    }
 }
@@ -0,0 +1,42 @@
+package org.demo.authservice.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description fingerprints of expired tokens in a bounded table
+ */
+public class ExpiredTokenFilterTest {
+
+    @Test
+    public void testAddedTokensAreFound() {
+        ExpiredTokenFilter filter = new ExpiredTokenFilter(100);
+        filter.add(1, 2);
+        filter.add(3, 4);
+        Assert.assertTrue(filter.contains(1, 2));
+        Assert.assertTrue(filter.contains(3, 4));
+        Assert.assertFalse(filter.contains(2, 1));
+        Assert.assertFalse(filter.contains(0, 0));
+        filter.clear();
+        Assert.assertFalse(filter.contains(1, 2));
+    }
+
+    @Test
+    public void testNewerTokensOverwriteOlderOnes() {
+        ExpiredTokenFilter filter = new ExpiredTokenFilter(16);
+        for (long i = 0; i < 1000; i++) {
+            filter.add(i, ~i);
+        }
+        int found = 0;
+        for (long i = 0; i < 1000; i++) {
+            if (filter.contains(i, ~i)) {
+                found++;
+            }
+        }
+        // at most one token per slot, the last ones added
+        Assert.assertTrue(found > 0 && found <= 16);
+        Assert.assertTrue(filter.contains(999, ~999L));
+    }
+}
@@ -0,0 +1,134 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.service.AuthStatus;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description
+ */
+public class LoginThrottleTest {
+
+    @Test
+    public void testUserFailuresSlideOut() {
+        LoginThrottle throttle = new LoginThrottle(3, 100, 1000, 10);
+        long now = 10_000;
+        for (int i = 0; i < 4; i++) {
+            throttle.recordFailure("user", null, now);
+        }
+        Assert.assertFalse(throttle.allow("user", null, now + 999));
+        // 80% of the previous window still overlaps the sliding window, 4 * 0.8 failures
+        Assert.assertFalse(throttle.allow("user", null, now + 1200));
+        Assert.assertTrue(throttle.allow("user", null, now + 1700));
+        Assert.assertTrue(throttle.allow("other", null, now));
+        Assert.assertEquals(2, throttle.getThrottledAttempts());
+    }
+
+    @Test
+    public void testCallerFailuresAcrossUsers() {
+        LoginThrottle throttle = new LoginThrottle(100, 2, 1000, 10);
+        long now = 10_000;
+        throttle.recordFailure("user1", "10.0.0.1", now);
+        throttle.recordFailure("user2", "10.0.0.1", now);
+        Assert.assertFalse(throttle.allow("user3", "10.0.0.1", now));
+        Assert.assertTrue(throttle.allow("user3", "10.0.0.2", now));
+        Assert.assertTrue(throttle.allow("user3", null, now));
+    }
+
+    @Test
+    public void testBoundedCallerKeysAndIdleEviction() {
+        LoginThrottle throttle = new LoginThrottle(100, 100, 1000, 2);
+        long now = 10_000;
+        throttle.recordFailure("user", "a", now);
+        throttle.recordFailure("user", "b", now);
+        throttle.recordFailure("user", "c", now);
+        Assert.assertEquals(1, throttle.getUntrackedFailures());
+        Assert.assertEquals(3, throttle.getTrackedKeys());
+        Assert.assertEquals(3, throttle.evictIdle(now + 1000));
+        Assert.assertEquals(0, throttle.evictIdle(now + 2000));
+    }
+
+    @Test
+    public void testThrottledLoginIsRejectedBeforeHashing() {
+        CountingHasher hasher = new CountingHasher();
+        EncryptUtil.setPasswordHasher(hasher);
+        UserServiceImpl userService = new UserServiceImpl();
+        try {
+            userService.setLoginThrottle(new LoginThrottle(2, 100, 60_000, 10));
+            userService.createUser("Throttled", "123456");
+            for (int i = 0; i < 2; i++) {
+                Assert.assertEquals(AuthStatus.BAD_PASSWORD,
+                        userService.tryAuthenticateUser("Throttled", "wrong", "caller").getStatus());
+            }
+            Assert.assertEquals(2, hasher.verified.get());
+            try {
+                userService.authenticateUser("Throttled", "123456", "caller");
+                Assert.fail();
+            } catch (RuntimeException e) {
+                Assert.assertEquals("too many failed attempts", e.getMessage());
+            }
+            Assert.assertEquals(2, hasher.verified.get());
+            Assert.assertEquals(1, userService.getLoginThrottle().getThrottledAttempts());
+        } finally {
+            EncryptUtil.setPasswordHasher(new Md5PasswordHasher());
+            userService.destroy();
+        }
+    }
+
+    @Test
+    public void testUnknownUsersAreThrottledPerCaller() {
+        UserServiceImpl userService = new UserServiceImpl();
+        try {
+            Assert.assertNull(userService.getLoginThrottle());
+            userService.setLoginThrottle(new LoginThrottle(100, 2, 60_000, 10));
+            userService.createUser("Probed", "123456");
+            for (int i = 0; i < 2; i++) {
+                Assert.assertEquals(AuthStatus.UNKNOWN_USER,
+                        userService.tryAuthenticateUser("probe" + i, "123456", "prober").getStatus());
+            }
+            // the caller is throttled whether the name exists or not
+            Assert.assertEquals(AuthStatus.THROTTLED,
+                    userService.tryAuthenticateUser("probe2", "123456", "prober").getStatus());
+            Assert.assertEquals(AuthStatus.THROTTLED,
+                    userService.tryAuthenticateUser("Probed", "123456", "prober").getStatus());
+            Assert.assertTrue(userService.tryAuthenticateUser("Probed", "123456", "other").isOk());
+            // only the caller was counted
+            Assert.assertEquals(1, userService.getLoginThrottle().getTrackedKeys());
+        } finally {
+            userService.destroy();
+        }
+    }
+
+    /**
+     * md5 under another id, counting the passwords it verifies
+     */
+    private static final class CountingHasher implements PasswordHasher {
+        private final Md5PasswordHasher md5 = new Md5PasswordHasher();
+        private final AtomicInteger verified = new AtomicInteger();
+
+        @Override
+        public int getId() {
+            return 200;
+        }
+
+        @Override
+        public byte[] hash(String password) {
+            byte[] hash = md5.hash(password);
+            hash[0] = (byte) getId();
+            return hash;
+        }
+
+        @Override
+        public boolean verify(String password, byte[] hash) {
+            verified.incrementAndGet();
+            byte[] md5Hash = hash.clone();
+            md5Hash[0] = Md5PasswordHasher.ID;
+            return md5.verify(password, md5Hash);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.User;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description sessions of a store instance
+ */
+public class MemorySessionStoreTest {
+    private static final long EXPIRY = 10_000;
+
+    private final MemorySessionStore store = new MemorySessionStore();
+    private final User user = new User("memoryStoreUser", EncryptUtil.hashPassword("123456"));
+
+    @Before
+    public void setUp() {
+        store.setExpiredTime(EXPIRY);
+        store.setTouchGranularity(1000);
+    }
+
+    @Test
+    public void testTokenLifecycle() {
+        String token = store.generateToken(user, 0);
+        Assert.assertEquals(1, store.size());
+        Assert.assertTrue(store.validateToken(token, 100));
+        Assert.assertSame(user, store.resolveToken(token, 100));
+        Assert.assertTrue(store.invalidateToken(token));
+        Assert.assertFalse(store.invalidateToken(token));
+        Assert.assertFalse(store.validateToken(token, 100));
+        Assert.assertNull(store.touchToken("not a token", 100));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testTouchExtendsSession() {
+        String skipped = store.generateToken(user, 0);
+        String touched = store.generateToken(user, 0);
+        Assert.assertSame(user, store.touchToken(skipped, 500));
+        Assert.assertSame(user, store.touchToken(touched, 2000));
+        Assert.assertNull(store.touchToken(skipped, EXPIRY + 10));
+        Assert.assertSame(user, store.touchToken(touched, EXPIRY + 10));
+    }
+
+    @Test
+    public void testExpireTokens() {
+        // the expiry wheel starts at the current time
+        long start = System.currentTimeMillis();
+        String expired = store.generateToken(user, start);
+        String touched = store.generateToken(user, start);
+        String kept = store.generateToken(user, start + 5000);
+        Assert.assertSame(user, store.touchToken(touched, start + 2000));
+        Assert.assertEquals(0, store.expireTokens(start + EXPIRY - 1000));
+        Assert.assertEquals(1, store.expireTokens(start + EXPIRY + 1000));
+        Assert.assertFalse(store.validateToken(expired, start + 1000));
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(1, store.expireTokens(start + EXPIRY + 3000));
+        Assert.assertTrue(store.validateToken(kept, start + EXPIRY + 3000));
+    }
+
+    @Test
+    public void testInvalidateAllTokens() {
+        User other = new User("memoryStoreOther", EncryptUtil.hashPassword("123456"));
+        String first = store.generateToken(user, 0);
+        String second = store.generateToken(user, 0);
+        String kept = store.generateToken(other, 0);
+        Assert.assertEquals(2, store.invalidateAllTokens(user.getUserName()));
+        Assert.assertEquals(0, store.invalidateAllTokens(user.getUserName()));
+        Assert.assertFalse(store.validateToken(first, 100));
+        Assert.assertFalse(store.validateToken(second, 100));
+        Assert.assertTrue(store.validateToken(kept, 100));
+        Assert.assertEquals(1, store.size());
+    }
+}
@@ -0,0 +1,68 @@
+package org.demo.authservice.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description
+ */
+public class PasswordHasherTest {
+
+    @Test
+    public void testMd5MatchesLegacyHashes() throws Exception {
+        String password = "p\u00e4ssw\u00f6rd\ud83d\ude00";
+        byte[] expected = MessageDigest.getInstance("MD5").digest(password.getBytes(StandardCharsets.UTF_8));
+        byte[] hash = new Md5PasswordHasher().hash(password);
+        Assert.assertEquals(Md5PasswordHasher.ID, hash[0]);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], hash[i + 1]);
+        }
+        Assert.assertEquals("e10adc3949ba59abbe56e057f20f883e", EncryptUtil.encryptPassword("123456"));
+    }
+
+    @Test
+    public void testVerify() {
+        PasswordHasher[] hashers = {new Md5PasswordHasher(), new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.MIN_ITERATIONS)};
+        for (PasswordHasher hasher : hashers) {
+            byte[] hash = hasher.hash("123456");
+            Assert.assertTrue(hasher.verify("123456", hash));
+            Assert.assertFalse(hasher.verify("12345", hash));
+            Assert.assertTrue(hasher.verify("", hasher.hash("")));
+        }
+    }
+
+    @Test
+    public void testPbkdf2IsSalted() {
+        Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.MIN_ITERATIONS);
+        Assert.assertFalse(MessageDigest.isEqual(hasher.hash("123456"), hasher.hash("123456")));
+    }
+
+    @Test
+    public void testOldHashesVerifyAfterHasherChange() {
+        PasswordHasher previous = EncryptUtil.getPasswordHasher();
+        byte[] md5Hash = EncryptUtil.hashPassword("123456");
+        try {
+            EncryptUtil.setPasswordHasher(new Pbkdf2PasswordHasher(2000));
+            byte[] pbkdf2Hash = EncryptUtil.hashPassword("123456");
+            Assert.assertEquals(Pbkdf2PasswordHasher.ID, pbkdf2Hash[0]);
+            Assert.assertTrue(EncryptUtil.verifyPassword("123456", md5Hash));
+            Assert.assertTrue(EncryptUtil.verifyPassword("123456", pbkdf2Hash));
+            Assert.assertFalse(EncryptUtil.verifyPassword("123456", new byte[]{99, 1, 2}));
+        } finally {
+            EncryptUtil.setPasswordHasher(previous);
+        }
+    }
+
+    @Test
+    public void testCalibration() {
+        int iterations = HasherCalibration.calibratePbkdf2(20);
+        long nanos = HasherCalibration.measure(new Pbkdf2PasswordHasher(iterations));
+        System.out.printf("PBKDF2 iterations for 20ms: %d, measured %.1fms per hash%n", iterations, nanos / 1e6);
+        Assert.assertTrue(iterations >= Pbkdf2PasswordHasher.MIN_ITERATIONS);
+    }
+}
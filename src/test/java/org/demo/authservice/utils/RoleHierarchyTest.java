@@ -0,0 +1,105 @@
+package org.demo.authservice.utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description transitive closure of the role hierarchy under incremental changes
+ */
+public class RoleHierarchyTest {
+    private static final int ADMIN = 1;
+    private static final int EDITOR = 2;
+    private static final int VIEWER = 3;
+    private static final int AUDITOR = 70;
+
+    @Before
+    public void setUp() {
+        RoleHierarchy.clear();
+    }
+
+    @After
+    public void tearDown() {
+        RoleHierarchy.clear();
+    }
+
+    @Test
+    public void testClosureIsTransitive() {
+        Assert.assertTrue(RoleHierarchy.addInheritance(EDITOR, VIEWER));
+        Assert.assertTrue(RoleHierarchy.addInheritance(ADMIN, EDITOR));
+        Assert.assertFalse(RoleHierarchy.addInheritance(ADMIN, EDITOR));
+        RoleHierarchy.Closure closure = RoleHierarchy.current();
+        Assert.assertFalse(closure.isFlat());
+        Assert.assertTrue(closure.implies(ADMIN, VIEWER));
+        Assert.assertTrue(closure.implies(EDITOR, VIEWER));
+        Assert.assertFalse(closure.implies(VIEWER, EDITOR));
+
+        // a child added below the chain reaches every ancestor
+        RoleHierarchy.addInheritance(VIEWER, AUDITOR);
+        Assert.assertTrue(RoleHierarchy.current().implies(ADMIN, AUDITOR));
+        Assert.assertFalse(closure.implies(ADMIN, AUDITOR));
+
+        long[] adminOnly = bits(ADMIN);
+        long[] effective = RoleHierarchy.current().expand(adminOnly);
+        for (int roleId : new int[]{ADMIN, EDITOR, VIEWER, AUDITOR}) {
+            Assert.assertTrue((effective[roleId >>> 6] & (1L << roleId)) != 0);
+        }
+        long[] unrelated = bits(5);
+        Assert.assertSame(unrelated, RoleHierarchy.current().expand(unrelated));
+    }
+
+    @Test
+    public void testRemoveKeepsOtherPaths() {
+        RoleHierarchy.addInheritance(ADMIN, EDITOR);
+        RoleHierarchy.addInheritance(EDITOR, VIEWER);
+        RoleHierarchy.addInheritance(ADMIN, VIEWER);
+        Assert.assertTrue(RoleHierarchy.removeInheritance(EDITOR, VIEWER));
+        Assert.assertFalse(RoleHierarchy.removeInheritance(EDITOR, VIEWER));
+        Assert.assertTrue(RoleHierarchy.current().implies(ADMIN, VIEWER));
+        Assert.assertFalse(RoleHierarchy.current().implies(EDITOR, VIEWER));
+
+        RoleHierarchy.removeInheritance(ADMIN, VIEWER);
+        Assert.assertFalse(RoleHierarchy.current().implies(ADMIN, VIEWER));
+        RoleHierarchy.removeInheritance(ADMIN, EDITOR);
+        Assert.assertTrue(RoleHierarchy.current().isFlat());
+        Assert.assertTrue(RoleHierarchy.current().inheritances().isEmpty());
+    }
+
+    @Test
+    public void testCycleIsRejected() {
+        RoleHierarchy.addInheritance(ADMIN, EDITOR);
+        RoleHierarchy.addInheritance(EDITOR, VIEWER);
+        for (int[] edge : new int[][]{{VIEWER, ADMIN}, {EDITOR, ADMIN}, {ADMIN, ADMIN}}) {
+            try {
+                RoleHierarchy.addInheritance(edge[0], edge[1]);
+                Assert.fail("cycle accepted");
+            } catch (RuntimeException e) {
+                Assert.assertEquals("role inheritance would form a cycle", e.getMessage());
+            }
+        }
+        Assert.assertEquals(2, RoleHierarchy.current().inheritances().size());
+    }
+
+    @Test
+    public void testRemoveRoleDropsItsInheritances() {
+        RoleHierarchy.addInheritance(ADMIN, EDITOR);
+        RoleHierarchy.addInheritance(EDITOR, VIEWER);
+        RoleHierarchy.addInheritance(AUDITOR, VIEWER);
+        RoleHierarchy.removeRole(EDITOR);
+        RoleHierarchy.Closure closure = RoleHierarchy.current();
+        Assert.assertFalse(closure.implies(ADMIN, EDITOR));
+        Assert.assertFalse(closure.implies(ADMIN, VIEWER));
+        Assert.assertTrue(closure.implies(AUDITOR, VIEWER));
+        Assert.assertEquals(1, closure.inheritances().size());
+        Assert.assertArrayEquals(new int[]{AUDITOR, VIEWER}, closure.inheritances().get(0));
+    }
+
+    private static long[] bits(int roleId) {
+        long[] bits = new long[(roleId >>> 6) + 1];
+        bits[roleId >>> 6] |= 1L << roleId;
+        return bits;
+    }
+}
@@ -0,0 +1,168 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.User;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description sessions kept in the memory-mapped session file survive a restart
+ */
+public class SessionFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private User user;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.getRoot().toPath().resolve("sessions.dat");
+        user = new User("sessionFileUser", EncryptUtil.hashPassword("123456"));
+        StoreUtil.storeUser(user);
+        TokenUtil.setExpiredTime(2 * 60 * 60 * 1000);
+        TokenUtil.enableSessionFile(file, 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TokenUtil.disableSessionFile();
+        TokenUtil.clearSessions();
+        StoreUtil.removeUser(user);
+    }
+
+    @Test
+    public void testSessionsSurviveRestart() throws IOException {
+        String kept = TokenUtil.generateToken(user);
+        String invalidated = TokenUtil.generateToken(user);
+        TokenUtil.invalidateToken(invalidated);
+        Assert.assertSame(user, TokenUtil.touchToken(kept, System.currentTimeMillis()));
+
+        Assert.assertEquals(1, restart());
+        Assert.assertTrue(TokenUtil.validateToken(kept));
+        Assert.assertSame(user, TokenUtil.getUserByToken(kept));
+        Assert.assertFalse(TokenUtil.validateToken(invalidated));
+    }
+
+    @Test
+    public void testExpiredSessionsAreDropped() throws IOException, InterruptedException {
+        String token = TokenUtil.generateToken(user);
+        TokenUtil.setExpiredTime(1);
+        Thread.sleep(10);
+        try {
+            Assert.assertEquals(0, restart());
+        } finally {
+            TokenUtil.setExpiredTime(2 * 60 * 60 * 1000);
+        }
+        Assert.assertFalse(TokenUtil.validateToken(token));
+    }
+
+    @Test
+    public void testOrphanedSessionsAreDropped() throws IOException {
+        User removed = new User("sessionFileRemoved", EncryptUtil.hashPassword("123456"));
+        StoreUtil.storeUser(removed);
+        String orphan = TokenUtil.generateToken(removed);
+        StoreUtil.removeUser(removed);
+
+        Assert.assertEquals(0, restart());
+        Assert.assertFalse(TokenUtil.validateToken(orphan));
+    }
+
+    @Test
+    public void testFullFileKeepsSessionsInMemory() throws IOException {
+        TokenUtil.disableSessionFile();
+        TokenUtil.enableSessionFile(folder.getRoot().toPath().resolve("small.dat"), 2);
+        String[] tokens = new String[3];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = TokenUtil.generateToken(user);
+        }
+        for (String token : tokens) {
+            Assert.assertTrue(TokenUtil.validateToken(token));
+        }
+        // freeing a slot makes room for the next session
+        TokenUtil.invalidateToken(tokens[0]);
+        String next = TokenUtil.generateToken(user);
+        TokenUtil.disableSessionFile();
+        TokenUtil.clearSessions();
+        Assert.assertEquals(2, TokenUtil.enableSessionFile(folder.getRoot().toPath().resolve("small.dat"), 2));
+        Assert.assertTrue(TokenUtil.validateToken(next));
+        Assert.assertFalse(TokenUtil.validateToken(tokens[2]));
+    }
+
+    @Test
+    public void testFileHoldsOnlyTokenDigests() throws IOException {
+        String token = TokenUtil.generateToken(user);
+        TokenUtil.disableSessionFile();
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer raw = ByteBuffer.allocate(8).putLong(TokenCodec.decodeHigh(token));
+        Assert.assertFalse(contains(content, raw.array()));
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Assert.assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+        }
+        TokenUtil.clearSessions();
+        Assert.assertEquals(1, TokenUtil.enableSessionFile(file, 1024));
+        Assert.assertSame(user, TokenUtil.touchToken(token, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testKeyedDigestsNeedTheKey() throws IOException {
+        byte[] key = new byte[32];
+        key[0] = 1;
+        Path keyed = folder.getRoot().toPath().resolve("keyed.dat");
+        TokenUtil.disableSessionFile();
+        TokenUtil.enableSessionFile(keyed, 16, key);
+        String token = TokenUtil.generateToken(user);
+        TokenUtil.disableSessionFile();
+        TokenUtil.clearSessions();
+
+        Assert.assertEquals(1, TokenUtil.enableSessionFile(keyed, 16, new byte[32]));
+        Assert.assertFalse(TokenUtil.validateToken(token));
+        TokenUtil.disableSessionFile();
+        TokenUtil.clearSessions();
+        Assert.assertEquals(1, TokenUtil.enableSessionFile(keyed, 16, key));
+        Assert.assertTrue(TokenUtil.validateToken(token));
+    }
+
+    @Test
+    public void testRestoredSessionsAreInvalidatedBeforeUse() throws IOException {
+        String token = TokenUtil.generateToken(user);
+        Assert.assertEquals(1, restart());
+        Assert.assertEquals(1, TokenUtil.invalidateAllTokens(user.getUserName()));
+        Assert.assertFalse(TokenUtil.validateToken(token));
+        Assert.assertEquals(0, restart());
+    }
+
+    /**
+     * drop the sessions from memory as a process exit would and reopen the file
+     */
+    private int restart() throws IOException {
+        TokenUtil.disableSessionFile();
+        TokenUtil.clearSessions();
+        return TokenUtil.enableSessionFile(file, 1024);
+    }
+
+    private static boolean contains(byte[] content, byte[] part) {
+        for (int i = 0; i + part.length <= content.length; i++) {
+            int j = 0;
+            while (j < part.length && content[i + j] == part[j]) {
+                j++;
+            }
+            if (j == part.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
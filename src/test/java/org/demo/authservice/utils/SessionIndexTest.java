@@ -0,0 +1,77 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Session;
+import org.demo.authservice.entity.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description least recently used order of the per-user session lists
+ */
+public class SessionIndexTest {
+    private final User user = new User("indexUser");
+    private final SessionIndex index = new SessionIndex();
+
+    @Test
+    public void testTailIsLeastRecentlyUsed() {
+        Session[] sessions = new Session[4];
+        for (int i = 0; i < 3; i++) {
+            sessions[i] = new Session(1, i + 1, user, i);
+            Assert.assertNull(index.add(sessions[i], 3));
+        }
+        index.touch(sessions[0]);
+        sessions[3] = new Session(1, 4, user, 3);
+        Assert.assertSame(sessions[1], index.add(sessions[3], 3));
+
+        // a session out of the index is neither moved nor removed again
+        index.touch(sessions[1]);
+        index.remove(sessions[1]);
+        Assert.assertEquals(Arrays.asList(sessions[3], sessions[0], sessions[2]), index.removeAll("indexUser"));
+        Assert.assertEquals(0, index.users());
+    }
+
+    @Test
+    public void testRemoveKeepsEnds() {
+        Session first = new Session(2, 1, user, 0);
+        Session second = new Session(2, 2, user, 0);
+        index.add(first);
+        index.add(second);
+        index.remove(first);
+        Session third = new Session(2, 3, user, 0);
+        Assert.assertSame(second, index.add(third, 1));
+        index.remove(third);
+        Assert.assertEquals(0, index.users());
+    }
+
+    @Test
+    public void testConcurrentAddAndRemoveOfOneUser() throws InterruptedException {
+        int threads = 4;
+        int rounds = 20_000;
+        Session[] kept = new Session[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                // lists keep emptying and being retired under the other threads
+                for (int i = 0; i < rounds; i++) {
+                    Session session = new Session(3 + id, i, user, 0);
+                    index.add(session);
+                    index.remove(session);
+                }
+                kept[id] = new Session(3 + id, rounds, user, 0);
+                index.add(kept[id]);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertEquals(1, index.users());
+        Assert.assertEquals(threads, index.removeAll("indexUser").size());
+        Assert.assertEquals(0, index.users());
+    }
+}
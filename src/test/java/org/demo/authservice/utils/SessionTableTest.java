@@ -0,0 +1,160 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Session;
+import org.demo.authservice.entity.User;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description
+ */
+public class SessionTableTest {
+    private final User user = new User("tableUser", EncryptUtil.hashPassword("123456"));
+    private final Random random = new Random(42);
+
+    @Test
+    public void testCodecRoundTrip() {
+        long[] samples = {1, -1, Long.MIN_VALUE, Long.MAX_VALUE, 0x0123456789abcdefL};
+        for (long high : samples) {
+            for (long low : samples) {
+                String token = TokenCodec.encode(high, low);
+                Assert.assertTrue(TokenCodec.isValid(token));
+                Assert.assertEquals(high, TokenCodec.decodeHigh(token));
+                Assert.assertEquals(low, TokenCodec.decodeLow(token));
+            }
+        }
+    }
+
+    @Test
+    public void testCodecRejectsMalformedTokens() {
+        String token = TokenCodec.encode(random.nextLong(), random.nextLong());
+        Assert.assertFalse(TokenCodec.isValid(token + "1"));
+        Assert.assertFalse(TokenCodec.isValid(token.substring(1)));
+        Assert.assertFalse(TokenCodec.isValid(token.substring(1) + "."));
+        Assert.assertFalse(TokenCodec.isValid(token.substring(0, 21) + "B"));
+        Assert.assertFalse(TokenCodec.isValid(null));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        SessionTable table = new SessionTable();
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Session session = new Session(random.nextLong(), random.nextLong(), user, i);
+            Assert.assertTrue(table.putIfAbsent(session));
+            sessions.add(session);
+        }
+        Assert.assertEquals(sessions.size(), table.size());
+        Assert.assertFalse(table.putIfAbsent(new Session(sessions.get(0).getTokenHigh(),
+                sessions.get(0).getTokenLow(), user, 0)));
+        for (int i = 0; i < sessions.size(); i += 2) {
+            Session session = sessions.get(i);
+            Assert.assertSame(session, table.remove(session.getTokenHigh(), session.getTokenLow()));
+        }
+        for (int i = 0; i < sessions.size(); i++) {
+            Session session = sessions.get(i);
+            Session found = table.get(session.getTokenHigh(), session.getTokenLow());
+            Assert.assertSame(i % 2 == 0 ? null : session, found);
+        }
+        Assert.assertEquals(sessions.size() / 2, table.size());
+    }
+
+    @Test
+    public void testSample() {
+        SessionTable table = new SessionTable();
+        Assert.assertNull(table.sample(random));
+        Session only = new Session(random.nextLong(), random.nextLong(), user, 0);
+        table.putIfAbsent(only);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(only, table.sample(random));
+        }
+        for (int i = 0; i < 1000; i++) {
+            table.putIfAbsent(new Session(random.nextLong(), random.nextLong(), user, 0));
+        }
+        Session sampled = table.sample(random);
+        Assert.assertSame(sampled, table.get(sampled.getTokenHigh(), sampled.getTokenLow()));
+    }
+
+    @Test
+    public void testRemoveIf() {
+        SessionTable table = new SessionTable();
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            Session session = new Session(random.nextLong(), random.nextLong(), user, i);
+            table.putIfAbsent(session);
+            sessions.add(session);
+        }
+        Assert.assertEquals(500, table.removeIf(session -> session.getTime() < 500));
+        for (Session session : sessions) {
+            Session found = table.get(session.getTokenHigh(), session.getTokenLow());
+            Assert.assertSame(session.getTime() < 500 ? null : session, found);
+        }
+    }
+
+    @Test
+    public void testRemoveOnlyExpectedSession() {
+        SessionTable table = new SessionTable();
+        Session session = new Session(7, 7, user, 0);
+        table.putIfAbsent(session);
+        Assert.assertFalse(table.remove(new Session(7, 7, user, 0)));
+        Assert.assertTrue(table.remove(session));
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testCursorReturnsEverySessionOnceWhileTableGrows() {
+        SessionTable table = new SessionTable();
+        List<Session> present = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Session session = new Session(random.nextLong(), random.nextLong(), user, i);
+            table.putIfAbsent(session);
+            present.add(session);
+        }
+        Cursor<Session> cursor = table.cursor(session -> true);
+        Set<Session> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        int pages = 0;
+        while (cursor.hasNext()) {
+            List<Session> page = cursor.next(100);
+            Assert.assertTrue(page.size() <= 100 + 8);
+            for (Session session : page) {
+                Assert.assertTrue("returned twice", seen.add(session));
+            }
+            // writers keep going between pages and make every segment resize
+            for (int i = 0; i < 200; i++) {
+                table.putIfAbsent(new Session(random.nextLong(), random.nextLong(), user, i));
+            }
+            pages++;
+        }
+        Assert.assertTrue(pages > 1);
+        for (Session session : present) {
+            Assert.assertTrue("missed", seen.contains(session));
+        }
+        Assert.assertTrue(cursor.next(10).isEmpty());
+    }
+
+    @Test
+    public void testCursorFilters() {
+        SessionTable table = new SessionTable();
+        for (int i = 0; i < 1000; i++) {
+            table.putIfAbsent(new Session(random.nextLong(), random.nextLong(), user, i));
+        }
+        Cursor<Session> cursor = table.cursor(session -> session.getTime() % 10 == 0);
+        int count = 0;
+        while (cursor.hasNext()) {
+            for (Session session : cursor.next(7)) {
+                Assert.assertEquals(0, session.getTime() % 10);
+                count++;
+            }
+        }
+        Assert.assertEquals(100, count);
+    }
+}
@@ -0,0 +1,303 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.User;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description nodes sharing session tokens on loopback
+ */
+public class ShardedSessionStoreTest {
+    private static final int REPLICAS = 2;
+    private static final byte[] SECRET = "shared secret of the test cluster".getBytes(StandardCharsets.UTF_8);
+
+    private final List<ShardedSessionStore> nodes = new ArrayList<>();
+    private User user;
+
+    @Before
+    public void setUp() {
+        user = new User("shardedUser", EncryptUtil.hashPassword("123456"));
+        StoreUtil.storeUser(user);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        TokenUtil.setSessionStore(null);
+        closeNodes();
+        StoreUtil.removeUser(user);
+    }
+
+    @Test
+    public void testEveryNodeServesTokens() throws Exception {
+        startCluster(3);
+        long now = ClockUtil.currentTimeMillis();
+        for (int i = 0; i < 30; i++) {
+            String token = nodes.get(i % 3).generateToken(user, now);
+            for (ShardedSessionStore node : nodes) {
+                Assert.assertSame(user, node.touchToken(token, now));
+            }
+        }
+        // each token ends up on its holders only
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 30 * REPLICAS);
+    }
+
+    @Test
+    public void testInvalidationReachesEveryNode() throws Exception {
+        startCluster(3);
+        long now = ClockUtil.currentTimeMillis();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            tokens.add(nodes.get(i % 3).generateToken(user, now));
+        }
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 30 * REPLICAS);
+        for (int i = 0; i < tokens.size(); i++) {
+            nodes.get((i + 1) % 3).invalidateToken(tokens.get(i));
+        }
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 0);
+        for (String token : tokens) {
+            for (ShardedSessionStore node : nodes) {
+                Assert.assertFalse(node.validateToken(token, now));
+            }
+        }
+    }
+
+    @Test
+    public void testTokensSurviveLossOfANode() throws Exception {
+        startCluster(3);
+        long now = ClockUtil.currentTimeMillis();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            tokens.add(nodes.get(0).generateToken(user, now));
+        }
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 30 * REPLICAS);
+        nodes.remove(0).close();
+        for (String token : tokens) {
+            for (ShardedSessionStore node : nodes) {
+                Assert.assertSame(user, node.resolveToken(token, now));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidateAllReachesEveryNode() throws Exception {
+        startCluster(3);
+        long now = ClockUtil.currentTimeMillis();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            tokens.add(nodes.get(i % 3).generateToken(user, now));
+        }
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 30 * REPLICAS);
+        nodes.get(0).invalidateAllTokens(user.getUserName());
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 0);
+        for (String token : tokens) {
+            Assert.assertNull(nodes.get(1).resolveToken(token, now));
+        }
+    }
+
+    @Test
+    public void testUnauthenticatedFrameIsRejected() throws Exception {
+        startCluster(1);
+        byte[] name = user.getUserName().getBytes(StandardCharsets.UTF_8);
+        byte[] create = ByteBuffer.allocate(29 + name.length).put((byte) 1).putLong(1).putLong(2)
+                .putLong(ClockUtil.currentTimeMillis()).putInt(name.length).put(name).array();
+        try (Socket socket = new Socket(nodes.get(0).getAddress().getAddress(), nodes.get(0).getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[16]);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(create.length);
+            out.write(create);
+            out.write(new byte[32]);
+            out.flush();
+            // the node hangs up instead of storing the session
+            Assert.assertEquals(-1, in.read());
+        }
+        Assert.assertEquals(0, nodes.get(0).size());
+    }
+
+    @Test
+    public void testSilentPeerIsDisconnected() throws Exception {
+        startCluster(1);
+        try (Socket socket = new Socket(nodes.get(0).getAddress().getAddress(), nodes.get(0).getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[16]);
+            // no greeting: the node hangs up after its read timeout instead of holding a thread
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testNodeRejectsPeersBeforeJoining() throws Exception {
+        ShardedSessionStore node = new ShardedSessionStore(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), REPLICAS, SECRET);
+        nodes.add(node);
+        try (Socket socket = new Socket(node.getAddress().getAddress(), node.getAddress().getPort())) {
+            socket.setSoTimeout(5000);
+            // not a member's address, so no nonce
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void testInvalidationDropsBorrowedSessions() throws Exception {
+        startCluster(4);
+        long now = ClockUtil.currentTimeMillis();
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tokens.add(nodes.get(i % 4).generateToken(user, now));
+        }
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 20 * REPLICAS);
+        for (String token : tokens) {
+            for (ShardedSessionStore node : nodes) {
+                Assert.assertSame(user, node.resolveToken(token, now));
+            }
+        }
+        for (String token : tokens) {
+            nodes.get(0).invalidateToken(token);
+        }
+        awaitTrue(() -> nodes.stream().mapToInt(ShardedSessionStore::size).sum() == 0);
+        // borrowed sessions would outlive the invalidation at this time, were they not dropped
+        awaitTrue(() -> tokens.stream().noneMatch(token -> nodes.stream()
+                .anyMatch(node -> node.resolveToken(token, now) != null)));
+    }
+
+    @Test
+    public void testRingIgnoresHowMembersAreNamed() throws Exception {
+        List<InetSocketAddress> members = new ArrayList<>();
+        List<InetSocketAddress> renamed = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // a single holder per token, so a node that places a token elsewhere can't resolve it
+            ShardedSessionStore node = new ShardedSessionStore(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, SECRET);
+            nodes.add(node);
+            members.add(node.getAddress());
+            renamed.add(new InetSocketAddress(InetAddress.getByAddress(node.getAddress().getAddress().getAddress()),
+                    node.getAddress().getPort()));
+        }
+        Assert.assertNotEquals(members.get(0).toString(), renamed.get(0).toString());
+        nodes.get(0).join(members);
+        nodes.get(1).join(renamed);
+        long now = ClockUtil.currentTimeMillis();
+        for (int i = 0; i < 30; i++) {
+            String token = nodes.get(i % 2).generateToken(user, now);
+            Assert.assertSame(user, nodes.get((i + 1) % 2).resolveToken(token, now));
+        }
+    }
+
+    @Test
+    public void testDeletedUserTokensStopWorking() throws Exception {
+        startCluster(1);
+        TokenUtil.setSessionStore(nodes.get(0));
+        String token = TokenUtil.generateToken(user);
+        Assert.assertSame(user, TokenUtil.touchToken(token));
+        StoreUtil.removeUser(user);
+        Assert.assertNull(TokenUtil.generateToken(user));
+        Assert.assertEquals(1, TokenUtil.invalidateAllTokens(user.getUserName()));
+        Assert.assertNull(TokenUtil.touchToken(token));
+        Assert.assertEquals(0, nodes.get(0).size());
+    }
+
+    @Test
+    public void testTokenUtilUsesStore() throws Exception {
+        startCluster(1);
+        TokenUtil.setSessionStore(nodes.get(0));
+        String token = TokenUtil.generateToken(user);
+        Assert.assertEquals(1, nodes.get(0).size());
+        Assert.assertTrue(TokenUtil.validateToken(token));
+        Assert.assertSame(user, TokenUtil.touchToken(token));
+        Assert.assertSame(user, TokenUtil.getUserByToken(token));
+        TokenUtil.invalidateToken(token);
+        Assert.assertFalse(TokenUtil.validateToken(token));
+        Assert.assertEquals(0, nodes.get(0).size());
+    }
+
+    /**
+     * clients spread over the nodes touch random tokens minted by any node, as behind a load balancer
+     * without sticky sessions. a node borrows the sessions it looked up elsewhere, so once warm most
+     * requests are served locally. on a single machine the nodes share its cores, so adding nodes can't
+     * show a gain, only whether the remote lookups cost much
+     */
+    @Test
+    public void testThroughputAsNodesAreAdded() throws Exception {
+        int clients = 4;
+        long durationMillis = 300;
+        for (int nodeCount : new int[]{1, 2, 4}) {
+            startCluster(nodeCount);
+            long now = ClockUtil.currentTimeMillis();
+            String[] tokens = new String[1000];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = nodes.get(i % nodeCount).generateToken(user, now);
+            }
+            AtomicLong operations = new AtomicLong();
+            long deadline = System.currentTimeMillis() + durationMillis;
+            List<Thread> threads = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                ShardedSessionStore node = nodes.get(c % nodeCount);
+                Thread thread = new Thread(() -> {
+                    long count = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.currentTimeMillis() < deadline) {
+                        Assert.assertNotNull(node.touchToken(tokens[random.nextInt(tokens.length)], now));
+                        count++;
+                    }
+                    operations.addAndGet(count);
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            System.out.printf("sharded session store: %d nodes, %d ops/s%n",
+                    nodeCount, operations.get() * 1000 / durationMillis);
+            Assert.assertTrue(operations.get() > 0);
+            closeNodes();
+        }
+    }
+
+    private void startCluster(int size) throws IOException {
+        List<InetSocketAddress> members = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            ShardedSessionStore node = new ShardedSessionStore(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), REPLICAS, SECRET);
+            nodes.add(node);
+            members.add(node.getAddress());
+        }
+        for (ShardedSessionStore node : nodes) {
+            node.join(members);
+        }
+    }
+
+    private void closeNodes() throws IOException {
+        for (ShardedSessionStore node : nodes) {
+            node.close();
+        }
+        nodes.clear();
+    }
+
+    private static void awaitTrue(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
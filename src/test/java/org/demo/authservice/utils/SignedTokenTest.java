@@ -0,0 +1,142 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.service.AuthStatus;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description signed token mode, with a validation throughput comparison against session tokens
+ */
+public class SignedTokenTest {
+    private static final long MEASURE_MILLIS = 500;
+
+    private static UserServiceImpl userService;
+
+    @BeforeClass
+    public static void createService() {
+        userService = new UserServiceImpl();
+        userService.createUser("signed", "123456");
+        userService.createRole("signedAdmin");
+        userService.createRole("signedManager");
+        userService.addRoleToUser(new User("signed"), new Role("signedAdmin"));
+    }
+
+    @AfterClass
+    public static void destroyService() {
+        userService.destroy();
+    }
+
+    @Before
+    public void useSignedTokens() {
+        TokenUtil.setExpiredTime(2 * 60 * 60 * 1000);
+        TokenUtil.setTokenMode(TokenUtil.TokenMode.SIGNED);
+    }
+
+    @After
+    public void useSessionTokens() {
+        TokenUtil.setTokenMode(TokenUtil.TokenMode.SESSION);
+    }
+
+    @Test
+    public void testCheckRole() {
+        String token = userService.authenticateUser("signed", "123456");
+        Assert.assertTrue(SignedTokenUtil.isSignedToken(token));
+        Assert.assertTrue(userService.checkRole(token, new Role("signedAdmin")));
+        Assert.assertFalse(userService.checkRole(token, new Role("signedManager")));
+        Assert.assertEquals(1, userService.allRoles(token).size());
+        Assert.assertSame(StoreUtil.getUser("signed"), TokenUtil.getUserByToken(token));
+    }
+
+    @Test
+    public void testTamperedToken() {
+        String token = userService.authenticateUser("signed", "123456");
+        int separator = token.indexOf(SignedTokenUtil.SEPARATOR);
+        char flipped = token.charAt(0) == 'A' ? 'B' : 'A';
+        Assert.assertFalse(TokenUtil.validateToken(flipped + token.substring(1)));
+        Assert.assertFalse(TokenUtil.validateToken(token + "1"));
+        Assert.assertFalse(TokenUtil.validateToken(token.substring(0, separator)));
+        Assert.assertTrue(TokenUtil.validateToken(token));
+    }
+
+    @Test
+    public void testInvalidateToken() {
+        String token = userService.authenticateUser("signed", "123456");
+        String other = userService.authenticateUser("signed", "123456");
+        userService.invalidateToken(token);
+        Assert.assertFalse(TokenUtil.validateToken(token));
+        Assert.assertTrue(TokenUtil.validateToken(other));
+        Assert.assertEquals(AuthStatus.INVALID, userService.tryCheckRole(token, new Role("signedAdmin")).getStatus());
+    }
+
+    @Test
+    public void testLoginRightAfterLogoutEverywhere() {
+        String before = userService.authenticateUser("signed", "123456");
+        TokenUtil.invalidateAllTokens("signed");
+        // likely within the cutoff's millisecond
+        String after = userService.authenticateUser("signed", "123456");
+        Assert.assertFalse(TokenUtil.validateToken(before));
+        Assert.assertTrue(TokenUtil.validateToken(after));
+        Assert.assertTrue(SignedTokenUtil.parse(after).getIssuedAt() > SignedTokenUtil.parse(before).getIssuedAt());
+        // a shorter expiry set since does not bring the revoked token back
+        TokenUtil.setExpiredTime(1000);
+        Assert.assertFalse(TokenUtil.validateToken(before));
+    }
+
+    @Test
+    public void testExpiredToken() {
+        TokenUtil.setExpiredTime(-1);
+        String token = userService.authenticateUser("signed", "123456");
+        Assert.assertFalse(TokenUtil.validateToken(token));
+        Assert.assertEquals(AuthStatus.EXPIRED, userService.tryCheckRole(token, new Role("signedAdmin")).getStatus());
+        Assert.assertEquals(AuthStatus.EXPIRED, userService.tryAllRoles(token, true).getStatus());
+    }
+
+    @Test
+    public void testRevocationsArePrunedAtExpiry() {
+        RevocationFilter filter = new RevocationFilter();
+        long now = System.currentTimeMillis();
+        User user = StoreUtil.getUser("signed");
+        SignedToken first = SignedTokenUtil.parse(SignedTokenUtil.sign(user, now, now + 1000));
+        SignedToken second = SignedTokenUtil.parse(SignedTokenUtil.sign(user, now, now + 5000));
+        filter.revoke(first);
+        filter.revoke(second);
+        Assert.assertTrue(filter.isRevoked(first));
+        Assert.assertEquals(1, filter.prune(now + 2000));
+        Assert.assertFalse(filter.isRevoked(first));
+        Assert.assertTrue(filter.isRevoked(second));
+    }
+
+    @Test
+    public void testValidationThroughput() {
+        String signedToken = userService.authenticateUser("signed", "123456");
+        TokenUtil.setTokenMode(TokenUtil.TokenMode.SESSION);
+        String sessionToken = userService.authenticateUser("signed", "123456");
+        int roleId = new Role("signedAdmin").getId();
+        // warm up both paths first
+        measureCheckRole(sessionToken, roleId);
+        measureCheckRole(signedToken, roleId);
+        System.out.printf("checkRole with session token: %.0f ops/ms%n", measureCheckRole(sessionToken, roleId));
+        System.out.printf("checkRole with signed token: %.0f ops/ms%n", measureCheckRole(signedToken, roleId));
+    }
+
+    private static double measureCheckRole(String token, int roleId) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MEASURE_MILLIS);
+        long count = 0;
+        while ((count & 255) != 0 || System.nanoTime() < deadline) {
+            Assert.assertTrue(userService.checkRole(token, roleId));
+            count++;
+        }
+        return count / (double) MEASURE_MILLIS;
+    }
+}
@@ -0,0 +1,241 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description recovery of the user and role store from its write-ahead log and snapshots.
+ * run with -Pperf to time the recovery of 10 million users
+ */
+public class StorePersistenceTest {
+    private static final int RECOVERY_USERS = Integer.getInteger("authservice.recovery.users", 100_000);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("store").toPath();
+        StoreUtil.clear();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        StoreUtil.disablePersistence();
+        StoreUtil.clear();
+    }
+
+    @Test
+    public void testFailedWriteLeavesUserUnchanged() throws IOException {
+        StoreUtil.enablePersistence(directory);
+        Role admin = new Role("unloggedAdmin");
+        StoreUtil.storeRole(admin);
+        StoreUtil.storeUserIfAbsent(new User("unlogged", EncryptUtil.hashPassword("1")));
+        User stored = StoreUtil.getUser("unlogged");
+        StoreUtil.getPersistence().close();
+        try {
+            StoreUtil.computeUserIfPresent("unlogged", (name, user) -> {
+                user.addRole(admin);
+                return user;
+            });
+            Assert.fail();
+        } catch (UncheckedIOException e) {
+            Assert.assertEquals("write-ahead log is closed", e.getCause().getMessage());
+        }
+        Assert.assertSame(stored, StoreUtil.getUser("unlogged"));
+        Assert.assertFalse(stored.hasRole(admin));
+        Assert.assertEquals(0, StoreUtil.usersInRole(admin.getId()).count());
+    }
+
+    @Test
+    public void testFailedFsyncIsVisibleUntilRecovered() throws IOException {
+        StoreUtil.enablePersistence(directory);
+        StoreUtil.storeUserIfAbsent(new User("durable", EncryptUtil.hashPassword("1")));
+        // the next write to the segment fails as a failing disk would
+        StoreUtil.getPersistence().getLog().getChannel().close();
+        try {
+            StoreUtil.storeUserIfAbsent(new User("unacknowledged", EncryptUtil.hashPassword("2")));
+            Assert.fail("write acknowledged without being durable");
+        } catch (UncheckedIOException e) {
+            Assert.assertNotNull(StoreUtil.getPersistence().getFailure());
+        }
+        // applied before it was logged, readers already see it
+        Assert.assertNotNull(StoreUtil.getUser("unacknowledged"));
+        try {
+            StoreUtil.storeUserIfAbsent(new User("rejected", EncryptUtil.hashPassword("3")));
+            Assert.fail("write accepted by a failed log");
+        } catch (UncheckedIOException e) {
+            Assert.assertNull(StoreUtil.getUser("rejected"));
+        }
+
+        StoreUtil.recoverPersistence();
+        Assert.assertNull(StoreUtil.getPersistence().getFailure());
+        StoreUtil.storeUserIfAbsent(new User("afterRecovery", EncryptUtil.hashPassword("4")));
+        reopen();
+
+        Assert.assertNotNull(StoreUtil.getUser("durable"));
+        Assert.assertNotNull(StoreUtil.getUser("unacknowledged"));
+        Assert.assertNull(StoreUtil.getUser("rejected"));
+        Assert.assertNotNull(StoreUtil.getUser("afterRecovery"));
+    }
+
+    @Test
+    public void testReplayLog() throws IOException {
+        StoreUtil.enablePersistence(directory);
+        Role admin = new Role("persistAdmin");
+        Role guest = new Role("persistGuest");
+        StoreUtil.storeRole(admin);
+        StoreUtil.storeRole(guest);
+        StoreUtil.removeRole(guest);
+        StoreUtil.storeUserIfAbsent(new User("persistAlice", EncryptUtil.hashPassword("alice")));
+        StoreUtil.storeUserIfAbsent(new User("persistBob", EncryptUtil.hashPassword("bob")));
+        StoreUtil.computeUserIfPresent("persistAlice", (name, user) -> {
+            user.addRole(admin);
+            return user;
+        });
+        StoreUtil.removeUser(new User("persistBob"));
+        reopen();
+
+        Assert.assertTrue(StoreUtil.existRole(admin));
+        Assert.assertFalse(StoreUtil.existRole(guest));
+        Assert.assertNull(StoreUtil.getUser("persistBob"));
+        User alice = StoreUtil.getUser("persistAlice");
+        Assert.assertTrue(EncryptUtil.verifyPassword("alice", alice.getPasswordHash()));
+        Assert.assertTrue(alice.hasRole(admin));
+    }
+
+    @Test
+    public void testSnapshotAndLog() throws IOException {
+        StoreUtil.enablePersistence(directory);
+        StoreUtil.storeUserIfAbsent(new User("beforeSnapshot", EncryptUtil.hashPassword("1")));
+        StoreUtil.storeUserIfAbsent(new User("removedAfterSnapshot", EncryptUtil.hashPassword("2")));
+        StoreUtil.getPersistence().snapshot();
+        StoreUtil.storeUserIfAbsent(new User("afterSnapshot", EncryptUtil.hashPassword("3")));
+        StoreUtil.removeUser(new User("removedAfterSnapshot"));
+        reopen();
+
+        Assert.assertNotNull(StoreUtil.getUser("beforeSnapshot"));
+        Assert.assertNotNull(StoreUtil.getUser("afterSnapshot"));
+        Assert.assertNull(StoreUtil.getUser("removedAfterSnapshot"));
+    }
+
+    @Test
+    public void testRoleInheritances() throws IOException {
+        StoreUtil.enablePersistence(directory);
+        Role admin = new Role("persistAdmin");
+        Role editor = new Role("persistEditor");
+        Role viewer = new Role("persistViewer");
+        StoreUtil.storeRole(admin);
+        StoreUtil.storeRole(editor);
+        StoreUtil.storeRole(viewer);
+        StoreUtil.addRoleInheritance(admin, editor);
+        StoreUtil.getPersistence().snapshot();
+        StoreUtil.addRoleInheritance(editor, viewer);
+        StoreUtil.addRoleInheritance(admin, viewer);
+        StoreUtil.removeRoleInheritance(admin, viewer);
+        reopen();
+
+        RoleHierarchy.Closure closure = RoleHierarchy.current();
+        Assert.assertTrue(closure.implies(admin.getId(), viewer.getId()));
+        Assert.assertEquals(2, closure.inheritances().size());
+        StoreUtil.removeRole(editor);
+        reopen();
+        Assert.assertTrue(RoleHierarchy.current().isFlat());
+    }
+
+    @Test
+    public void testTornTail() throws IOException {
+        StoreUtil.enablePersistence(directory);
+        StoreUtil.storeUserIfAbsent(new User("complete", EncryptUtil.hashPassword("1")));
+        StoreUtil.storeUserIfAbsent(new User("torn", EncryptUtil.hashPassword("2")));
+        StoreUtil.disablePersistence();
+        Path segment = WriteAheadLog.segmentPath(directory, 0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        reopen();
+
+        Assert.assertNotNull(StoreUtil.getUser("complete"));
+        Assert.assertNull(StoreUtil.getUser("torn"));
+        // the torn record is cut off, so records written after recovery are read back
+        StoreUtil.storeUserIfAbsent(new User("afterRecovery", EncryptUtil.hashPassword("3")));
+        reopen();
+        Assert.assertNotNull(StoreUtil.getUser("afterRecovery"));
+    }
+
+    @Test
+    public void testConcurrentWritersShareFsyncs() throws Exception {
+        StoreUtil.enablePersistence(directory);
+        int threads = 8;
+        int perThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        byte[] hash = EncryptUtil.hashPassword("123456");
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    StoreUtil.storeUserIfAbsent(new User("group" + (base + i), hash));
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(threads * perThread + " durable user writes from " + threads + " threads: " + millis + " ms");
+        reopen();
+        for (int i = 0; i < threads * perThread; i++) {
+            Assert.assertNotNull(StoreUtil.getUser("group" + i));
+        }
+    }
+
+    @Test
+    public void testRecoveryTime() throws IOException {
+        Role member = new Role("persistMember");
+        StoreUtil.storeRole(member);
+        byte[] hash = EncryptUtil.hashPassword("123456");
+        int memberId = member.getId();
+        long[] roleBits = new long[(memberId >>> 6) + 1];
+        roleBits[memberId >>> 6] |= 1L << memberId;
+        for (int i = 0; i < RECOVERY_USERS; i++) {
+            StoreUtil.restoreUser(new User("recovery" + i, hash, roleBits));
+        }
+        StoreUtil.enablePersistence(directory);
+        StoreUtil.getPersistence().snapshot();
+        StoreUtil.disablePersistence();
+        StoreUtil.clear();
+
+        long start = System.nanoTime();
+        StoreUtil.enablePersistence(directory);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("recovered " + RECOVERY_USERS + " users in " + millis + " ms");
+
+        Assert.assertTrue(StoreUtil.getUser("recovery" + (RECOVERY_USERS - 1)).hasRole(member));
+        Assert.assertTrue(StoreUtil.existRole(member));
+    }
+
+    private void reopen() throws IOException {
+        StoreUtil.disablePersistence();
+        StoreUtil.clear();
+        StoreUtil.enablePersistence(directory);
+    }
+}
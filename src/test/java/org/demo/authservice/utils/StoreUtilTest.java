@@ -0,0 +1,164 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.demo.authservice.entity.UserSnapshot;
+import org.demo.authservice.service.impl.UserServiceImpl;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description multi-threaded stress test of the user and role store
+ */
+public class StoreUtilTest {
+    private static final int USERS = 10_000;
+
+    private static UserServiceImpl userService;
+    private static final String[] userNames = new String[USERS];
+
+    @BeforeClass
+    public static void createService() {
+        userService = new UserServiceImpl();
+        for (int i = 0; i < USERS; i++) {
+            userNames[i] = "stress" + i;
+            userService.createUser(userNames[i], "123456");
+        }
+    }
+
+    @AfterClass
+    public static void destroyService() {
+        userService.destroy();
+    }
+
+    @Test
+    public void testConcurrentCreateSameUser() throws InterruptedException {
+        int threads = 16;
+        AtomicInteger created = new AtomicInteger();
+        runConcurrently(threads, () -> {
+            if (userService.createUser("raceUser", "123456")) {
+                created.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testConcurrentAddRoles() throws InterruptedException {
+        int threads = 16;
+        userService.createUser("roleRaceUser", "123456");
+        for (int i = 0; i < threads; i++) {
+            userService.createRole("raceRole" + i);
+        }
+        AtomicInteger next = new AtomicInteger();
+        runConcurrently(threads, () -> {
+            Role role = new Role("raceRole" + next.getAndIncrement());
+            // every thread adds its own role twice, only one copy may survive
+            userService.addRoleToUser(new User("roleRaceUser"), role);
+            userService.addRoleToUser(new User("roleRaceUser"), role);
+        });
+        Assert.assertEquals(threads, StoreUtil.getUser("roleRaceUser").getRoles().size());
+    }
+
+    @Test
+    public void testGrantRacingRoleRemovalLeavesNoMember() throws InterruptedException {
+        int users = 8;
+        for (int i = 0; i < users; i++) {
+            userService.createUser("vanishingMember" + i, "123456");
+        }
+        Role role = new Role("vanishingRole");
+        for (int round = 0; round < 50; round++) {
+            userService.createRole("vanishingRole");
+            AtomicInteger next = new AtomicInteger();
+            runConcurrently(2, () -> {
+                if (next.getAndIncrement() == 0) {
+                    userService.deleteRole(role);
+                    return;
+                }
+                for (int i = 0; i < users; i++) {
+                    userService.addRoleToUser(new User("vanishingMember" + i), role);
+                }
+            });
+            if (StoreUtil.existRole(role)) {
+                userService.deleteRole(role);
+            }
+            Assert.assertEquals(0, StoreUtil.usersInRole(role.getId()).count());
+            for (int i = 0; i < users; i++) {
+                Assert.assertFalse(StoreUtil.getUser("vanishingMember" + i).hasRole(role));
+            }
+        }
+    }
+
+    @Test
+    public void testReadersNeverSeeTornUsers() throws InterruptedException {
+        userService.createUser("snapshotUser", "123456");
+        userService.createRole("snapshotLeft");
+        userService.createRole("snapshotRight");
+        List<Role> left = Collections.singletonList(new Role("snapshotLeft"));
+        List<Role> right = Collections.singletonList(new Role("snapshotRight"));
+        StoreUtil.computeUserIfPresent("snapshotUser", (name, user) -> {
+            user.setRoles(left);
+            return user;
+        });
+        User user = StoreUtil.getUser("snapshotUser");
+        int leftId = left.get(0).getId();
+        int rightId = right.get(0).getId();
+        AtomicInteger writers = new AtomicInteger();
+        runConcurrently(4, () -> {
+            if (writers.getAndIncrement() == 0) {
+                // a single role at any time, moved from one to the other
+                for (int i = 0; i < 20_000; i++) {
+                    List<Role> roles = (i & 1) == 0 ? right : left;
+                    StoreUtil.computeUserIfPresent("snapshotUser", (name, stored) -> {
+                        stored.setRoles(roles);
+                        return stored;
+                    });
+                }
+                return;
+            }
+            long lastVersion = -1;
+            for (int i = 0; i < 200_000; i++) {
+                UserSnapshot snapshot = user.getSnapshot();
+                if (snapshot.hasRole(leftId) == snapshot.hasRole(rightId) || snapshot.getRoles().size() != 1
+                        || snapshot.getVersion() < lastVersion) {
+                    throw new AssertionError("torn or stale snapshot at version " + snapshot.getVersion());
+                }
+                lastVersion = snapshot.getVersion();
+            }
+        });
+        Assert.assertEquals(20_001, user.getSnapshot().getVersion());
+    }
+
+    private static void runConcurrently(int threads, Runnable task) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    task.run();
+                } catch (Throwable e) {
+                    failures.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        done.await();
+        pool.shutdown();
+        Assert.assertEquals(0, failures.get());
+    }
+}
@@ -0,0 +1,98 @@
+package org.demo.authservice.utils;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description
+ */
+public class TimingWheelTest {
+
+    private static class Item extends TimingWheel.Entry {
+        private long deadline;
+        private boolean cancelled;
+
+        Item(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    private final List<Item> expired = new ArrayList<>();
+    private TimingWheel<Item> wheel;
+    private long start;
+
+    @Before
+    public void createWheel() {
+        expired.clear();
+        wheel = new TimingWheel<>(100, 16, new TimingWheel.Expiry<Item>() {
+            @Override
+            public long deadline(Item item) {
+                return item.cancelled ? -1 : item.deadline;
+            }
+
+            @Override
+            public void expire(Item item) {
+                expired.add(item);
+            }
+        });
+        start = System.currentTimeMillis();
+    }
+
+    @Test
+    public void testExpireAtDeadline() {
+        Item item = new Item(start + 500);
+        wheel.schedule(item, item.deadline);
+        Assert.assertEquals(0, wheel.advance(start + 400));
+        Assert.assertEquals(1, wheel.advance(start + 600));
+        Assert.assertSame(item, expired.get(0));
+    }
+
+    @Test
+    public void testTouchedEntryMovesToLaterBucket() {
+        Item item = new Item(start + 500);
+        wheel.schedule(item, item.deadline);
+        // slide the deadline without touching the wheel
+        item.deadline = start + 1200;
+        Assert.assertEquals(0, wheel.advance(start + 600));
+        Assert.assertEquals(0, wheel.advance(start + 1100));
+        Assert.assertEquals(1, wheel.advance(start + 1300));
+    }
+
+    @Test
+    public void testDeadlineBeyondOneRound() {
+        // 16 buckets of 100ms only cover 1.6 seconds
+        Item item = new Item(start + 5000);
+        wheel.schedule(item, item.deadline);
+        for (long now = start; now < start + 4900; now += 100) {
+            Assert.assertEquals(0, wheel.advance(now));
+        }
+        Assert.assertEquals(1, wheel.advance(start + 5100));
+    }
+
+    @Test
+    public void testCancel() {
+        Item first = new Item(start + 300);
+        Item second = new Item(start + 300);
+        wheel.schedule(first, first.deadline);
+        wheel.schedule(second, second.deadline);
+        wheel.cancel(first);
+        wheel.cancel(first);
+        Assert.assertEquals(1, wheel.advance(start + 400));
+        Assert.assertSame(second, expired.get(0));
+    }
+
+    @Test
+    public void testDroppedEntryIsNotExpired() {
+        Item item = new Item(start + 300);
+        wheel.schedule(item, item.deadline);
+        item.cancelled = true;
+        Assert.assertEquals(0, wheel.advance(start + 400));
+        Assert.assertTrue(expired.isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package org.demo.authservice.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description per-thread token generators
+ */
+public class TokenGeneratorTest {
+
+    @Test
+    public void testTokensAreUniqueAcrossThreads() throws InterruptedException {
+        int threads = 8;
+        int perThread = 20_000;
+        Set<String> tokens = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    tokens.add(TokenGenerator.nextToken());
+                }
+                done.countDown();
+            });
+        }
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        Assert.assertEquals(threads * perThread, tokens.size());
+        for (String token : tokens) {
+            Assert.assertTrue(TokenCodec.isValid(token));
+        }
+    }
+
+    @Test
+    public void testBitsAreBalanced() {
+        TokenGenerator generator = TokenGenerator.current();
+        int samples = 10_000;
+        int[] ones = new int[64];
+        for (int i = 0; i < samples; i++) {
+            long value = generator.nextLong();
+            for (int bit = 0; bit < 64; bit++) {
+                ones[bit] += (int) (value >>> bit) & 1;
+            }
+        }
+        // a fair bit is set 5000 times give or take 50, 6 standard deviations
+        for (int bit = 0; bit < 64; bit++) {
+            Assert.assertTrue("bit " + bit + " set " + ones[bit] + " times", Math.abs(ones[bit] - samples / 2) < 300);
+        }
+    }
+
+    @Test
+    public void testGeneratorIsPerThread() throws InterruptedException {
+        TokenGenerator[] other = new TokenGenerator[1];
+        Thread thread = new Thread(() -> other[0] = TokenGenerator.current());
+        thread.start();
+        thread.join();
+        Assert.assertSame(TokenGenerator.current(), TokenGenerator.current());
+        Assert.assertNotSame(TokenGenerator.current(), other[0]);
+    }
+}
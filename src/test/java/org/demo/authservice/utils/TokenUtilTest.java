@@ -0,0 +1,184 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.User;
+import org.demo.authservice.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description resolving and touching session tokens
+ */
+public class TokenUtilTest {
+    private static final long EXPIRY = 10_000;
+
+    private User user;
+
+    @Before
+    public void setUp() {
+        user = new User("touchUser", EncryptUtil.hashPassword("123456"));
+        StoreUtil.storeUser(user);
+        TokenUtil.setExpiredTime(EXPIRY);
+    }
+
+    @After
+    public void tearDown() {
+        TokenUtil.setTouchGranularity(1000);
+        TokenUtil.setMaxSessions(0);
+        TokenUtil.setMaxSessionsPerUser(0);
+        TokenUtil.setExpiredTime(2 * 60 * 60 * 1000);
+        TokenUtil.invalidateAllTokens(user.getUserName());
+        StoreUtil.removeUser(user);
+    }
+
+    @Test
+    public void testTouchWithinGranularityIsSkipped() {
+        TokenUtil.setTouchGranularity(1000);
+        String token = TokenUtil.generateToken(user);
+        long issued = ClockUtil.currentTimeMillis();
+        // touched within the granularity, the session keeps its time and expires with it
+        Assert.assertSame(user, TokenUtil.touchToken(token, issued + 500));
+        Assert.assertNull(TokenUtil.touchToken(token, issued + EXPIRY + 10));
+    }
+
+    @Test
+    public void testTouchAfterGranularityExtendsSession() {
+        TokenUtil.setTouchGranularity(1000);
+        String token = TokenUtil.generateToken(user);
+        long issued = ClockUtil.currentTimeMillis();
+        Assert.assertSame(user, TokenUtil.touchToken(token, issued + 2000));
+        Assert.assertSame(user, TokenUtil.touchToken(token, issued + EXPIRY + 10));
+    }
+
+    @Test
+    public void testInvalidTokens() {
+        Assert.assertNull(TokenUtil.touchToken("not a token"));
+        String token = TokenUtil.generateToken(user);
+        TokenUtil.invalidateToken(token);
+        Assert.assertNull(TokenUtil.touchToken(token));
+    }
+
+    @Test
+    public void testSweptSessionIsToldExpired() {
+        String lazy = TokenUtil.generateToken(user);
+        String swept = TokenUtil.generateToken(user);
+        String invalidated = TokenUtil.generateToken(user);
+        TokenUtil.invalidateToken(invalidated);
+        long issued = ClockUtil.currentTimeMillis();
+        Assert.assertNull(TokenUtil.touchToken(lazy, issued + EXPIRY + 10));
+        TokenUtil.setExpiredTime(0);
+        TokenUtil.removeExpiredToken();
+        Assert.assertNull(TokenUtil.touchToken(swept));
+        Assert.assertTrue(TokenUtil.hasExpired(lazy));
+        Assert.assertTrue(TokenUtil.hasExpired(swept));
+        Assert.assertFalse(TokenUtil.hasExpired(invalidated));
+        Assert.assertFalse(TokenUtil.hasExpired(TokenGenerator.nextToken()));
+        Assert.assertFalse(TokenUtil.hasExpired("not a token"));
+    }
+
+    @Test
+    public void testDeletedUserGetsNoSession() {
+        // a user removed from the store before its session was published
+        User deleted = new User("touchDeleted", user.getPasswordHash());
+        Assert.assertNull(TokenUtil.generateToken(deleted));
+        Assert.assertEquals(0, TokenUtil.invalidateAllTokens(deleted.getUserName()));
+        // a user deleted and created again is another user
+        StoreUtil.storeUser(new User("touchDeleted", user.getPasswordHash()));
+        try {
+            Assert.assertNull(TokenUtil.generateToken(deleted));
+        } finally {
+            StoreUtil.removeUser(deleted);
+        }
+    }
+
+    @Test
+    public void testInvalidateAllTokens() {
+        User leaving = new User("touchLeaving", EncryptUtil.hashPassword("123456"));
+        StoreUtil.storeUser(leaving);
+        String[] tokens = new String[5];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = TokenUtil.generateToken(leaving);
+        }
+        String otherToken = TokenUtil.generateToken(user);
+        // an invalidated token is already out of the user's sessions
+        TokenUtil.invalidateToken(tokens[2]);
+        String signed;
+        TokenUtil.setTokenMode(TokenUtil.TokenMode.SIGNED);
+        try {
+            signed = TokenUtil.generateToken(leaving);
+        } finally {
+            TokenUtil.setTokenMode(TokenUtil.TokenMode.SESSION);
+        }
+        Assert.assertTrue(TokenUtil.validateToken(signed));
+
+        Assert.assertEquals(4, TokenUtil.invalidateAllTokens("touchLeaving"));
+        for (String token : tokens) {
+            Assert.assertFalse(TokenUtil.validateToken(token));
+        }
+        Assert.assertFalse(TokenUtil.validateToken(signed));
+        Assert.assertTrue(TokenUtil.validateToken(otherToken));
+        Assert.assertEquals(0, TokenUtil.invalidateAllTokens("touchLeaving"));
+        StoreUtil.removeUser(leaving);
+    }
+
+    @Test
+    public void testSessionsPerUserCap() {
+        TokenUtil.setMaxSessionsPerUser(3);
+        TokenUtil.setTouchGranularity(0);
+        long now = ClockUtil.currentTimeMillis();
+        String first = TokenUtil.generateToken(user);
+        String second = TokenUtil.generateToken(user);
+        String third = TokenUtil.generateToken(user);
+        // the first session is used again, the second becomes the least recently touched
+        TokenUtil.touchToken(first, now + 10);
+        TokenUtil.touchToken(third, now + 10);
+        long evicted = MetricsRegistry.getDefault().snapshot().getCounter("session.evicted.user_cap");
+        String fourth = TokenUtil.generateToken(user);
+
+        Assert.assertFalse(TokenUtil.validateToken(second));
+        Assert.assertTrue(TokenUtil.validateToken(first));
+        Assert.assertTrue(TokenUtil.validateToken(third));
+        Assert.assertTrue(TokenUtil.validateToken(fourth));
+        Assert.assertEquals(evicted + 1, MetricsRegistry.getDefault().snapshot().getCounter("session.evicted.user_cap"));
+    }
+
+    @Test
+    public void testTotalSessionsCap() {
+        TokenUtil.clearSessions();
+        TokenUtil.setMaxSessions(100);
+        User[] users = new User[50];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User("capUser" + i, user.getPasswordHash());
+            StoreUtil.storeUser(users[i]);
+        }
+        long evicted = MetricsRegistry.getDefault().snapshot().getCounter("session.evicted.total_cap");
+        for (int i = 0; i < 1000; i++) {
+            TokenUtil.generateToken(users[i % users.length]);
+        }
+        Assert.assertEquals(100, MetricsRegistry.getDefault().snapshot().getGauge("session.live"));
+        Assert.assertEquals(evicted + 900, MetricsRegistry.getDefault().snapshot().getCounter("session.evicted.total_cap"));
+        for (User capUser : users) {
+            TokenUtil.invalidateAllTokens(capUser.getUserName());
+            StoreUtil.removeUser(capUser);
+        }
+    }
+
+    @Test
+    public void testCachedClockFollowsWallClock() throws InterruptedException {
+        ClockUtil.start();
+        try {
+            Thread.sleep(20);
+            Assert.assertTrue(Math.abs(System.currentTimeMillis() - ClockUtil.currentTimeMillis()) < 100);
+        } finally {
+            ClockUtil.stop();
+        }
+        Thread.sleep(20);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertNotEquals("authservice-clock", thread.getName());
+        }
+        Assert.assertTrue(Math.abs(System.currentTimeMillis() - ClockUtil.currentTimeMillis()) < 100);
+    }
+}
@@ -0,0 +1,113 @@
+package org.demo.authservice.utils;
+
+import org.demo.authservice.entity.Role;
+import org.demo.authservice.entity.User;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author agent
+ * @date 2026/10/18
+ * @description bulk loading users and role assignments
+ */
+public class UserImporterTest {
+    private static final int USERS = 2000;
+
+    @After
+    public void tearDown() {
+        for (int i = 0; i < USERS; i++) {
+            StoreUtil.removeUser(new User("import" + i));
+        }
+        StoreUtil.removeUser(new User("importHashed"));
+        StoreUtil.removeRole(new Role("importReader"));
+        StoreUtil.removeRole(new Role("importWriter"));
+    }
+
+    @Test
+    public void testImport() throws IOException {
+        StringBuilder file = new StringBuilder("# roles first\nrole\timportReader\nrole\timportWriter\n\n");
+        file.append("user\timport0\tsecret0\timportReader,importMissing\n");
+        file.append("hash\timportHashed\t").append(hex(EncryptUtil.hashPassword("hashed"))).append('\n');
+        file.append("user\timport0\tagain\n");
+        file.append("grant\timport0\timportWriter\n");
+        file.append("grant\timportNobody\timportWriter\n");
+        file.append("user\tbroken\n");
+        file.append("hash\timport1\tnot hex\n");
+        file.append("hash\timport2\tee00\n");
+        List<ImportProgress> reports = new ArrayList<>();
+        UserImporter importer = new UserImporter(ForkJoinPool.commonPool(), 2);
+        importer.setProgressListener(reports::add);
+
+        ImportProgress progress = importer.importFrom(new BufferedReader(new StringReader(file.toString())));
+
+        Assert.assertEquals(2, progress.getRolesCreated());
+        Assert.assertEquals(2, progress.getUsersCreated());
+        Assert.assertEquals(1, progress.getUsersSkipped());
+        Assert.assertEquals(2, progress.getGrantsApplied());
+        Assert.assertEquals(2, progress.getGrantsSkipped());
+        Assert.assertEquals(3, progress.getRejectedLines());
+        Assert.assertEquals(12, progress.getLines());
+        Assert.assertFalse(reports.isEmpty());
+
+        User imported = StoreUtil.getUser("import0");
+        Assert.assertTrue(EncryptUtil.verifyPassword("secret0", imported.getPasswordHash()));
+        Assert.assertTrue(imported.hasRole(new Role("importReader")));
+        Assert.assertTrue(imported.hasRole(new Role("importWriter")));
+        Assert.assertEquals(1, StoreUtil.usersInRole(new Role("importWriter").getId()).count());
+        Assert.assertTrue(EncryptUtil.verifyPassword("hashed", StoreUtil.getUser("importHashed").getPasswordHash()));
+        Assert.assertNull(StoreUtil.getUser("import1"));
+        Assert.assertNull(StoreUtil.getUser("import2"));
+    }
+
+    @Test
+    public void testImportFileInBatches() throws IOException {
+        Path file = Files.createTempFile("users", ".tsv");
+        try {
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                writer.write("role\timportReader\n");
+                for (int i = 0; i < USERS; i++) {
+                    writer.write("user\timport" + i + "\tsecret" + i + "\timportReader\n");
+                }
+            }
+            List<ImportProgress> reports = new ArrayList<>();
+            UserImporter importer = new UserImporter(ForkJoinPool.commonPool(), 256);
+            importer.setProgressListener(reports::add);
+
+            ImportProgress progress = importer.importFrom(file);
+
+            Assert.assertEquals(USERS, progress.getUsersCreated());
+            Assert.assertEquals(USERS, progress.getGrantsApplied());
+            Assert.assertEquals((USERS + 255) / 256, reports.size());
+            for (int i = 1; i < reports.size(); i++) {
+                Assert.assertTrue(reports.get(i).getUsersCreated() > reports.get(i - 1).getUsersCreated());
+            }
+            Assert.assertEquals(USERS, StoreUtil.usersInRole(new Role("importReader").getId()).count());
+            for (int i = 0; i < USERS; i += 97) {
+                Assert.assertTrue(EncryptUtil.verifyPassword("secret" + i,
+                        StoreUtil.getUser("import" + i).getPasswordHash()));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}